@@ -0,0 +1,204 @@
+package com.a8c.media.tika.core;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <p>Benchmark documents, generated from a fixed seed so every run (and every machine) parses the same bytes;
+ * kept under target/benchmark-corpus once generated</p>
+ * <p>Sizes: small is about a page of text, medium about 40 pages, large about 400 pages (images: 320x240,
+ * 1600x1200, 4000x3000)</p>
+ */
+public class BenchmarkCorpus {
+    public static final String[] TYPES = {"pdf", "docx", "html", "jpeg", "zip"};
+    public static final String[] SIZES = {"small", "medium", "large"};
+
+    private static final Path DIRECTORY = Paths.get("target", "benchmark-corpus");
+    private static final String[] WORDS = ("the quick brown fox jumps over lazy dog media server extracts text from " +
+            "documents images archives using apache tika parser detector content handler metadata page paragraph " +
+            "section chapter table figure caption reference index summary result analysis").split(" ");
+    private static final int WORDS_PER_PARAGRAPH = 60;
+    private static final int LINES_PER_PAGE = 45;
+    private static final int CHARACTERS_PER_LINE = 90;
+
+    /**
+     * @param type one of {@link #TYPES}
+     * @param size one of {@link #SIZES}
+     * @return document bytes
+     */
+    public static synchronized byte[] get(String type, String size) throws IOException {
+        Path file = DIRECTORY.resolve(size + "." + type);
+        if (Files.exists(file)) {
+            return Files.readAllBytes(file);
+        }
+        byte[] document = generate(type, size);
+        Files.createDirectories(DIRECTORY);
+        Files.write(file, document);
+        return document;
+    }
+
+    private static byte[] generate(String type, String size) throws IOException {
+        List<String> paragraphs = paragraphs(size);
+        switch (type) {
+            case "pdf":
+                return pdf(paragraphs);
+            case "docx":
+                return docx(paragraphs);
+            case "html":
+                return html(paragraphs).getBytes(StandardCharsets.UTF_8);
+            case "jpeg":
+                return jpeg(size);
+            case "zip":
+                return zip(paragraphs);
+            default:
+                throw new IllegalArgumentException("unknown benchmark document type " + type);
+        }
+    }
+
+    private static List<String> paragraphs(String size) {
+        int count;
+        switch (size) {
+            case "small":
+                count = 8;
+                break;
+            case "medium":
+                count = 300;
+                break;
+            case "large":
+                count = 3000;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown benchmark document size " + size);
+        }
+        Random random = new Random(42);
+        List<String> paragraphs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder paragraph = new StringBuilder();
+            for (int j = 0; j < WORDS_PER_PARAGRAPH; j++) {
+                paragraph.append(j == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            paragraphs.add(paragraph.append('.').toString());
+        }
+        return paragraphs;
+    }
+
+    private static List<String> lines(List<String> paragraphs) {
+        List<String> lines = new ArrayList<>();
+        for (String paragraph : paragraphs) {
+            StringBuilder line = new StringBuilder();
+            for (String word : paragraph.split(" ")) {
+                if (line.length() + word.length() + 1 > CHARACTERS_PER_LINE) {
+                    lines.add(line.toString());
+                    line.setLength(0);
+                }
+                line.append(line.length() == 0 ? "" : " ").append(word);
+            }
+            lines.add(line.toString());
+            lines.add("");
+        }
+        return lines;
+    }
+
+    private static byte[] pdf(List<String> paragraphs) throws IOException {
+        List<String> lines = lines(paragraphs);
+        try (PDDocument document = new PDDocument()) {
+            for (int start = 0; start < lines.size(); start += LINES_PER_PAGE) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 10);
+                    content.setLeading(14);
+                    content.newLineAtOffset(50, 740);
+                    for (String line : lines.subList(start, Math.min(lines.size(), start + LINES_PER_PAGE))) {
+                        content.showText(line);
+                        content.newLine();
+                    }
+                    content.endText();
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] docx(List<String> paragraphs) throws IOException {
+        try (XWPFDocument document = new XWPFDocument()) {
+            for (String paragraph : paragraphs) {
+                document.createParagraph().createRun().setText(paragraph);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.write(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static String html(List<String> paragraphs) {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\">" +
+                "<title>benchmark</title></head><body>\n");
+        for (String paragraph : paragraphs) {
+            html.append("<p>").append(paragraph).append("</p>\n");
+        }
+        return html.append("</body></html>\n").toString();
+    }
+
+    private static byte[] jpeg(String size) throws IOException {
+        int width = size.equals("small") ? 320 : size.equals("medium") ? 1600 : 4000;
+        int height = width * 3 / 4;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        Random random = new Random(42);
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, width, height);
+        for (int i = 0; i < width / 4; i++) {
+            graphics.setColor(new Color(random.nextInt(0xFFFFFF)));
+            graphics.fillRect(random.nextInt(width), random.nextInt(height), 1 + random.nextInt(width / 8),
+                    1 + random.nextInt(height / 8));
+        }
+        graphics.setColor(Color.BLACK);
+        graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, Math.max(12, width / 40)));
+        graphics.drawString("benchmark image " + size, width / 10, height / 2);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        return out.toByteArray();
+    }
+
+    // text documents spread over a few entries, archive parsing recurses into each of them
+    private static byte[] zip(List<String> paragraphs) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int entries = 4;
+        int perEntry = (paragraphs.size() + entries - 1) / entries;
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < entries; i++) {
+                zip.putNextEntry(new ZipEntry("document-" + i + ".html"));
+                List<String> part = paragraphs.subList(Math.min(paragraphs.size(), i * perEntry),
+                        Math.min(paragraphs.size(), (i + 1) * perEntry));
+                zip.write(html(part).getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+}
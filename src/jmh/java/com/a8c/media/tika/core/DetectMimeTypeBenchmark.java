@@ -0,0 +1,65 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.TikaMediaServerConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>MIME detection of {@link BenchmarkCorpus} documents, from the whole document and from the prefix a ranged
+ * detect request fetches</p>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class DetectMimeTypeBenchmark {
+
+    @Param({"pdf", "docx", "html", "jpeg", "zip"})
+    String type;
+
+    @Param({"small", "large"})
+    String size;
+
+    private byte[] document;
+    private byte[] prefix;
+    private String resourceName;
+    private TikaMediaProcessor processor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        document = BenchmarkCorpus.get(type, size);
+        prefix = Arrays.copyOf(document, Math.min(document.length,
+                new TikaMediaServerConfiguration().getDetectionPrefixSizeInBytes()));
+        resourceName = "document." + type;
+        processor = new MediaProcessorModule(null, new TikaMediaServerConfiguration()).provideTikaMediaProcessor();
+    }
+
+    @Benchmark
+    public String wholeDocument() throws IOException {
+        return processor.detectMimeType(new ByteArrayInputStream(document), resourceName);
+    }
+
+    @Benchmark
+    public String prefix() throws IOException {
+        return processor.detectMimeType(new ByteArrayInputStream(prefix), resourceName);
+    }
+}
@@ -0,0 +1,77 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.TikaMediaServerConfiguration;
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.parser.AutoDetectParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Text extraction (no OCR) of {@link BenchmarkCorpus} documents, with the static parser shared by all threads
+ * as the server does it, against one parser per thread</p>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ProcessMediaBenchmark {
+
+    private static final ProcessingOptions TEXT_ONLY = new ProcessingOptions.Builder().build();
+
+    @Param({"pdf", "docx", "html", "jpeg", "zip"})
+    String type;
+
+    @Param({"small", "medium", "large"})
+    String size;
+
+    private byte[] document;
+    private TikaMediaProcessor sharedProcessor;
+
+    @State(Scope.Thread)
+    public static class PerThreadProcessor {
+        TikaMediaProcessor processor;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            processor = new TikaMediaProcessor.Builder()
+                    .withTikaParser(new AutoDetectParser(TikaConfig.getDefaultConfig()))
+                    .build();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        document = BenchmarkCorpus.get(type, size);
+        sharedProcessor = new MediaProcessorModule(null, new TikaMediaServerConfiguration())
+                .provideTikaMediaProcessor();
+    }
+
+    @Benchmark
+    public MediaProcessingResponse sharedParser() throws Exception {
+        return sharedProcessor.processMedia(new ByteArrayInputStream(document), TEXT_ONLY);
+    }
+
+    @Benchmark
+    public MediaProcessingResponse parserPerThread(PerThreadProcessor perThread) throws Exception {
+        return perThread.processor.processMedia(new ByteArrayInputStream(document), TEXT_ONLY);
+    }
+}
@@ -0,0 +1,187 @@
+package com.a8c.media.tika.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.AsyncCompletionHandler;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.Response;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Open loop load: requests are sent at a fixed rate whatever the server does, each one at the time it is due,
+ * without waiting for earlier responses</p>
+ */
+@Slf4j
+public class LoadGenerator {
+    private final AsyncHttpClient client;
+    private final ObjectMapper objectMapper;
+    private final String target;
+    private final String admin;
+    private final List<String> resources;
+    private final long processingTimeout;
+
+    /**
+     * @param target            base url of the server under test
+     * @param admin             base url of its admin connector, metrics are sampled from there
+     * @param resources         urls requests are spread over, round robin
+     * @param processingTimeout sent as processing and download timeout of each request
+     */
+    public LoadGenerator(AsyncHttpClient client, ObjectMapper objectMapper, String target, String admin,
+                         List<String> resources, long processingTimeout) {
+        this.client = client;
+        this.objectMapper = objectMapper;
+        this.target = target;
+        this.admin = admin;
+        this.resources = resources;
+        this.processingTimeout = processingTimeout;
+    }
+
+    /**
+     * @param endpoint        process or detect
+     * @param rate            requests per second
+     * @param durationSeconds time requests are sent for
+     * @param drainSeconds    time responses are waited for once all requests are sent
+     */
+    public StageResult run(String endpoint, double rate, long durationSeconds, long drainSeconds)
+            throws InterruptedException {
+        int total = (int) Math.max(1, rate * durationSeconds);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long[] latencies = new long[total];
+        Arrays.fill(latencies, -1);
+        AtomicLong ok = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong timedOut = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(total);
+        String url = target + "/api/" + endpoint;
+
+        JvmSample before = sample();
+        long[] maxHeapUsed = {before.heapUsed};
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> maxHeapUsed[0] = Math.max(maxHeapUsed[0], sample().heapUsed),
+                1, 1, TimeUnit.SECONDS);
+
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        for (int i = 0; i < total; i++) {
+            final int index = i;
+            final long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            client.preparePost(url)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(body(resources.get(i % resources.size())))
+                    .execute(new AsyncCompletionHandler<Integer>() {
+                        @Override
+                        public Integer onCompleted(Response response) {
+                            latencies[index] = System.nanoTime() - due;
+                            int status = response.getStatusCode();
+                            if (status >= 200 && status < 300) {
+                                ok.incrementAndGet();
+                            } else if (status == 429 || status == 503) {
+                                rejected.incrementAndGet();
+                            } else if (status == 408) {
+                                timedOut.incrementAndGet();
+                            } else {
+                                failed.incrementAndGet();
+                            }
+                            done.countDown();
+                            return status;
+                        }
+
+                        @Override
+                        public void onThrowable(Throwable t) {
+                            latencies[index] = System.nanoTime() - due;
+                            failed.incrementAndGet();
+                            log.debug("request failed => " + t.getMessage());
+                            done.countDown();
+                        }
+                    });
+        }
+        done.await(drainSeconds, TimeUnit.SECONDS);
+        sampler.shutdownNow();
+        JvmSample after = sample();
+
+        StageResult result = new StageResult();
+        result.setEndpoint(endpoint);
+        result.setTargetRate(rate);
+        result.setDurationSeconds(durationSeconds);
+        result.setSent(total);
+        result.setOk(ok.get());
+        result.setRejected(rejected.get());
+        result.setTimedOut(timedOut.get());
+        result.setFailed(failed.get());
+        result.setIncomplete(done.getCount());
+        result.setThroughput((double) ok.get() / durationSeconds);
+        result.setRejectionRate((double) rejected.get() / total);
+        long[] completed = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+        result.setP50Millis(percentile(completed, 0.5));
+        result.setP99Millis(percentile(completed, 0.99));
+        result.setP999Millis(percentile(completed, 0.999));
+        result.setMaxMillis(percentile(completed, 1));
+        if (before.heapUsed >= 0 && after.heapUsed >= 0) {
+            result.setMaxHeapUsedBytes(Math.max(maxHeapUsed[0], after.heapUsed));
+            result.setGcCount(after.gcCount - before.gcCount);
+            result.setGcTimeMillis(after.gcTimeMillis - before.gcTimeMillis);
+        }
+        return result;
+    }
+
+    private String body(String resource) {
+        ObjectNode request = objectMapper.createObjectNode();
+        request.put("resourcePath", resource);
+        request.put("processingTimeout", processingTimeout);
+        request.put("fileDownloadTimeout", processingTimeout);
+        return request.toString();
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, index)]) / 1000.0;
+    }
+
+    // heap and GC figures dropwizard registers for the server JVM
+    private JvmSample sample() {
+        JvmSample sample = new JvmSample();
+        try {
+            JsonNode metrics = objectMapper.readTree(client.prepareGet(admin + "/metrics").execute().get(5,
+                    TimeUnit.SECONDS).getResponseBody());
+            sample.heapUsed = metrics.path("gauges").path("jvm.memory.heap.used").path("value").asLong(-1);
+            Iterator<Map.Entry<String, JsonNode>> gauges = metrics.path("gauges").fields();
+            while (gauges.hasNext()) {
+                Map.Entry<String, JsonNode> gauge = gauges.next();
+                if (gauge.getKey().startsWith("jvm.gc.") && gauge.getKey().endsWith(".count")) {
+                    sample.gcCount += gauge.getValue().path("value").asLong();
+                } else if (gauge.getKey().startsWith("jvm.gc.") && gauge.getKey().endsWith(".time")) {
+                    sample.gcTimeMillis += gauge.getValue().path("value").asLong();
+                }
+            }
+        } catch (Exception e) {
+            log.warn("could not read server metrics => " + e.getMessage());
+            sample.heapUsed = -1;
+        }
+        return sample;
+    }
+
+    private static class JvmSample {
+        long heapUsed;
+        long gcCount;
+        long gcTimeMillis;
+    }
+}
@@ -0,0 +1,112 @@
+package com.a8c.media.tika.loadtest;
+
+import com.a8c.media.tika.TikaMediaServerApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.dropwizard.jackson.Jackson;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.AsyncHttpClient;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.asynchttpclient.Dsl.asyncHttpClient;
+import static org.asynchttpclient.Dsl.config;
+
+/**
+ * <p>Load test of /api/process or /api/detect against documents served by a local {@link StubOrigin}; runs one
+ * stage per target rate and prints latency percentiles, throughput, rejection rate and server heap / GC per
+ * stage, also written as json so results can be compared across builds</p>
+ * <p>Starts the server in this JVM from given config unless --target points to one already running (run it in
+ * its own JVM to keep load generation out of its heap / GC figures)</p>
+ * <p>Options (--name=value): target, admin, config, endpoint (process), types (pdf,docx,html,jpeg,zip), sizes
+ * (small,medium), rates (requests per second per stage, 5,10,20), duration (seconds per stage, 30), warmup
+ * (seconds at first rate, not reported, 10), drain (seconds responses are waited for after a stage, 60),
+ * processingTimeout (ms, 30000), latency (origin ms before headers, 50), bandwidth (origin bytes per second per
+ * response, 0 for unlimited), chunkSize (16384), contentLength (true), output (target/loadtest-result.json)</p>
+ * <p>Through maven: {@code mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--rates=5,10,20
+ * --bandwidth=262144"}</p>
+ */
+@Slf4j
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        String target = options.getOrDefault("target", "");
+        String admin = options.getOrDefault("admin", "http://localhost:8081");
+        if (target.isEmpty()) {
+            new TikaMediaServerApplication().run("server", options.getOrDefault("config", "config.yml"));
+            target = "http://localhost:8080";
+        }
+        String endpoint = options.getOrDefault("endpoint", "process");
+        long duration = Long.parseLong(options.getOrDefault("duration", "30"));
+        long warmup = Long.parseLong(options.getOrDefault("warmup", "10"));
+        long drain = Long.parseLong(options.getOrDefault("drain", "60"));
+        List<Double> rates = new ArrayList<>();
+        for (String rate : options.getOrDefault("rates", "5,10,20").split(",")) {
+            rates.add(Double.parseDouble(rate));
+        }
+
+        ObjectMapper objectMapper = Jackson.newObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        try (StubOrigin origin = new StubOrigin(Integer.parseInt(options.getOrDefault("originPort", "0")),
+                Long.parseLong(options.getOrDefault("latency", "50")),
+                Long.parseLong(options.getOrDefault("bandwidth", "0")),
+                Integer.parseInt(options.getOrDefault("chunkSize", "16384")),
+                Boolean.parseBoolean(options.getOrDefault("contentLength", "true")));
+             AsyncHttpClient client = asyncHttpClient(config()
+                     .setMaxConnections(-1)
+                     .setRequestTimeout((int) TimeUnit.MINUTES.toMillis(5))
+                     .setReadTimeout((int) TimeUnit.MINUTES.toMillis(5)))) {
+            List<String> resources = new ArrayList<>();
+            for (String size : options.getOrDefault("sizes", "small,medium").split(",")) {
+                for (String type : options.getOrDefault("types", "pdf,docx,html,jpeg,zip").split(",")) {
+                    resources.add(origin.getBaseUrl() + "/corpus/" + size + "." + type);
+                }
+            }
+            LoadGenerator generator = new LoadGenerator(client, objectMapper, target, admin, resources,
+                    Long.parseLong(options.getOrDefault("processingTimeout", "30000")));
+            if (warmup > 0) {
+                log.info("warming up at " + rates.get(0) + " requests/s for " + warmup + "s");
+                generator.run(endpoint, rates.get(0), warmup, drain);
+            }
+            List<StageResult> results = new ArrayList<>();
+            for (double rate : rates) {
+                log.info("running " + endpoint + " at " + rate + " requests/s for " + duration + "s");
+                StageResult result = generator.run(endpoint, rate, duration, drain);
+                results.add(result);
+                print(result);
+            }
+            File output = new File(options.getOrDefault("output", "target/loadtest-result.json"));
+            output.getAbsoluteFile().getParentFile().mkdirs();
+            objectMapper.writeValue(output, results);
+            log.info("results written to " + output);
+        }
+        System.exit(0);
+    }
+
+    private static void print(StageResult result) {
+        System.out.println(String.format("%s @ %.1f/s: sent %d ok %d rejected %d (%.1f%%) timed out %d failed %d " +
+                        "incomplete %d | throughput %.1f/s | p50 %.1fms p99 %.1fms p999 %.1fms max %.1fms | " +
+                        "max heap %dMB gc %d (%dms)",
+                result.getEndpoint(), result.getTargetRate(), result.getSent(), result.getOk(), result.getRejected(),
+                result.getRejectionRate() * 100, result.getTimedOut(), result.getFailed(), result.getIncomplete(),
+                result.getThroughput(), result.getP50Millis(), result.getP99Millis(), result.getP999Millis(),
+                result.getMaxMillis(), result.getMaxHeapUsedBytes() / (1024 * 1024), result.getGcCount(),
+                result.getGcTimeMillis()));
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("expected --name=value, got " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,108 @@
+package com.a8c.media.tika.loadtest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+/*
+Outcome of one load stage, latencies are measured from the time a request was due to be sent, so a server falling
+behind shows up in latency instead of slowing down the load
+ */
+public class StageResult {
+    @Getter
+    @Setter
+    @JsonProperty
+    private String endpoint;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private double targetRate;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private long durationSeconds;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private long sent;
+
+    // 2xx
+    @Getter
+    @Setter
+    @JsonProperty
+    private long ok;
+
+    // 429 / 503, server shedding load
+    @Getter
+    @Setter
+    @JsonProperty
+    private long rejected;
+
+    // 408
+    @Getter
+    @Setter
+    @JsonProperty
+    private long timedOut;
+
+    // any other status, or no response at all
+    @Getter
+    @Setter
+    @JsonProperty
+    private long failed;
+
+    // still running when stage drain time ran out
+    @Getter
+    @Setter
+    @JsonProperty
+    private long incomplete;
+
+    // ok responses per second
+    @Getter
+    @Setter
+    @JsonProperty
+    private double throughput;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private double rejectionRate;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private double p50Millis;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private double p99Millis;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private double p999Millis;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private double maxMillis;
+
+    // sampled from server metrics, -1 when they could not be read
+    @Getter
+    @Setter
+    @JsonProperty
+    private long maxHeapUsedBytes = -1;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private long gcCount = -1;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private long gcTimeMillis = -1;
+}
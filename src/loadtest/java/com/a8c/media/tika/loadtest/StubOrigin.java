@@ -0,0 +1,118 @@
+package com.a8c.media.tika.loadtest;
+
+import com.a8c.media.tika.core.BenchmarkCorpus;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Local origin serving {@link BenchmarkCorpus} documents at /corpus/&lt;size&gt;.&lt;type&gt;, behaving like a
+ * slow remote origin: first byte after a latency, body at a limited bandwidth in chunks, optionally without
+ * Content-Length (chunked transfer encoding)</p>
+ */
+@Slf4j
+public class StubOrigin implements AutoCloseable {
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("pdf", "application/pdf");
+        CONTENT_TYPES.put("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document");
+        CONTENT_TYPES.put("html", "text/html");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("zip", "application/zip");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> documents = new HashMap<>();
+    private final long latencyMillis;
+    private final long bytesPerSecond;
+    private final int chunkSizeInBytes;
+    private final boolean contentLength;
+
+    /**
+     * @param port             0 for any free port
+     * @param latencyMillis    delay before response headers are sent
+     * @param bytesPerSecond   body bandwidth per response, 0 for unlimited
+     * @param chunkSizeInBytes body is written (and flushed) in chunks of this size
+     * @param contentLength    false to send bodies chunked, without Content-Length
+     */
+    public StubOrigin(int port, long latencyMillis, long bytesPerSecond, int chunkSizeInBytes, boolean contentLength)
+            throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+        this.chunkSizeInBytes = chunkSizeInBytes;
+        this.contentLength = contentLength;
+        for (String size : BenchmarkCorpus.SIZES) {
+            for (String type : BenchmarkCorpus.TYPES) {
+                documents.put(size + "." + type, BenchmarkCorpus.get(type, size));
+            }
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.createContext("/corpus/", this::serve);
+        // handlers sleep to simulate latency and bandwidth, so each response needs its own thread
+        server.setExecutor(executor);
+        server.start();
+        log.info("stub origin listening on " + getBaseUrl());
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            String name = exchange.getRequestURI().getPath().substring("/corpus/".length());
+            byte[] document = documents.get(name);
+            if (document == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            sleep(latencyMillis);
+            exchange.getResponseHeaders().set("Content-Type",
+                    CONTENT_TYPES.get(name.substring(name.lastIndexOf('.') + 1)));
+            exchange.sendResponseHeaders(200, contentLength ? document.length : 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                for (int offset = 0; offset < document.length; offset += chunkSizeInBytes) {
+                    int length = Math.min(chunkSizeInBytes, document.length - offset);
+                    body.write(document, offset, length);
+                    body.flush();
+                    if (bytesPerSecond > 0) {
+                        sleep(TimeUnit.SECONDS.toMillis(length) / bytesPerSecond);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // server under test gave up on download (timeout, too large, cancelled)
+            log.debug("stub origin response aborted => " + e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
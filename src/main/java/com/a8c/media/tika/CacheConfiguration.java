@@ -0,0 +1,30 @@
+package com.a8c.media.tika;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.Min;
+
+/**
+ * <p>Settings for caching extraction results of resources which can be revalidated with the origin</p>
+ */
+public class CacheConfiguration {
+
+    @JsonProperty
+    @Getter
+    @Setter
+    boolean enabled = true;
+
+    // approximate heap used by cached results (text and metadata), least recently used are evicted first
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(0) long maxWeightInBytes = 256L * 1000 * 1000;
+
+    // entries are dropped this long after they were extracted, even if origin would still confirm them
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1) long ttlInSeconds = 3600;
+}
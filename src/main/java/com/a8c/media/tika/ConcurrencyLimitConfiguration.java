@@ -0,0 +1,46 @@
+package com.a8c.media.tika;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+/**
+ * <p>Adaptive admission of requests to each worker pool, see
+ * {@link com.a8c.media.tika.core.AdaptiveConcurrencyLimit}; a request holds a slot from arrival until its download
+ * and parse are done. Pool threads become the starting limit and threads plus queue depth its ceiling</p>
+ */
+public class ConcurrencyLimitConfiguration {
+
+    // off admits work until the pool queue is full, as sized
+    @JsonProperty
+    @Getter
+    @Setter
+    boolean enabled = false;
+
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1) int minLimit = 1;
+
+    // how much slower than the long term average latency may get before limit is lowered
+    @JsonProperty
+    @Getter
+    @Setter
+    @DecimalMin("1.0") double tolerance = 1.5;
+
+    // share of the new estimate taken on each update, lower is steadier but slower to adapt
+    @JsonProperty
+    @Getter
+    @Setter
+    @DecimalMin("0.01") @DecimalMax("1.0") double smoothing = 0.2;
+
+    // completed tasks per limit update
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1) int sampleWindow = 20;
+}
@@ -0,0 +1,11 @@
+package com.a8c.media.tika;
+
+/*
+Threads parse work runs on
+ platform - fixed size pools of platform threads, pool size bounds parsing
+ virtual  - a virtual thread per task, pool threads plus queue depth bound tasks in flight instead of threads;
+            parsing itself is bounded by a shared number of permits (cores by default)
+ */
+public enum ExecutionMode {
+    PLATFORM, VIRTUAL
+}
@@ -0,0 +1,60 @@
+package com.a8c.media.tika;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.Lists;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+/**
+ * <p>Settings for running parses in a pool of child JVMs, so a pathological file can only exhaust the heap of its
+ * own child instead of the API JVM</p>
+ */
+public class ForkConfiguration {
+
+    @JsonProperty
+    @Getter
+    @Setter
+    boolean enabled = false;
+
+    // child JVMs kept running, parses wait for a free one once all are busy
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1) int poolSize = 4;
+
+    // command used to start a child, heap is bounded here and a child running out of it exits
+    @JsonProperty
+    @Getter
+    @Setter
+    @NotEmpty List<String> javaCommand = Lists.newArrayList("java", "-Xmx512m", "-XX:+UseSerialGC",
+            "-XX:+ExitOnOutOfMemoryError");
+
+    // child is replaced after this many parses, releasing whatever memory it accumulated
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1) int maxParsesPerChild = 100;
+
+    // child is killed when a single parse runs longer than this
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1) long parseTimeoutInMillis = 30 * 100_0 * 5;
+
+    // directory with tika-app / tika-parsers jars children are started from; classes are sent over from the API
+    // JVM when empty, which makes a child slower to start
+    @JsonProperty
+    @Getter
+    @Setter
+    String tikaBin;
+
+    // children started on startup, so first requests do not pay JVM startup
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(0) int warmChildren = 1;
+}
@@ -0,0 +1,57 @@
+package com.a8c.media.tika;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+
+import javax.validation.constraints.Min;
+
+/**
+ * <p>Settings for the shared AsyncHttpClient used to download media, all durations are in milliseconds</p>
+ */
+public class HttpClientConfiguration {
+
+    @JsonProperty
+    @Getter
+    @Min(1) int maxConnections = 200;
+
+    @JsonProperty
+    @Getter
+    @Min(1) int maxConnectionsPerHost = 50;
+
+    @JsonProperty
+    @Getter
+    boolean keepAlive = true;
+
+    @JsonProperty
+    @Getter
+    @Min(10) int connectTimeout = 5000;
+
+    // idle pooled connections are closed after this period
+    @JsonProperty
+    @Getter
+    @Min(10) int pooledConnectionIdleTimeout = 60_000;
+
+    // how often the pool cleaner looks for idle / expired connections
+    @JsonProperty
+    @Getter
+    @Min(10) int connectionPoolCleanerPeriod = 1000;
+
+    // max lifetime of a pooled connection, -1 to keep it open as long as it is in use
+    @JsonProperty
+    @Getter
+    int connectionTtl = -1;
+
+    // number of netty event loop threads, 0 to use netty default ( 2 * cores)
+    @JsonProperty
+    @Getter
+    @Min(0) int ioThreads = 0;
+
+    // resolved addresses are reused for this long, 0 disables the DNS cache
+    @JsonProperty
+    @Getter
+    @Min(0) long dnsCacheTtl = 60_000;
+
+    @JsonProperty
+    @Getter
+    @Min(1) int dnsCacheMaxEntries = 1000;
+}
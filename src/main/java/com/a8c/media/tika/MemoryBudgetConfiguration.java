@@ -0,0 +1,76 @@
+package com.a8c.media.tika;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Heap set aside for parses running at once, each reserving what its document is expected to need, see
+ * {@link com.a8c.media.tika.core.MemoryBudget}</p>
+ */
+public class MemoryBudgetConfiguration {
+
+    @JsonProperty
+    @Getter
+    @Setter
+    boolean enabled = false;
+
+    // budget shared by all parses, 0 for half of max heap
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(0) long maxInBytes = 0;
+
+    // request whose reservation does not fit waits this long for others to release theirs, then gets 429
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(0) long maxWaitInMillis = 2000;
+
+    // sent as Retry-After when budget is exhausted
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(0) int retryAfterSeconds = 5;
+
+    // parser instances, metadata and response of any document, on top of its expanded size
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(0) long baseCostInBytes = 2L * 1000 * 1000;
+
+    // heap used per downloaded byte when type has no factor of its own
+    @JsonProperty
+    @Getter
+    @Setter
+    @DecimalMin("0.0") double defaultExpansionFactor = 4;
+
+    // heap used per downloaded byte by MIME type, or by top level type as "image/*"; unknown length is taken as
+    // max file size
+    @NotNull
+    @JsonProperty
+    @Getter
+    @Setter
+    Map<String, Double> expansionFactors = defaultExpansionFactors();
+
+    private static Map<String, Double> defaultExpansionFactors() {
+        Map<String, Double> factors = new LinkedHashMap<>();
+        // decoded pages / images are many times their compressed size
+        factors.put("application/pdf", 8.0);
+        factors.put("image/*", 10.0);
+        // archives and zipped office formats inflate, then parse every entry
+        factors.put("application/zip", 10.0);
+        factors.put("application/vnd.openxmlformats-officedocument.wordprocessingml.document", 10.0);
+        factors.put("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", 12.0);
+        factors.put("application/vnd.openxmlformats-officedocument.presentationml.presentation", 10.0);
+        // chars are two bytes, plus the DOM some text parsers build
+        factors.put("text/*", 3.0);
+        return factors;
+    }
+}
@@ -0,0 +1,46 @@
+package com.a8c.media.tika;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Parsers documents are parsed with, see {@link com.a8c.media.tika.core.ParserRegistry}. Left empty every parser
+ * of tika-parsers is loaded; once trimmed, types no parser is left for are rejected with 415</p>
+ */
+public class ParserConfiguration {
+
+    // custom tika-config.xml to take parsers and detectors from, none for Tika's defaults
+    @JsonProperty
+    @Getter
+    @Setter
+    String tikaConfig;
+
+    // parser classes documents are parsed with, in order (a later one wins a type both support); empty for all
+    // parsers of the tika config
+    @NotNull
+    @JsonProperty
+    @Getter
+    @Setter
+    List<String> parserClasses = new ArrayList<>();
+
+    // MIME types parsed, empty for every type the parsers support
+    @NotNull
+    @JsonProperty
+    @Getter
+    @Setter
+    List<String> enabledTypes = new ArrayList<>();
+
+    /**
+     * @return whether anything other than all of tika-parsers is configured
+     */
+    @JsonIgnore
+    public boolean isTrimmed() {
+        return tikaConfig != null || !parserClasses.isEmpty() || !enabledTypes.isEmpty();
+    }
+}
@@ -0,0 +1,38 @@
+package com.a8c.media.tika;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.Min;
+import java.nio.file.Paths;
+
+/**
+ * <p>Settings for spilling large downloads to disk instead of keeping them on heap</p>
+ */
+public class SpoolConfiguration {
+
+    // stale spool files in this directory are deleted on startup
+    @JsonProperty
+    @Getter
+    @Setter
+    String directory = Paths.get(System.getProperty("java.io.tmpdir"), "tikaapi-spool").toString();
+
+    // bodies up to this size stay in memory, bigger ones are written to a temp file
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(0) int memoryThresholdInBytes = 1000 * 1000;
+
+    // max disk space used by all in-flight spooled downloads together
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(0) long quotaInBytes = 2000L * 1000 * 1000;
+
+    // threads writing spilled bodies to disk, so the http client event loop does not block on it
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1) int writeThreads = 2;
+}
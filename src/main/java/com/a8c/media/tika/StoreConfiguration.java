@@ -0,0 +1,37 @@
+package com.a8c.media.tika;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import java.nio.file.Paths;
+
+/**
+ * <p>Settings for the on-disk extraction store, which keeps cached results across restarts</p>
+ */
+public class StoreConfiguration {
+
+    @JsonProperty
+    @Getter
+    @Setter
+    boolean enabled = false;
+
+    @JsonProperty
+    @Getter
+    @Setter
+    String directory = Paths.get(System.getProperty("java.io.tmpdir"), "tikaapi-store").toString();
+
+    // oldest segments are compacted, or dropped if mostly live, once store grows over this size
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1) long maxSizeInBytes = 10L * 1000 * 1000 * 1000;
+
+    // segments are memory mapped once full, so they are kept well under 2GB
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1024) @Max(1024 * 1024 * 1024) int segmentSizeInBytes = 64 * 1000 * 1000;
+}
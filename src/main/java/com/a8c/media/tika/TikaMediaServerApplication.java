@@ -1,20 +1,49 @@
 package com.a8c.media.tika;
 
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import com.a8c.media.tika.core.AdaptiveConcurrencyLimit;
+import com.a8c.media.tika.core.CancellationMetrics;
+import com.a8c.media.tika.core.DownloadQueue;
+import com.a8c.media.tika.core.ExtractionCache;
+import com.a8c.media.tika.core.ExtractionKey;
+import com.a8c.media.tika.core.ExtractionStore;
+import com.a8c.media.tika.core.ForkedParserPool;
+import com.a8c.media.tika.core.ManagedAsyncHttpClient;
 import com.a8c.media.tika.core.MediaFetcher;
 import com.a8c.media.tika.core.MediaProcessorModule;
+import com.a8c.media.tika.core.MemoryBudget;
+import com.a8c.media.tika.core.ParserRegistry;
+import com.a8c.media.tika.core.ParserWarmup;
+import com.a8c.media.tika.core.PipelineMetrics;
+import com.a8c.media.tika.core.RequestTimings;
+import com.a8c.media.tika.core.SingleFlight;
+import com.a8c.media.tika.core.SpoolDirectory;
 import com.a8c.media.tika.core.TikaMediaProcessor;
+import com.a8c.media.tika.core.TypeGate;
+import com.a8c.media.tika.core.WorkerPool;
+import com.a8c.media.tika.core.WorkerPools;
 import com.a8c.media.tika.health.TikaMediaServerHealthCheck;
+import com.a8c.media.tika.resources.SerializationTimingInterceptor;
+import com.a8c.media.tika.resources.TikaBatchProcessingResource;
 import com.a8c.media.tika.resources.TikaMediaProcessingResource;
 import com.a8c.media.tika.resources.TikaMetaInformationResource;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.servlets.MetricsServlet;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import io.dropwizard.Application;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 
 public class TikaMediaServerApplication extends Application<TikaMediaServerConfiguration> {
 
@@ -40,21 +69,157 @@ public class TikaMediaServerApplication extends Application<TikaMediaServerConfi
      */
     @Override
     public void run(final TikaMediaServerConfiguration configuration, final Environment environment) {
-        ExecutorService executorService =
-                environment.lifecycle().executorService("tikaapi").maxThreads(configuration.getMaxProcessingThreads())
-                        .workQueue(new LinkedBlockingDeque<>(configuration.getMaxProcessingQueueDepth())).build();
-        final TikaMediaServerHealthCheck healthCheck = new TikaMediaServerHealthCheck(executorService,configuration);
-        final MediaProcessorModule mediaProcessorModule = new MediaProcessorModule(executorService, configuration);
+        // parse stage, threads only ever run Tika so pools are kept at full size
+        final ExecutionMode executionMode = configuration.getExecutionMode();
+        final Semaphore parsePermits = executionMode == ExecutionMode.VIRTUAL ?
+                new Semaphore(configuration.getVirtualParsePermits() > 0 ? configuration.getVirtualParsePermits() :
+                        Runtime.getRuntime().availableProcessors()) : null;
+        final ConcurrencyLimitConfiguration limitConfiguration = configuration.getConcurrencyLimitConfiguration();
+        final WorkerPools workerPools = new WorkerPools(
+                newWorkerPool(environment, executionMode, limitConfiguration, "tikaapi-detect",
+                        configuration.getDetectPool().getMaxThreads(),
+                        configuration.getDetectPool().getMaxQueueDepth(),
+                        configuration.getDetectPool().getRetryAfterSeconds()),
+                newWorkerPool(environment, executionMode, limitConfiguration, "tikaapi",
+                        configuration.getMaxProcessingThreads(),
+                        configuration.getMaxProcessingQueueDepth(), configuration.getProcessingRetryAfterSeconds()),
+                newWorkerPool(environment, executionMode, limitConfiguration, "tikaapi-ocr",
+                        configuration.getOcrPool().getMaxThreads(),
+                        configuration.getOcrPool().getMaxQueueDepth(),
+                        configuration.getOcrPool().getRetryAfterSeconds()));
+        final ExecutorService executorService = workerPools.getText().getExecutor();
+        final ManagedAsyncHttpClient httpClient =
+                new ManagedAsyncHttpClient(configuration.getHttpClientConfiguration());
+        environment.lifecycle().manage(httpClient);
+        httpClient.registerMetrics(environment.metrics());
+        // spilled bodies wait on heap (reading from origin paused) while writes lag behind
+        final ExecutorService spoolWriteExecutor = environment.lifecycle().executorService("tikaapi-spool")
+                .minThreads(configuration.getSpoolConfiguration().getWriteThreads())
+                .maxThreads(configuration.getSpoolConfiguration().getWriteThreads())
+                .workQueue(new LinkedBlockingDeque<>()).build();
+        final SpoolDirectory spoolDirectory =
+                new SpoolDirectory(configuration.getSpoolConfiguration(), spoolWriteExecutor);
+        environment.lifecycle().manage(spoolDirectory);
+        spoolDirectory.registerMetrics(environment.metrics());
+        // queued downloads are bounded by the download queue itself
+        final ExecutorService downloadStartExecutor = environment.lifecycle()
+                .executorService("tikaapi-download-start").minThreads(configuration.getDownloadStartThreads())
+                .maxThreads(configuration.getDownloadStartThreads()).workQueue(new LinkedBlockingDeque<>()).build();
+        final DownloadQueue downloadQueue = new DownloadQueue(configuration.getMaxConcurrentDownloads(),
+                configuration.getMaxQueuedDownloads(), downloadStartExecutor);
+        downloadQueue.registerMetrics(environment.metrics());
+        final CancellationMetrics cancellationMetrics =
+                new CancellationMetrics(executionMode == ExecutionMode.PLATFORM);
+        cancellationMetrics.registerMetrics(environment.metrics());
+        final PipelineMetrics pipelineMetrics = new PipelineMetrics(environment.metrics());
+        MemoryBudget memoryBudget = null;
+        if (configuration.getMemoryBudgetConfiguration().isEnabled()) {
+            // only fails reservations which waited too long
+            memoryBudget = new MemoryBudget(configuration.getMemoryBudgetConfiguration(),
+                    environment.lifecycle().scheduledExecutorService("tikaapi-memory").threads(1).build());
+            memoryBudget.registerMetrics(environment.metrics());
+        }
+        ExtractionCache extractionCache = null;
+        if (configuration.getCacheConfiguration().isEnabled()) {
+            ExtractionStore extractionStore = null;
+            if (configuration.getStoreConfiguration().isEnabled()) {
+                extractionStore = new ExtractionStore(configuration.getStoreConfiguration());
+                environment.lifecycle().manage(extractionStore);
+                extractionStore.registerMetrics(environment.metrics());
+            }
+            extractionCache = new ExtractionCache(configuration.getCacheConfiguration(), extractionStore);
+            extractionCache.registerMetrics(environment.metrics());
+        }
+        for (WorkerPool workerPool : workerPools.all()) {
+            workerPool.withParsePermits(parsePermits);
+            workerPool.registerMetrics(environment.metrics());
+        }
+        if (parsePermits != null) {
+            environment.metrics().register(MetricRegistry.name(WorkerPool.class, "parse-permits-available"),
+                    (Gauge<Integer>) parsePermits::availablePermits);
+        }
+        ForkedParserPool forkedParserPool = null;
+        if (configuration.getForkConfiguration().isEnabled()) {
+            forkedParserPool = new ForkedParserPool(configuration.getForkConfiguration());
+            environment.lifecycle().manage(forkedParserPool);
+            forkedParserPool.registerMetrics(environment.metrics());
+        }
+        // page OCR tasks are bounded per document and by the ocr pool, so queue needs no bound of its own
+        final ExecutorService ocrPageExecutor = environment.lifecycle().executorService("tikaapi-ocr-pages")
+                .minThreads(configuration.getOcrPageThreads()).maxThreads(configuration.getOcrPageThreads())
+                .workQueue(new LinkedBlockingDeque<>()).build();
+        final MediaProcessorModule mediaProcessorModule =
+                new MediaProcessorModule(executorService, configuration, forkedParserPool, ocrPageExecutor);
         Injector injector = Guice.createInjector(mediaProcessorModule);
+        ParserWarmup parserWarmup = null;
+        if (configuration.getWarmupConfiguration().isEnabled()) {
+            parserWarmup = new ParserWarmup(injector.getInstance(TikaMediaProcessor.class),
+                    configuration.getWarmupConfiguration());
+            environment.lifecycle().manage(parserWarmup);
+            parserWarmup.registerMetrics(environment.metrics());
+        }
+        TypeGate typeGate = null;
+        if (configuration.getTypeGateConfiguration().isEnabled()) {
+            typeGate = new TypeGate(configuration.getTypeGateConfiguration(),
+                    injector.getInstance(ParserRegistry.class));
+            typeGate.registerMetrics(environment.metrics());
+        }
+        final TikaMediaServerHealthCheck healthCheck = new TikaMediaServerHealthCheck(workerPools, memoryBudget,
+                parserWarmup, configuration);
         environment.getAdminContext().addServlet(MetricsServlet.class, "/metrics");
         environment.healthChecks().register("health", healthCheck);
+        final SingleFlight<ExtractionKey.Flight, RequestTimings.Timed<MediaProcessingResponse>> processingFlights =
+                new SingleFlight<>("process");
+        processingFlights.registerMetrics(environment.metrics());
         TikaMediaProcessingResource tikaMediaProcessingResource =
                 new TikaMediaProcessingResource(injector.getInstance(TikaMediaProcessor.class),
-                        new MediaFetcher(configuration.getSources()),
+                        new MediaFetcher.Builder()
+                                .withSources(configuration.getSources())
+                                .withHttpClient(httpClient)
+                                .withSpoolDirectory(spoolDirectory)
+                                .withDownloadQueue(downloadQueue)
+                                .withExtractionCache(extractionCache)
+                                .withPipelineMetrics(pipelineMetrics)
+                                .withMemoryBudget(memoryBudget)
+                                .withTypeGate(typeGate)
+                                .withCancellationMetrics(cancellationMetrics)
+                                .build(),
                         configuration,
-                        executorService);
+                        workerPools,
+                        processingFlights,
+                        environment.getObjectMapper());
         environment.jersey().register(tikaMediaProcessingResource);
+        environment.jersey().register(new SerializationTimingInterceptor(pipelineMetrics));
+        // only fires batch deadlines, batch items run on the same executors as single requests
+        final ScheduledExecutorService batchScheduler =
+                environment.lifecycle().scheduledExecutorService("tikaapi-batch").threads(1).build();
+        environment.jersey().register(new TikaBatchProcessingResource(tikaMediaProcessingResource, configuration,
+                batchScheduler, environment.getObjectMapper()));
         environment.jersey().register(injector.getInstance(TikaMetaInformationResource.class));
     }
 
+    private WorkerPool newWorkerPool(Environment environment, ExecutionMode executionMode,
+                                     ConcurrencyLimitConfiguration limitConfiguration, String name, int threads,
+                                     int queueDepth, int retryAfterSeconds) {
+        WorkerPool workerPool = new WorkerPool(name, retryAfterSeconds);
+        if (limitConfiguration.isEnabled()) {
+            // starts at what the threads can run at once, may grow into the queue while latency holds up
+            workerPool.withConcurrencyLimit(new AdaptiveConcurrencyLimit(threads, limitConfiguration.getMinLimit(),
+                    threads + queueDepth, limitConfiguration.getTolerance(), limitConfiguration.getSmoothing(),
+                    limitConfiguration.getSampleWindow()));
+        }
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            // a thread per task, one waiting on a slow download or a tesseract process costs next to nothing;
+            // parses are bounded by the parse permits, tasks by what the pool would hold running and queued
+            final ExecutorService threadPerTaskExecutor =
+                    Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+            environment.lifecycle().manage(new ExecutorServiceManager(threadPerTaskExecutor, Duration.seconds(5),
+                    name));
+            return workerPool.withVirtualThreads(threadPerTaskExecutor, threads + queueDepth);
+        }
+        return workerPool.withExecutor((ThreadPoolExecutor) environment.lifecycle().executorService(name)
+                .minThreads(threads).maxThreads(threads).workQueue(new LinkedBlockingDeque<>(queueDepth))
+                .rejectedExecutionHandler(workerPool.rejectionHandler()).build());
+    }
+
 }
@@ -5,7 +5,9 @@ import io.dropwizard.Configuration;
 import lombok.Getter;
 import lombok.Setter;
 
+import javax.validation.Valid;
 import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
 import java.util.ArrayList;
 
 public class TikaMediaServerConfiguration extends Configuration {
@@ -27,21 +29,176 @@ public class TikaMediaServerConfiguration extends Configuration {
     @Getter
     int maxProcessingQueueDepth = 10;
 
+    // maxProcessingThreads / maxProcessingQueueDepth size the plain text extraction pool
     @JsonProperty
     @Getter
     int maxProcessingThreads = 10;
 
+    @JsonProperty
+    @Getter
+    @Min(0) int processingRetryAfterSeconds = 5;
+
+    // platform or virtual threads for parse work, see ExecutionMode
+    @NotNull
+    @JsonProperty
+    @Getter
+    ExecutionMode executionMode = ExecutionMode.PLATFORM;
+
+    // with virtual execution mode, parses running at once across all pools, 0 for number of cores
+    @JsonProperty
+    @Getter
+    @Min(0) int virtualParsePermits = 0;
+
+    @Valid
+    @NotNull
+    @JsonProperty
+    @Getter
+    WorkerPoolConfiguration detectPool = new WorkerPoolConfiguration(4, 100, 1);
+
+    @Valid
+    @NotNull
+    @JsonProperty
+    @Getter
+    WorkerPoolConfiguration ocrPool = new WorkerPoolConfiguration(2, 10, 30);
+
+    // > 1 OCRs pages (embedded images) of one document on this many page threads at once, text kept in page order
+    @JsonProperty
+    @Getter
+    @Min(1) int maxOcrPagesInParallel = 4;
+
+    // page threads shared by all documents, mostly waiting on Tesseract processes
+    @JsonProperty
+    @Getter
+    @Min(1) int ocrPageThreads = Runtime.getRuntime().availableProcessors();
+
+    // with ocrStrategy auto, pages with fewer (non whitespace) characters of text than this are OCRed
+    @JsonProperty
+    @Getter
+    @Min(0) int autoOcrMinCharactersPerPage = 100;
+
+    // downloads run on the http client event loop, these only bound how many run / wait at once
+    @JsonProperty
+    @Getter
+    @Min(1) int maxConcurrentDownloads = 100;
+
+    @JsonProperty
+    @Getter
+    @Min(0) int maxQueuedDownloads = 1000;
+
+    // threads queued downloads are started on once a slot frees up, off the event loop as starting one may block
+    // on a DNS lookup
+    @JsonProperty
+    @Getter
+    @Min(1) int downloadStartThreads = 4;
+
 
     @JsonProperty("sources")
     @Getter
     ArrayList<String> sources;
 
+    // bodies over spool.memoryThresholdInBytes are spooled to disk, so this is bounded by spool.quotaInBytes rather
+    // than by heap
     @Getter
     @JsonProperty
-    private int maxFileSizeInBytes = 2000 * 1000;
+    private int maxFileSizeInBytes = 500 * 1000 * 1000;
 
     @Getter
     @JsonProperty
     private boolean ignoreIfNoContentLengthHeader = true;
 
+    // > 0 streams downloads straight into the parser, holding at most this many bytes of body in memory
+    @Getter
+    @JsonProperty
+    @Min(0)
+    private int streamingBufferSizeInBytes = 0;
+
+    // > 0 detects MIME type from this many leading bytes (Range request), whole resource is fetched only if needed
+    @Getter
+    @JsonProperty
+    @Min(0)
+    private int detectionPrefixSizeInBytes = 65536;
+
+    // max items accepted in one batch request
+    @Getter
+    @JsonProperty
+    @Min(1)
+    private int maxBatchSize = 1000;
+
+    // items of one batch in flight at once, the rest start as these complete
+    @Getter
+    @JsonProperty
+    @Min(1)
+    private int maxBatchConcurrency = 16;
+
+    @Getter
+    @JsonProperty
+    @Min(1)
+    private long defaultBatchTimeout = 1000 * 60;
+
+    // requests taking longer than this are logged with their timing breakdown to the slow-requests logger, <= 0
+    // to disable
+    @Getter
+    @JsonProperty
+    private long slowRequestThresholdInMillis = 10_000;
+
+    @Valid
+    @NotNull
+    @Getter
+    @JsonProperty("concurrencyLimit")
+    private ConcurrencyLimitConfiguration concurrencyLimitConfiguration = new ConcurrencyLimitConfiguration();
+
+    @Valid
+    @NotNull
+    @Getter
+    @JsonProperty("memoryBudget")
+    private MemoryBudgetConfiguration memoryBudgetConfiguration = new MemoryBudgetConfiguration();
+
+    @Valid
+    @NotNull
+    @Getter
+    @JsonProperty("warmup")
+    private WarmupConfiguration warmupConfiguration = new WarmupConfiguration();
+
+    @Valid
+    @NotNull
+    @Getter
+    @JsonProperty("parsers")
+    private ParserConfiguration parserConfiguration = new ParserConfiguration();
+
+    @Valid
+    @NotNull
+    @Getter
+    @JsonProperty("typeGate")
+    private TypeGateConfiguration typeGateConfiguration = new TypeGateConfiguration();
+
+    @Valid
+    @NotNull
+    @Getter
+    @JsonProperty("httpClient")
+    private HttpClientConfiguration httpClientConfiguration = new HttpClientConfiguration();
+
+    @Valid
+    @NotNull
+    @Getter
+    @JsonProperty("spool")
+    private SpoolConfiguration spoolConfiguration = new SpoolConfiguration();
+
+    @Valid
+    @NotNull
+    @Getter
+    @JsonProperty("cache")
+    private CacheConfiguration cacheConfiguration = new CacheConfiguration();
+
+    @Valid
+    @NotNull
+    @Getter
+    @JsonProperty("store")
+    private StoreConfiguration storeConfiguration = new StoreConfiguration();
+
+    @Valid
+    @NotNull
+    @Getter
+    @JsonProperty("fork")
+    private ForkConfiguration forkConfiguration = new ForkConfiguration();
+
 }
@@ -0,0 +1,44 @@
+package com.a8c.media.tika;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Types downloads are let through by, sniffed from their first bytes as they arrive, see
+ * {@link com.a8c.media.tika.core.TypeGate}</p>
+ */
+public class TypeGateConfiguration {
+
+    @JsonProperty
+    @Getter
+    @Setter
+    boolean enabled = false;
+
+    // leading bytes type is sniffed from, along with Content-Type and file name of the url
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1) int sniffSizeInBytes = 65536;
+
+    // MIME types, or top level types as "video/*", aborted with 415; their subtypes are aborted too
+    @NotNull
+    @JsonProperty
+    @Getter
+    @Setter
+    List<String> deniedTypes = new ArrayList<>();
+
+    // MIME types, or top level types as "text/*", let through; empty for the types parsers are configured for
+    // (every type with all of tika-parsers). Generic types such as zip or octet-stream are always let through,
+    // parser tells them apart once the whole body is there
+    @NotNull
+    @JsonProperty
+    @Getter
+    @Setter
+    List<String> allowedTypes = new ArrayList<>();
+}
@@ -0,0 +1,35 @@
+package com.a8c.media.tika;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Parsing of the embedded sample corpus at startup, so class loading, JIT and Tesseract model loading are not
+ * paid by the first requests after a deploy; health check reports warming until it is done</p>
+ */
+public class WarmupConfiguration {
+
+    @JsonProperty
+    @Getter
+    @Setter
+    boolean enabled = true;
+
+    // parses of each sample, the first one is reported as cold latency
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1) int iterations = 5;
+
+    // OCR languages to warm up Tesseract for, empty to skip OCR
+    @NotNull
+    @JsonProperty
+    @Getter
+    @Setter
+    List<String> ocrLanguages = new ArrayList<>();
+}
@@ -0,0 +1,39 @@
+package com.a8c.media.tika;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.Min;
+
+/**
+ * <p>Size and queue of one class of parse work, so one kind of work can not starve the others</p>
+ */
+public class WorkerPoolConfiguration {
+
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1) int maxThreads;
+
+    // work beyond this is rejected with 429
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(1) int maxQueueDepth;
+
+    // sent as Retry-After when queue is full
+    @JsonProperty
+    @Getter
+    @Setter
+    @Min(0) int retryAfterSeconds;
+
+    public WorkerPoolConfiguration() {
+    }
+
+    public WorkerPoolConfiguration(int maxThreads, int maxQueueDepth, int retryAfterSeconds) {
+        this.maxThreads = maxThreads;
+        this.maxQueueDepth = maxQueueDepth;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
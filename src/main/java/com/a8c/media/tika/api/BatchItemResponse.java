@@ -0,0 +1,38 @@
+package com.a8c.media.tika.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+/*
+One line of a batch response, items are written in completion order so index refers back to the request
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResponse<T> {
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private int index;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private String resourcePath;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private int status;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private String error;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private T result;
+}
@@ -0,0 +1,24 @@
+package com.a8c.media.tika.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchRequest<T> {
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private List<T> items = new ArrayList<>();
+
+    /*
+    Deadline for the whole batch in ms, items not finished by then are reported with status 408
+     */
+    @Getter
+    @Setter
+    @JsonProperty
+    private long batchTimeout = -1;
+}
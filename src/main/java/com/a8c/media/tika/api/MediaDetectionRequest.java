@@ -21,4 +21,12 @@ public class MediaDetectionRequest {
     @JsonProperty
     private long fileDownloadTimeout = -1;
 
+    /*
+    Response gets a breakdown of where the time of the request went, see Timings
+     */
+    @Getter
+    @Setter
+    @JsonProperty
+    private boolean includeTimings;
+
 }
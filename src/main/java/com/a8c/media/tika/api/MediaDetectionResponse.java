@@ -1,5 +1,6 @@
 package com.a8c.media.tika.api;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
 import lombok.Setter;
@@ -9,4 +10,11 @@ public class MediaDetectionResponse {
     @Setter
     @JsonProperty
     private String mimeType;
+
+    // only when requested with includeTimings
+    @Getter
+    @Setter
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Timings timings;
 }
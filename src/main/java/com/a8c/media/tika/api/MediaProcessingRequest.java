@@ -1,5 +1,6 @@
 package com.a8c.media.tika.api;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
 import lombok.Setter;
@@ -18,6 +19,14 @@ public class MediaProcessingRequest {
     @JsonProperty
     private boolean useOCR;
 
+    /*
+    Takes precedence over useOCR when set, see OcrStrategy
+     */
+    @Getter
+    @Setter
+    @JsonProperty
+    private OcrStrategy ocrStrategy;
+
     @Getter
     @Setter
     @JsonProperty
@@ -37,4 +46,39 @@ public class MediaProcessingRequest {
     @JsonProperty("ocrLangs")
     private ArrayList<String> ocrLangs;
 
+    /*
+    Extracted text is cut after this many characters and the response flagged truncated, -1 for no limit
+     */
+    @Getter
+    @Setter
+    @JsonProperty
+    private int maxContentCharacters = -1;
+
+    /*
+    Response gets a breakdown of where the time of the request went, see Timings; streamed json gets it as its
+    last field, streamed plain text does not get it
+     */
+    @Getter
+    @Setter
+    @JsonProperty
+    private boolean includeTimings;
+
+    /**
+     * @return ocrStrategy, or the one useOCR stands for when not set
+     */
+    @JsonIgnore
+    public OcrStrategy getEffectiveOcrStrategy() {
+        if (ocrStrategy != null) {
+            return ocrStrategy;
+        }
+        return useOCR ? OcrStrategy.ALWAYS : OcrStrategy.NEVER;
+    }
+
+    /**
+     * @return whether OCR may be applied to some of the document
+     */
+    @JsonIgnore
+    public boolean isOcrRequested() {
+        return getEffectiveOcrStrategy() != OcrStrategy.NEVER;
+    }
 }
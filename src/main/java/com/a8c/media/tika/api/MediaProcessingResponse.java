@@ -1,9 +1,11 @@
 package com.a8c.media.tika.api;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.List;
 import java.util.Map;
 
 
@@ -18,8 +20,28 @@ public class MediaProcessingResponse {
     @JsonProperty
     private String contentText;
 
+    // content text was cut at the requested maxContentCharacters
+    @Getter
+    @Setter
+    @JsonProperty
+    private boolean truncated;
+
+    // pages (1-based) whose images were OCRed, omitted when OCR was not requested
+    @Getter
+    @Setter
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<Integer> ocrPages;
+
     @Getter
     @Setter
     @JsonProperty
     private Map<String, String> metaData;
+
+    // only when requested with includeTimings
+    @Getter
+    @Setter
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Timings timings;
 }
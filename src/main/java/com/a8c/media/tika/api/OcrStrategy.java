@@ -0,0 +1,26 @@
+package com.a8c.media.tika.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/*
+When OCR is applied to a document
+ never  - text layer only
+ always - every image in the document
+ auto   - only images on pages with (nearly) no text layer, born-digital pages are not OCRed
+ */
+public enum OcrStrategy {
+    NEVER, ALWAYS, AUTO;
+
+    @JsonCreator
+    public static OcrStrategy fromString(String value) {
+        return value == null ? null : valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+
+    @JsonValue
+    public String toValue() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,98 @@
+package com.a8c.media.tika.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+/*
+Where the time of one request went, in ms; stages the request did not go through are omitted. Stages may overlap
+(download and parse when streaming, OCR pages with each other and the parse)
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Timings {
+    // waiting for a download slot
+    @Getter
+    @Setter
+    @JsonProperty
+    private Long downloadQueueMillis;
+
+    // tcp (and tls) connect to origin, omitted when a pooled connection was used
+    @Getter
+    @Setter
+    @JsonProperty
+    private Long connectMillis;
+
+    // request sent until origin status line received
+    @Getter
+    @Setter
+    @JsonProperty
+    private Long firstByteMillis;
+
+    // request sent until whole body received
+    @Getter
+    @Setter
+    @JsonProperty
+    private Long downloadMillis;
+
+    // waiting for a parse thread
+    @Getter
+    @Setter
+    @JsonProperty
+    private Long parseQueueMillis;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private Long detectMillis;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private Long parseMillis;
+
+    // Tesseract time summed over pages
+    @Getter
+    @Setter
+    @JsonProperty
+    private Long ocrMillis;
+
+    // writing the response, only known once it is written so only in the slow request log
+    @Getter
+    @Setter
+    @JsonProperty
+    private Long serializeMillis;
+
+    // request received until response written (in response: until response was ready)
+    @Getter
+    @Setter
+    @JsonProperty
+    private Long totalMillis;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private Long downloadedBytes;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private Long extractedCharacters;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private String mimeType;
+
+    // parser that handled the document (innermost one for composite parsers)
+    @Getter
+    @Setter
+    @JsonProperty
+    private String parser;
+
+    // result came from a fetch started by a concurrent request for the same resource, stages are that fetch's
+    @Getter
+    @Setter
+    @JsonProperty
+    private Boolean shared;
+}
@@ -0,0 +1,129 @@
+package com.a8c.media.tika.core;
+
+import com.codahale.metrics.Meter;
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Limit on requests in flight (downloading, queued or parsing) for a worker pool which follows the latency they
+ * see, gradient style: every window of completed requests, their average latency is compared with the long term
+ * average. Getting slower than tolerated means requests wait on each other, limit is lowered in proportion;
+ * otherwise it grows by about its square root. Requests over the limit are rejected at once, before downloading
+ * anything</p>
+ * <p>Long term average rather than minimum latency is the baseline, as one pool runs documents of very different
+ * cost and the fastest of them says little about the rest</p>
+ */
+public class AdaptiveConcurrencyLimit {
+    // long term average moves this share towards each window's average
+    private static final double LONG_TERM_WEIGHT = 0.05;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final int sampleWindow;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    @Getter
+    private final Meter rejected = new Meter();
+
+    private volatile double limit;
+    // guarded by this
+    private long windowNanos;
+    private int windowSamples;
+    private int windowMaxInFlight;
+    private double longTermNanos;
+
+    /**
+     * @param initialLimit limit until latency has been seen
+     * @param minLimit     limit is never lowered below this
+     * @param maxLimit     limit is never raised above this, at most what the pool can hold
+     * @param tolerance    window average latency may be this many times the long term average before limit is
+     *                     lowered
+     * @param smoothing    share of each new estimate taken into limit
+     * @param sampleWindow completed tasks limit is updated after
+     */
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing,
+                                    int sampleWindow) {
+        this.minLimit = minLimit;
+        this.maxLimit = Math.max(minLimit, maxLimit);
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.sampleWindow = sampleWindow;
+        this.limit = clamp(initialLimit);
+    }
+
+    /**
+     * @return whether task may run, if so {@link #release(long)} must follow once it is done
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.mark();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param acquiredAt {@link System#nanoTime()} of the {@link #tryAcquire()} being released, latency sample
+     */
+    public void release(long acquiredAt) {
+        int before = inFlight.getAndDecrement();
+        onSample(System.nanoTime() - acquiredAt, before);
+    }
+
+    /**
+     * <p>Releases without a latency sample, for tasks that never ran</p>
+     */
+    public void abandon() {
+        inFlight.decrementAndGet();
+    }
+
+    synchronized void onSample(long latencyNanos, int inFlightAtCompletion) {
+        windowNanos += latencyNanos;
+        windowSamples++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightAtCompletion);
+        if (windowSamples < sampleWindow) {
+            return;
+        }
+        double shortTermNanos = (double) windowNanos / windowSamples;
+        int maxInFlight = windowMaxInFlight;
+        windowNanos = 0;
+        windowSamples = 0;
+        windowMaxInFlight = 0;
+        if (longTermNanos == 0) {
+            longTermNanos = shortTermNanos;
+            return;
+        }
+        longTermNanos = longTermNanos * (1 - LONG_TERM_WEIGHT) + shortTermNanos * LONG_TERM_WEIGHT;
+        // after a long overload the average has absorbed the slow latencies, let it come back down faster
+        if (longTermNanos > 2 * shortTermNanos) {
+            longTermNanos *= 0.95;
+        }
+        double current = limit;
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longTermNanos / shortTermNanos));
+        // too little load to tell whether a higher limit would hold up
+        if (gradient == 1.0 && maxInFlight < current / 2) {
+            return;
+        }
+        double estimate = current * gradient + Math.sqrt(current);
+        limit = clamp(current * (1 - smoothing) + estimate * smoothing);
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -1,99 +1,286 @@
 package com.a8c.media.tika.core;
 
+import io.netty.channel.Channel;
 import io.netty.handler.codec.http.HttpHeaders;
 import lombok.extern.slf4j.Slf4j;
 import org.asynchttpclient.HttpResponseBodyPart;
 import org.asynchttpclient.HttpResponseStatus;
 import org.asynchttpclient.Response;
 import org.asynchttpclient.handler.ProgressAsyncHandler;
+import org.asynchttpclient.netty.request.NettyRequest;
 import org.asynchttpclient.uri.Uri;
 
+import javax.net.ssl.SSLSession;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * <p>Download handler enforcing max file size, from Content-Length header if present and on the fly as body parts
+ * arrive otherwise</p>
+ * <p>By default body is accumulated in the response; if a {@link BodySink} is supplied body parts are pushed into it
+ * instead (streamed to the parser, or spooled to disk)</p>
+ * <p>With a {@link TypeGate} type is sniffed from the first body parts, download is aborted with 415 as soon as they
+ * tell it is of a type not to be parsed</p>
+ */
 @Slf4j
 public abstract class AsyncCompletionHandlerWithContentLengthCheck<T> implements ProgressAsyncHandler<T> {
     private final Response.ResponseBuilder builder = new Response.ResponseBuilder();
     private final int maxContentLength;
     private final boolean ignoreIfNoHeader;
     private final String path;
+    private final BodySink bodySink;
+    private final CompletableFuture<Integer> statusCode = new CompletableFuture<>();
+    private volatile Channel channel;
+    private volatile HttpHeaders receivedHeaders;
+    private int receivedStatusCode;
+    private volatile long receivedBytes;
+    private boolean tooLarge;
+    private RequestTimings timings;
+    private long connectStartedAt;
+    private long tlsStartedAt;
+    private long requestSentAt;
+    private TypeGate typeGate;
+    private String resourceName;
+    private int sniffSizeInBytes;
+    private final ByteArrayOutputStream sniffBuffer = new ByteArrayOutputStream();
+    private final CompletableFuture<TypeGate.Sniffed> sniffed = new CompletableFuture<>();
+    private volatile boolean unsupportedType;
 
     public AsyncCompletionHandlerWithContentLengthCheck(int maxContentLength, boolean ignoreIfNoHeader, String path) {
+        this(maxContentLength, ignoreIfNoHeader, path, null);
+    }
+
+    public AsyncCompletionHandlerWithContentLengthCheck(int maxContentLength, boolean ignoreIfNoHeader, String path,
+                                                        BodySink bodySink) {
         this.maxContentLength = maxContentLength;
         this.ignoreIfNoHeader = ignoreIfNoHeader;
         this.path = path;
+        this.bodySink = bodySink;
+        if (bodySink != null) {
+            bodySink.setFlowControl(new BodySink.FlowControl() {
+                @Override
+                public void pause() {
+                    setAutoRead(false);
+                }
+
+                @Override
+                public void resume() {
+                    setAutoRead(true);
+                }
+            });
+        }
+    }
+
+    private void setAutoRead(boolean autoRead) {
+        Channel current = channel;
+        if (current != null) {
+            current.config().setAutoRead(autoRead);
+        }
+    }
+
+    /**
+     * <p>Completes once headers are validated (or download failed), with the status code to be used for the
+     * request; in streaming mode body can be read once this is 200</p>
+     *
+     * @return future of response status code
+     */
+    public CompletableFuture<Integer> getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return headers sent by origin, null if none were received yet
+     */
+    public HttpHeaders getHeaders() {
+        return receivedHeaders;
+    }
+
+    /**
+     * @return true if download was aborted because it was bigger than max allowed size
+     */
+    public boolean isTooLarge() {
+        return tooLarge;
+    }
+
+    /**
+     * @return body bytes received so far
+     */
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    /**
+     * @param timings receives connect and first byte times, may be null
+     */
+    public void setTimings(RequestTimings timings) {
+        this.timings = timings;
+    }
+
+    /**
+     * @param typeGate         sniffs type of body as it arrives, null to take any type
+     * @param resourceName     file name of the url, used as a hint, may be null
+     * @param sniffSizeInBytes body bytes type is sniffed from, at most what body sink holds before pausing
+     */
+    public void setTypeGate(TypeGate typeGate, String resourceName, int sniffSizeInBytes) {
+        this.typeGate = typeGate;
+        this.resourceName = resourceName;
+        this.sniffSizeInBytes = sniffSizeInBytes;
+    }
+
+    /**
+     * <p>Completes once type is sniffed from the first body parts, with null if there is no type gate, origin did
+     * not return 200 or body ended (or download failed) before anything could be sniffed</p>
+     *
+     * @return future of the sniffed type
+     */
+    public CompletableFuture<TypeGate.Sniffed> getSniffed() {
+        return sniffed;
+    }
+
+    /**
+     * @return true if download was aborted because body was of a type not to be parsed
+     */
+    public boolean isUnsupportedType() {
+        return unsupportedType;
+    }
+
+    @Override
+    public void onTcpConnectAttempt(InetSocketAddress remoteAddress) {
+        connectStartedAt = System.nanoTime();
+    }
+
+    @Override
+    public void onTcpConnectSuccess(InetSocketAddress remoteAddress, Channel connection) {
+        this.channel = connection;
+        if (timings != null) {
+            timings.addSince(RequestTimings.Stage.CONNECT, connectStartedAt);
+        }
+    }
+
+    @Override
+    public void onTlsHandshakeAttempt() {
+        tlsStartedAt = System.nanoTime();
+    }
+
+    @Override
+    public void onTlsHandshakeSuccess(SSLSession sslSession) {
+        if (timings != null) {
+            timings.addSince(RequestTimings.Stage.CONNECT, tlsStartedAt);
+        }
+    }
+
+    @Override
+    public void onRequestSend(NettyRequest request) {
+        requestSentAt = System.nanoTime();
+    }
+
+    @Override
+    public void onConnectionPooled(Channel connection) {
+        this.channel = connection;
     }
 
     public State onStatusReceived(HttpResponseStatus status) throws Exception {
+        if (timings != null && requestSentAt != 0) {
+            timings.add(RequestTimings.Stage.FIRST_BYTE, System.nanoTime() - requestSentAt);
+        }
         this.builder.reset();
         this.builder.accumulate(status);
+        this.receivedStatusCode = status.getStatusCode();
+        this.receivedBytes = 0;
+        this.sniffBuffer.reset();
         return State.CONTINUE;
     }
 
 
     public State onHeadersReceived(HttpHeaders headers) throws Exception {
+        this.receivedHeaders = headers;
         int contentLength = 0;
         if (headers.contains("Content-Length")) {
             contentLength = headers.getInt("Content-Length");
             onContentLengthRecvd(contentLength, true);
             log.info(path + " returned with content length of " + contentLength);
             if (contentLength > maxContentLength) {
-                this.builder.accumulate(new HttpResponseStatus(Uri.create(path)) {
-                    @Override
-                    public int getStatusCode() {
-                        return 413;
-                    }
-
-                    @Override
-                    public String getStatusText() {
-                        return "too Large file to process";
-                    }
-
-                    @Override
-                    public String getProtocolName() {
-                        return "http";
-                    }
-
-                    @Override
-                    public int getProtocolMajorVersion() {
-                        return 0;
-                    }
-
-                    @Override
-                    public int getProtocolMinorVersion() {
-                        return 0;
-                    }
-
-                    @Override
-                    public String getProtocolText() {
-                        return null;
-                    }
-
-                    @Override
-                    public SocketAddress getRemoteAddress() {
-                        return null;
-                    }
-
-                    @Override
-                    public SocketAddress getLocalAddress() {
-                        return null;
-                    }
-                });
-                return State.ABORT;
+                return abortTooLarge();
             }
         } else {
             onContentLengthRecvd(-1, false);
             if (!ignoreIfNoHeader) {
+                statusCode.complete(receivedStatusCode);
                 return State.ABORT;
             }
         }
         this.builder.accumulate(headers);
+        statusCode.complete(receivedStatusCode);
+        if (bodySink != null && receivedStatusCode != javax.ws.rs.core.Response.Status.OK.getStatusCode() &&
+                receivedStatusCode != javax.ws.rs.core.Response.Status.PARTIAL_CONTENT.getStatusCode()) {
+            // error bodies are of no use to the parser
+            return State.ABORT;
+        }
         return State.CONTINUE;
     }
 
+    // false if body is not to be parsed
+    private boolean sniff() {
+        TypeGate.Sniffed result = typeGate.sniff(sniffBuffer.toByteArray(),
+                receivedHeaders == null ? null : receivedHeaders.get("Content-Type"), resourceName);
+        if (!result.isAllowed()) {
+            log.info(path + " is of type " + result.getType() + ", aborting download");
+            unsupportedType = true;
+        }
+        sniffed.complete(result);
+        return result.isAllowed();
+    }
+
+    private State abortTooLarge() {
+        tooLarge = true;
+        return abortWith(javax.ws.rs.core.Response.Status.REQUEST_ENTITY_TOO_LARGE, "too Large file to process",
+                new IOException(path + " exceeded max allowed size of " + maxContentLength));
+    }
+
+    private State abortWith(javax.ws.rs.core.Response.Status status, String text, IOException cause) {
+        this.builder.accumulate(new LocalResponseStatus(Uri.create(path), status.getStatusCode(), text));
+        statusCode.complete(status.getStatusCode());
+        if (bodySink != null) {
+            bodySink.fail(cause);
+        }
+        return State.ABORT;
+    }
+
     protected abstract void onContentLengthRecvd(int contentLength, boolean b);
 
     public State onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
-        this.builder.accumulate(content);
+        receivedBytes += content.length();
+        if (receivedBytes > maxContentLength) {
+            log.error(path + " exceeded max allowed size while downloading, received " + receivedBytes);
+            return abortTooLarge();
+        }
+        // error pages keep the origin's status whatever their type
+        if (typeGate != null && !sniffed.isDone() &&
+                receivedStatusCode == javax.ws.rs.core.Response.Status.OK.getStatusCode()) {
+            int needed = sniffSizeInBytes - sniffBuffer.size();
+            byte[] bytes = content.getBodyPartBytes();
+            sniffBuffer.write(bytes, 0, Math.min(needed, bytes.length));
+            if ((bytes.length >= needed || content.isLast()) && !sniff()) {
+                return abortWith(javax.ws.rs.core.Response.Status.UNSUPPORTED_MEDIA_TYPE, "unsupported media type",
+                        new IOException(path + " is of a type not to be parsed"));
+            }
+        }
+        if (bodySink != null) {
+            try {
+                if (!bodySink.offer(content.getBodyPartBytes(), content.isLast())) {
+                    log.debug(path + " body no longer needed, aborting download");
+                    return State.ABORT;
+                }
+            } catch (IOException e) {
+                log.error(path + " could not store body => " + e.getMessage());
+                return abortWith(javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE, e.getMessage(), e);
+            }
+        } else {
+            this.builder.accumulate(content);
+        }
         return State.CONTINUE;
     }
 
@@ -103,11 +290,27 @@ public abstract class AsyncCompletionHandlerWithContentLengthCheck<T> implements
     }
 
     public final T onCompleted() throws Exception {
+        statusCode.complete(receivedStatusCode);
+        if (typeGate != null && !tooLarge && !sniffed.isDone() && sniffBuffer.size() > 0 &&
+                receivedStatusCode == javax.ws.rs.core.Response.Status.OK.getStatusCode() && !sniff() &&
+                bodySink != null) {
+            // body ended before a last part was flagged
+            bodySink.fail(new IOException(path + " is of a type not to be parsed"));
+        }
+        sniffed.complete(null);
+        if (bodySink != null) {
+            bodySink.complete();
+        }
         return this.onCompleted(this.builder.build());
     }
 
     public void onThrowable(Throwable t) {
         log.debug(t.getMessage(), t);
+        if (bodySink != null) {
+            bodySink.fail(t);
+        }
+        statusCode.completeExceptionally(t);
+        sniffed.complete(null);
     }
 
     public abstract T onCompleted(Response var1) throws Exception;
@@ -123,4 +326,58 @@ public abstract class AsyncCompletionHandlerWithContentLengthCheck<T> implements
     public State onContentWriteProgress(long amount, long current, long total) {
         return State.CONTINUE;
     }
-}
\ No newline at end of file
+
+    /**
+     * Status generated locally, used to flag aborted downloads
+     */
+    private static class LocalResponseStatus extends HttpResponseStatus {
+        private final int code;
+        private final String text;
+
+        LocalResponseStatus(Uri uri, int code, String text) {
+            super(uri);
+            this.code = code;
+            this.text = text;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return code;
+        }
+
+        @Override
+        public String getStatusText() {
+            return text;
+        }
+
+        @Override
+        public String getProtocolName() {
+            return "http";
+        }
+
+        @Override
+        public int getProtocolMajorVersion() {
+            return 0;
+        }
+
+        @Override
+        public int getProtocolMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public String getProtocolText() {
+            return null;
+        }
+
+        @Override
+        public SocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.a8c.media.tika.core;
+
+import java.io.IOException;
+
+/**
+ * <p>Destination for http body parts, used by {@link AsyncCompletionHandlerWithContentLengthCheck} instead of
+ * accumulating the body in memory</p>
+ */
+public interface BodySink {
+
+    /**
+     * Hook used to stop / restart reading from the origin
+     */
+    interface FlowControl {
+        void pause();
+
+        void resume();
+    }
+
+    /**
+     * @param bytes body part
+     * @param last  true if no more parts are expected
+     * @return false if the body is no longer wanted and download should be aborted
+     * @throws IOException if body part could not be stored
+     */
+    boolean offer(byte[] bytes, boolean last) throws IOException;
+
+    /**
+     * Marks end of body
+     */
+    void complete();
+
+    /**
+     * Marks download as failed
+     *
+     * @param throwable cause
+     */
+    void fail(Throwable throwable);
+
+    default void setFlowControl(FlowControl flowControl) {
+    }
+}
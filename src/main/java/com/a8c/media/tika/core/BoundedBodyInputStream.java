@@ -0,0 +1,242 @@
+package com.a8c.media.tika.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>InputStream fed by http body parts while the download is still running</p>
+ * <p>At most roughly {@code capacity} bytes are held; once the buffer is full the producer is asked to pause
+ * (stop reading from the socket) and it is resumed when the reader has drained half of it</p>
+ * <p>A parse reading it gives its parse permit back while waiting for body parts, see
+ * {@link WorkerPool#yieldParsePermit()}, so a slow origin does not hold parse capacity</p>
+ */
+public class BoundedBodyInputStream extends InputStream implements BodySink {
+
+    private final long capacity;
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private byte[] current;
+    private int position;
+    private long buffered;
+    private boolean completed;
+    private boolean closed;
+    private boolean paused;
+    // only used by the reader
+    private boolean permitYielded;
+    private Throwable failure;
+    private volatile FlowControl flowControl;
+
+    public BoundedBodyInputStream(long capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void setFlowControl(FlowControl flowControl) {
+        this.flowControl = flowControl;
+    }
+
+    /**
+     * <p>Adds a body part, pauses the producer if buffer is full</p>
+     *
+     * @param bytes body part
+     * @param last  true if no more parts are expected, producer is never paused on last part
+     * @return false if reader has already closed the stream and download should be aborted
+     */
+    @Override
+    public boolean offer(byte[] bytes, boolean last) {
+        boolean pause = false;
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (bytes.length > 0) {
+                chunks.add(bytes);
+                buffered += bytes.length;
+                notEmpty.signalAll();
+            }
+            if (!last && !paused && buffered >= capacity && flowControl != null) {
+                paused = true;
+                pause = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (pause) {
+            flowControl.pause();
+        }
+        return true;
+    }
+
+    /**
+     * Marks end of body
+     */
+    @Override
+    public void complete() {
+        finish(null);
+    }
+
+    /**
+     * Marks download as failed, reader gets an IOException once buffered bytes are consumed
+     *
+     * @param throwable cause
+     */
+    @Override
+    public void fail(Throwable throwable) {
+        finish(throwable);
+    }
+
+    private void finish(Throwable throwable) {
+        boolean resume;
+        lock.lock();
+        try {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            failure = throwable;
+            resume = paused;
+            paused = false;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (resume) {
+            flowControl.resume();
+        }
+    }
+
+    public Throwable getFailure() {
+        lock.lock();
+        try {
+            return failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // returns false on end of stream, must be called with lock held
+    private boolean awaitData() throws IOException {
+        while (current == null || position == current.length) {
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            current = chunks.poll();
+            position = 0;
+            if (current != null) {
+                continue;
+            }
+            if (completed) {
+                if (failure != null) {
+                    throw failure instanceof IOException ? (IOException) failure : new IOException(failure);
+                }
+                return false;
+            }
+            if (!permitYielded) {
+                permitYielded = WorkerPool.yieldParsePermit();
+            }
+            try {
+                notEmpty.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for download");
+            }
+        }
+        return true;
+    }
+
+    // must be called with lock held, returns true if producer should be resumed
+    private boolean consumed(int count) {
+        buffered -= count;
+        if (paused && buffered <= capacity / 2) {
+            paused = false;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int count = read(single, 0, 1);
+        return count == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int count = -1;
+        boolean resume = false;
+        lock.lock();
+        try {
+            if (awaitData()) {
+                count = Math.min(len, current.length - position);
+                System.arraycopy(current, position, b, off, count);
+                position += count;
+                resume = consumed(count);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (resume) {
+            flowControl.resume();
+        }
+        if (permitYielded) {
+            retakePermit();
+        }
+        return count;
+    }
+
+    private void retakePermit() throws InterruptedIOException {
+        permitYielded = false;
+        try {
+            WorkerPool.retakeParsePermit();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a parse permit");
+        }
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, buffered);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards buffered bytes, producer is resumed so it can notice the close and abort the download
+     */
+    @Override
+    public void close() {
+        boolean resume;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            chunks.clear();
+            current = null;
+            buffered = 0;
+            resume = paused;
+            paused = false;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (resume) {
+            flowControl.resume();
+        }
+    }
+}
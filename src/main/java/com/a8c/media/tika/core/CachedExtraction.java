@@ -0,0 +1,41 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * <p>Extraction result along with the validators origin sent for the resource it was extracted from</p>
+ */
+@Getter
+public class CachedExtraction {
+    private final MediaProcessingResponse response;
+    private final String etag;
+    private final String lastModified;
+
+    public CachedExtraction(MediaProcessingResponse response, String etag, String lastModified) {
+        this.response = response;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return approximate heap used by the result, in bytes
+     */
+    public int getWeight() {
+        long weight = 64 + length(etag) + length(lastModified) + length(response.getContentText());
+        Map<String, String> metaData = response.getMetaData();
+        if (metaData != null) {
+            for (Map.Entry<String, String> entry : metaData.entrySet()) {
+                weight += 32 + length(entry.getKey()) + length(entry.getValue());
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, weight);
+    }
+
+    // chars are 2 bytes on heap
+    private static long length(String value) {
+        return value == null ? 0 : 2L * value.length();
+    }
+}
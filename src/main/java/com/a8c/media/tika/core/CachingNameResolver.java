@@ -0,0 +1,54 @@
+package com.a8c.media.tika.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.netty.resolver.InetNameResolver;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Name resolver which keeps successful lookups for a fixed TTL, so every download to the same origin does not
+ * pay for a DNS round trip. Failed lookups are not cached</p>
+ */
+public class CachingNameResolver extends InetNameResolver {
+    private final Cache<String, List<InetAddress>> addresses;
+
+    public CachingNameResolver(long ttlInMillis, int maxEntries) {
+        super(ImmediateEventExecutor.INSTANCE);
+        this.addresses = CacheBuilder.newBuilder().expireAfterWrite(ttlInMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries).build();
+    }
+
+    private List<InetAddress> lookup(String inetHost) throws UnknownHostException {
+        List<InetAddress> resolved = addresses.getIfPresent(inetHost);
+        if (resolved == null) {
+            resolved = Arrays.asList(InetAddress.getAllByName(inetHost));
+            addresses.put(inetHost, resolved);
+        }
+        return resolved;
+    }
+
+    @Override
+    protected void doResolve(String inetHost, Promise<InetAddress> promise) {
+        try {
+            promise.setSuccess(lookup(inetHost).get(0));
+        } catch (UnknownHostException e) {
+            promise.setFailure(e);
+        }
+    }
+
+    @Override
+    protected void doResolveAll(String inetHost, Promise<List<InetAddress>> promise) {
+        try {
+            promise.setSuccess(lookup(inetHost));
+        } catch (UnknownHostException e) {
+            promise.setFailure(e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.a8c.media.tika.core;
+
+import org.apache.tika.sax.ContentHandlerDecorator;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * <p>Stops the parse on the next SAX event once its request is cancelled or past its deadline</p>
+ */
+public class CancellableContentHandler extends ContentHandlerDecorator {
+    private final Cancellation cancellation;
+
+    public CancellableContentHandler(ContentHandler handler, Cancellation cancellation) {
+        super(handler);
+        this.cancellation = cancellation;
+    }
+
+    private void check() throws SAXException {
+        if (cancellation.isCancelled()) {
+            throw new SAXException(new CancellationException(
+                    cancellation.isPastDeadline() ? "parse deadline passed" : "parse cancelled"));
+        }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String name, Attributes atts) throws SAXException {
+        check();
+        super.startElement(uri, localName, name, atts);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String name) throws SAXException {
+        check();
+        super.endElement(uri, localName, name);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        check();
+        super.characters(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        check();
+        super.ignorableWhitespace(ch, start, length);
+    }
+}
@@ -0,0 +1,138 @@
+package com.a8c.media.tika.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Lets work for a request be abandoned once nobody waits for it: registered actions (aborting the download) are
+ * run and the parse thread is interrupted, which also makes Tika destroy a running Tesseract process</p>
+ * <p>The parse additionally stops by itself once past its deadline, through {@link CancellableContentHandler}</p>
+ */
+@Slf4j
+public class Cancellation {
+    private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<>();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final long deadlineNanos;
+    private final CancellationMetrics cancellationMetrics;
+    private final List<Runnable> onCancel = new CopyOnWriteArrayList<>();
+    private volatile boolean isCancelled;
+    private Thread parseThread;
+
+    /**
+     * @param timeoutInMillis time the work may take, from now; <= 0 for no deadline
+     */
+    public Cancellation(long timeoutInMillis) {
+        this(timeoutInMillis, null);
+    }
+
+    /**
+     * @param timeoutInMillis     time the work may take, from now; <= 0 for no deadline
+     * @param cancellationMetrics counts the cancellation and CPU time it wasted, null to not count them
+     */
+    public Cancellation(long timeoutInMillis, CancellationMetrics cancellationMetrics) {
+        this.cancellationMetrics = cancellationMetrics;
+        this.deadlineNanos = timeoutInMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillis) :
+                0;
+    }
+
+    /**
+     * @return cancellation of the parse running on this thread, null if none
+     */
+    public static Cancellation current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param action run on cancellation, right away if already cancelled
+     */
+    public void onCancel(Runnable action) {
+        onCancel.add(action);
+        if (isCancelled) {
+            action.run();
+        }
+    }
+
+    public void cancel() {
+        synchronized (this) {
+            if (isCancelled) {
+                return;
+            }
+            isCancelled = true;
+            if (parseThread != null) {
+                parseThread.interrupt();
+            }
+        }
+        if (cancellationMetrics != null) {
+            cancellationMetrics.cancelled();
+        }
+        for (Runnable action : onCancel) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                log.debug("cancel action failed => " + e.getMessage());
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return isCancelled || isPastDeadline();
+    }
+
+    public boolean isPastDeadline() {
+        return deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0;
+    }
+
+    /**
+     * @return millis left until deadline, -1 if there is none
+     */
+    public long getRemainingMillis() {
+        if (deadlineNanos == 0) {
+            return -1;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * <p>Runs parse on current thread, so it can be interrupted on cancel; CPU time of parses which end up
+     * cancelled is counted as wasted, on platform threads only as it is not measured for virtual threads</p>
+     *
+     * @param parse parse to run
+     * @param <T>   parse result
+     * @return parse result
+     * @throws Exception           thrown by parse
+     * @throws CancellationException if cancelled before parse starts
+     */
+    public <T> T runParse(Callable<T> parse) throws Exception {
+        long cpuStart = THREADS.getCurrentThreadCpuTime();
+        synchronized (this) {
+            if (isCancelled()) {
+                throw new CancellationException("cancelled before parse started");
+            }
+            parseThread = Thread.currentThread();
+        }
+        CURRENT.set(this);
+        try {
+            return parse.call();
+        } finally {
+            CURRENT.remove();
+            synchronized (this) {
+                parseThread = null;
+                // interrupt was meant for this parse only, pool thread moves on to other work
+                Thread.interrupted();
+            }
+            // -1 on virtual threads, nothing to count rather than a wrong value
+            if (isCancelled() && cancellationMetrics != null && cpuStart >= 0) {
+                cancellationMetrics.wastedCpu(
+                        TimeUnit.NANOSECONDS.toMillis(THREADS.getCurrentThreadCpuTime() - cpuStart));
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.a8c.media.tika.core;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * <p>Counts work abandoned through {@link Cancellation}, and the CPU time parses had spent before they were
+ * cancelled; metrics keep their names under {@link Cancellation}</p>
+ * <p>CPU time is only known for parses on platform threads, so with virtual threads (see
+ * {@link com.a8c.media.tika.ExecutionMode}) wasted-cpu-millis is left out rather than reported as 0</p>
+ */
+public class CancellationMetrics {
+    private final Meter cancelled = new Meter();
+    private final Counter wastedCpuMillis = new Counter();
+    private final boolean cpuMeasured;
+
+    public CancellationMetrics() {
+        this(true);
+    }
+
+    /**
+     * @param cpuMeasured false if parses run on virtual threads, which have no CPU time to measure
+     */
+    public CancellationMetrics(boolean cpuMeasured) {
+        this.cpuMeasured = cpuMeasured;
+    }
+
+    void cancelled() {
+        cancelled.mark();
+    }
+
+    void wastedCpu(long millis) {
+        wastedCpuMillis.inc(millis);
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(Cancellation.class, "cancelled"), cancelled);
+        if (cpuMeasured) {
+            metricRegistry.register(MetricRegistry.name(Cancellation.class, "wasted-cpu-millis"), wastedCpuMillis);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.a8c.media.tika.core;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * <p>Admission control for the download stage; downloads run on the http client event loop so no thread is held
+ * per download, this only limits how many run at once and how many may wait for a slot</p>
+ * <p>A slot frees up on the event loop, as the download holding it completes; the next queued download is started
+ * on the start executor, since starting one resolves its host and a slow lookup must not stall the event loop</p>
+ */
+@Slf4j
+public class DownloadQueue {
+    private final int maxConcurrentDownloads;
+    private final int maxQueuedDownloads;
+    private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+    private int inFlight;
+    private final Meter rejected = new Meter();
+    private final Timer queueWait = new Timer();
+    private final Executor startExecutor;
+
+    public DownloadQueue(int maxConcurrentDownloads, int maxQueuedDownloads) {
+        this(maxConcurrentDownloads, maxQueuedDownloads, null);
+    }
+
+    /**
+     * @param startExecutor queued downloads are started on it, null to start them on the thread completing the
+     *                      previous download
+     */
+    public DownloadQueue(int maxConcurrentDownloads, int maxQueuedDownloads, Executor startExecutor) {
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+        this.maxQueuedDownloads = maxQueuedDownloads;
+        this.startExecutor = startExecutor;
+    }
+
+    /**
+     * <p>Starts download once a slot is free, slot is held until the download future completes</p>
+     *
+     * @param download starts the download
+     * @param <T>      download result
+     * @return future of download result, failed with RejectedExecutionException if queue is full; cancelling it
+     * cancels the download, or drops it if still queued
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> download) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        final long queuedAt = System.nanoTime();
+        Runnable start = () -> {
+            queueWait.update(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+            if (result.isDone()) {
+                // cancelled while waiting for a slot
+                onDownloadComplete();
+                return;
+            }
+            CompletableFuture<T> started;
+            try {
+                started = download.get();
+            } catch (Throwable throwable) {
+                started = new CompletableFuture<>();
+                started.completeExceptionally(throwable);
+            }
+            final CompletableFuture<T> running = started;
+            running.whenComplete((value, throwable) -> {
+                onDownloadComplete();
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(value);
+                }
+            });
+            result.whenComplete((value, throwable) -> {
+                if (result.isCancelled()) {
+                    running.cancel(true);
+                }
+            });
+        };
+        boolean runNow = false;
+        synchronized (this) {
+            if (inFlight < maxConcurrentDownloads) {
+                inFlight++;
+                runNow = true;
+            } else if (pending.size() < maxQueuedDownloads) {
+                pending.add(start);
+            } else {
+                rejected.mark();
+                result.completeExceptionally(new RejectedExecutionException(
+                        "download queue full, " + inFlight + " in flight and " + pending.size() + " queued"));
+            }
+        }
+        if (runNow) {
+            start.run();
+        }
+        return result;
+    }
+
+    private void onDownloadComplete() {
+        Runnable next;
+        synchronized (this) {
+            next = pending.poll();
+            if (next == null) {
+                inFlight--;
+            }
+        }
+        if (next == null) {
+            return;
+        }
+        if (startExecutor == null) {
+            next.run();
+            return;
+        }
+        try {
+            startExecutor.execute(next);
+        } catch (RejectedExecutionException e) {
+            // shutting down, start it here rather than leak its slot
+            log.warn("download start executor rejected queued download => " + e.getMessage());
+            next.run();
+        }
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return pending.size();
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(DownloadQueue.class, "in-flight"),
+                (Gauge<Integer>) this::getInFlight);
+        metricRegistry.register(MetricRegistry.name(DownloadQueue.class, "queued"),
+                (Gauge<Integer>) this::getQueued);
+        metricRegistry.register(MetricRegistry.name(DownloadQueue.class, "rejected"), rejected);
+        metricRegistry.register(MetricRegistry.name(DownloadQueue.class, "queue-wait"), queueWait);
+    }
+}
@@ -0,0 +1,121 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.CacheConfiguration;
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Bounded cache of extraction results, weighted by size of extracted text and metadata</p>
+ * <p>Entries are never served blindly: a hit is revalidated with a conditional GET and only used if origin answers
+ * 304, so only results of resources which sent an ETag or Last-Modified are kept</p>
+ * <p>An optional {@link ExtractionStore} backs the memory cache, so results survive restarts</p>
+ */
+@Slf4j
+public class ExtractionCache {
+    private final Cache<ExtractionKey, CachedExtraction> extractions;
+    private final ExtractionStore store;
+    private final Meter hits = new Meter();
+    private final Meter misses = new Meter();
+    private final Meter revalidated = new Meter();
+    private final Meter stale = new Meter();
+
+    public ExtractionCache(CacheConfiguration configuration) {
+        this(configuration, null);
+    }
+
+    /**
+     * @param store persistent store consulted on memory misses and written through, null to keep results in
+     *              memory only
+     */
+    public ExtractionCache(CacheConfiguration configuration, ExtractionStore store) {
+        this.store = store;
+        this.extractions = CacheBuilder.newBuilder()
+                .maximumWeight(configuration.getMaxWeightInBytes())
+                .weigher((Weigher<ExtractionKey, CachedExtraction>) (key, value) -> value.getWeight())
+                .expireAfterWrite(configuration.getTtlInSeconds(), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * @param key extraction key
+     * @return cached extraction to be revalidated, null if none
+     */
+    public CachedExtraction get(ExtractionKey key) {
+        CachedExtraction cached = extractions.getIfPresent(key);
+        if (cached == null && store != null) {
+            cached = store.get(key);
+            if (cached != null) {
+                extractions.put(key, cached);
+            }
+        }
+        if (cached == null) {
+            misses.mark();
+        } else {
+            hits.mark();
+        }
+        return cached;
+    }
+
+    /**
+     * <p>Called when origin confirmed cached extraction is still current (304)</p>
+     *
+     * @param key    extraction key
+     * @param cached revalidated extraction
+     * @return cached result
+     */
+    public MediaProcessingResponse revalidated(ExtractionKey key, CachedExtraction cached) {
+        revalidated.mark();
+        log.info(key + " not modified, serving cached extraction");
+        return cached.getResponse();
+    }
+
+    /**
+     * <p>Stores a fresh extraction, if origin sent validators for it</p>
+     *
+     * @param key      extraction key
+     * @param previous extraction which was revalidated but turned out stale, may be null
+     * @param response extraction result
+     * @param headers  origin response headers, may be null
+     */
+    public void put(ExtractionKey key, CachedExtraction previous, MediaProcessingResponse response,
+                    HttpHeaders headers) {
+        if (previous != null) {
+            stale.mark();
+        }
+        String etag = headers == null ? null : headers.get(HttpHeaderNames.ETAG);
+        String lastModified = headers == null ? null : headers.get(HttpHeaderNames.LAST_MODIFIED);
+        String cacheControl = headers == null ? null : headers.get(HttpHeaderNames.CACHE_CONTROL);
+        if ((etag == null && lastModified == null) ||
+                (cacheControl != null && cacheControl.toLowerCase().contains("no-store"))) {
+            extractions.invalidate(key);
+            if (store != null) {
+                store.remove(key);
+            }
+            return;
+        }
+        CachedExtraction cached = new CachedExtraction(response, etag, lastModified);
+        extractions.put(key, cached);
+        if (store != null) {
+            store.put(key, cached);
+        }
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(ExtractionCache.class, "hits"), hits);
+        metricRegistry.register(MetricRegistry.name(ExtractionCache.class, "misses"), misses);
+        metricRegistry.register(MetricRegistry.name(ExtractionCache.class, "revalidated"), revalidated);
+        metricRegistry.register(MetricRegistry.name(ExtractionCache.class, "stale"), stale);
+        metricRegistry.register(MetricRegistry.name(ExtractionCache.class, "size"),
+                (Gauge<Long>) extractions::size);
+    }
+}
@@ -0,0 +1,84 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.api.MediaProcessingRequest;
+import com.a8c.media.tika.api.OcrStrategy;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Identifies an extraction result, same resource extracted with different OCR options (or text limit) gives
+ * different results</p>
+ */
+@Getter
+@EqualsAndHashCode
+public class ExtractionKey {
+    private final String resourcePath;
+    private final OcrStrategy ocrStrategy;
+    private final List<String> ocrLangs;
+    private final int maxContentCharacters;
+
+    public ExtractionKey(String resourcePath, boolean useOCR, List<String> ocrLangs) {
+        this(resourcePath, useOCR, ocrLangs, -1);
+    }
+
+    public ExtractionKey(String resourcePath, boolean useOCR, List<String> ocrLangs, int maxContentCharacters) {
+        this(resourcePath, useOCR ? OcrStrategy.ALWAYS : OcrStrategy.NEVER, ocrLangs, maxContentCharacters);
+    }
+
+    public ExtractionKey(String resourcePath, OcrStrategy ocrStrategy, List<String> ocrLangs,
+                         int maxContentCharacters) {
+        this.resourcePath = resourcePath;
+        this.maxContentCharacters = maxContentCharacters < 0 ? -1 : maxContentCharacters;
+        this.ocrStrategy = ocrStrategy;
+        // languages only matter when OCR is used, order is kept as it is passed to tesseract as is
+        this.ocrLangs = isUseOCR() && ocrLangs != null ?
+                Collections.unmodifiableList(new ArrayList<>(ocrLangs)) : Collections.emptyList();
+    }
+
+    public static ExtractionKey of(MediaProcessingRequest request) {
+        return new ExtractionKey(request.getResourcePath(), request.getEffectiveOcrStrategy(), request.getOcrLangs(),
+                request.getMaxContentCharacters());
+    }
+
+    public boolean isUseOCR() {
+        return ocrStrategy != OcrStrategy.NEVER;
+    }
+
+    @Override
+    public String toString() {
+        return resourcePath + (isUseOCR() ? " ocr=" + ocrStrategy.toValue() + ocrLangs : "") +
+                (maxContentCharacters >= 0 ? " max=" + maxContentCharacters : "");
+    }
+
+    /**
+     * <p>Identifies a fetch and parse in flight, requests only share one that runs under the same timeouts as
+     * theirs would; the result is cached under the extraction key alone</p>
+     */
+    @Getter
+    @EqualsAndHashCode
+    public static class Flight {
+        private final ExtractionKey extraction;
+        private final long downloadTimeout;
+        private final long processingTimeout;
+
+        /**
+         * @param request           process request
+         * @param downloadTimeout   download timeout request runs with, defaults applied
+         * @param processingTimeout processing timeout request runs with, defaults applied
+         */
+        public Flight(MediaProcessingRequest request, long downloadTimeout, long processingTimeout) {
+            this.extraction = ExtractionKey.of(request);
+            this.downloadTimeout = downloadTimeout;
+            this.processingTimeout = processingTimeout;
+        }
+
+        @Override
+        public String toString() {
+            return extraction + " download=" + downloadTimeout + "ms processing=" + processingTimeout + "ms";
+        }
+    }
+}
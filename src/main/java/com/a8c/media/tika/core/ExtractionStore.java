@@ -0,0 +1,467 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.StoreConfiguration;
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import com.a8c.media.tika.api.OcrStrategy;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Persistent store of extraction results, so a restart does not have to re-run Tika (and Tesseract) for
+ * resources already processed</p>
+ * <p>Records are appended to segment files as length + crc32 + json payload, and located through an in-memory index
+ * rebuilt by scanning the segments on startup. Full segments are sealed and read through a memory mapping. Once the
+ * store grows over its size cap the oldest segment is compacted (live records copied forward) or, if the store is
+ * mostly live data, dropped along with its entries</p>
+ */
+@Slf4j
+public class ExtractionStore implements Managed {
+    static final String PREFIX = "segment-";
+    static final String SUFFIX = ".log";
+    private static final int HEADER_BYTES = 8;
+
+    private final Path directory;
+    private final long maxSizeInBytes;
+    private final int segmentSizeInBytes;
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    // segments may only be closed or deleted under write lock, reads hold read lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<ExtractionKey, Location> index = new ConcurrentHashMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private final Meter hits = new Meter();
+    private final Meter misses = new Meter();
+    private final Meter writes = new Meter();
+    private final Meter compactions = new Meter();
+    private final Meter evictions = new Meter();
+
+    public ExtractionStore(StoreConfiguration configuration) {
+        this.directory = Paths.get(configuration.getDirectory());
+        this.maxSizeInBytes = configuration.getMaxSizeInBytes();
+        this.segmentSizeInBytes = configuration.getSegmentSizeInBytes();
+    }
+
+    private static class Location {
+        final long segmentId;
+        final long offset;
+        final int length;
+
+        Location(long segmentId, long offset, int length) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        long recordSize() {
+            return HEADER_BYTES + length;
+        }
+    }
+
+    // json payload of a record, a record without response removes the key
+    static class StoredRecord {
+        @JsonProperty
+        String resourcePath;
+        @JsonProperty
+        boolean useOCR;
+        // absent in records written before strategies, useOCR stands for always / never there
+        @JsonProperty
+        OcrStrategy ocrStrategy;
+        @JsonProperty
+        List<String> ocrLangs;
+        @JsonProperty
+        int maxContentCharacters = -1;
+        @JsonProperty
+        String etag;
+        @JsonProperty
+        String lastModified;
+        @JsonProperty
+        MediaProcessingResponse response;
+
+        ExtractionKey key() {
+            if (ocrStrategy == null) {
+                return new ExtractionKey(resourcePath, useOCR, ocrLangs, maxContentCharacters);
+            }
+            return new ExtractionKey(resourcePath, ocrStrategy, ocrLangs, maxContentCharacters);
+        }
+    }
+
+    private class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        MappedByteBuffer mapped;
+        long size;
+        long liveBytes;
+
+        Segment(long id, Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        long append(byte[] payload) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+            record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+            long offset = size;
+            while (record.hasRemaining()) {
+                channel.write(record, offset + record.position());
+            }
+            size += HEADER_BYTES + payload.length;
+            return offset;
+        }
+
+        ByteBuffer read(long offset, int length) throws IOException {
+            if (mapped != null) {
+                ByteBuffer view = mapped.duplicate();
+                view.position((int) offset).limit((int) offset + length);
+                return view.slice();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException(path + " truncated at " + (offset + buffer.position()));
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        // segment is no longer written to, reads go through a mapping from now on
+        void seal() throws IOException {
+            channel.force(true);
+            if (size > 0) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * @param key extraction key
+     * @return stored extraction, null if none
+     */
+    public CachedExtraction get(ExtractionKey key) {
+        lock.readLock().lock();
+        try {
+            Location location = index.get(key);
+            if (location == null) {
+                misses.mark();
+                return null;
+            }
+            StoredRecord record = readRecord(segments.get(location.segmentId), location.offset);
+            hits.mark();
+            return new CachedExtraction(record.response, record.etag, record.lastModified);
+        } catch (IOException e) {
+            log.error("could not read stored extraction of " + key + " => " + e.getMessage());
+            misses.mark();
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * <p>Stores extraction, replacing any previous one for the key</p>
+     *
+     * @param key    extraction key
+     * @param cached extraction with validators
+     */
+    public void put(ExtractionKey key, CachedExtraction cached) {
+        StoredRecord record = toRecord(key);
+        record.etag = cached.getEtag();
+        record.lastModified = cached.getLastModified();
+        record.response = cached.getResponse();
+        write(key, record);
+    }
+
+    /**
+     * @param key extraction key to forget
+     */
+    public void remove(ExtractionKey key) {
+        if (index.containsKey(key)) {
+            write(key, toRecord(key));
+        }
+    }
+
+    private StoredRecord toRecord(ExtractionKey key) {
+        StoredRecord record = new StoredRecord();
+        record.resourcePath = key.getResourcePath();
+        record.useOCR = key.isUseOCR();
+        record.ocrStrategy = key.getOcrStrategy();
+        record.ocrLangs = key.getOcrLangs();
+        record.maxContentCharacters = key.getMaxContentCharacters();
+        return record;
+    }
+
+    private void write(ExtractionKey key, StoredRecord record) {
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(record);
+            lock.writeLock().lock();
+            try {
+                if (active == null) {
+                    return;
+                }
+                append(key, payload, record.response != null);
+                writes.mark();
+                if (active.size >= segmentSizeInBytes) {
+                    roll();
+                    enforceMaxSize();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            log.error("could not store extraction of " + key + " => " + e.getMessage());
+        }
+    }
+
+    // caller holds write lock
+    private void append(ExtractionKey key, byte[] payload, boolean live) throws IOException {
+        long offset = active.append(payload);
+        Location location = new Location(active.id, offset, payload.length);
+        Location previous = index.remove(key);
+        if (previous != null) {
+            segments.get(previous.segmentId).liveBytes -= previous.recordSize();
+        }
+        if (live) {
+            index.put(key, location);
+            active.liveBytes += location.recordSize();
+        }
+    }
+
+    private StoredRecord readRecord(Segment segment, long offset) throws IOException {
+        ByteBuffer header = segment.read(offset, HEADER_BYTES);
+        int length = header.getInt();
+        int checksum = header.getInt();
+        ByteBuffer payloadBuffer = segment.read(offset + HEADER_BYTES, length);
+        byte[] payload = new byte[length];
+        payloadBuffer.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException(segment.path + " corrupt record at " + offset);
+        }
+        return objectMapper.readValue(payload, StoredRecord.class);
+    }
+
+    // caller holds write lock
+    private void roll() throws IOException {
+        active.seal();
+        long id = active.id + 1;
+        active = new Segment(id, segmentPath(id));
+        segments.put(id, active);
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(PREFIX + String.format("%012d", id) + SUFFIX);
+    }
+
+    // caller holds write lock; compacts oldest segment while there is garbage to reclaim, drops it otherwise
+    private void enforceMaxSize() throws IOException {
+        while (getSizeInBytes() > maxSizeInBytes && segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (getLiveBytes() <= maxSizeInBytes * 3 / 4) {
+                compact(oldest);
+            } else {
+                evict(oldest);
+            }
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        List<Map.Entry<ExtractionKey, Location>> live = liveEntries(segment);
+        for (Map.Entry<ExtractionKey, Location> entry : live) {
+            ByteBuffer payloadBuffer = segment.read(entry.getValue().offset + HEADER_BYTES, entry.getValue().length);
+            byte[] payload = new byte[entry.getValue().length];
+            payloadBuffer.get(payload);
+            append(entry.getKey(), payload, true);
+            if (active.size >= segmentSizeInBytes) {
+                roll();
+            }
+        }
+        segments.remove(segment.id);
+        segment.delete();
+        compactions.mark();
+        log.info("compacted " + segment.path + ", kept " + live.size() + " entries");
+    }
+
+    private void evict(Segment segment) throws IOException {
+        List<Map.Entry<ExtractionKey, Location>> live = liveEntries(segment);
+        for (Map.Entry<ExtractionKey, Location> entry : live) {
+            index.remove(entry.getKey());
+        }
+        segments.remove(segment.id);
+        segment.delete();
+        evictions.mark();
+        log.info("store over " + maxSizeInBytes + " bytes, dropped " + segment.path + " with " + live.size() +
+                " entries");
+    }
+
+    private List<Map.Entry<ExtractionKey, Location>> liveEntries(Segment segment) {
+        List<Map.Entry<ExtractionKey, Location>> live = new ArrayList<>();
+        for (Map.Entry<ExtractionKey, Location> entry : index.entrySet()) {
+            if (entry.getValue().segmentId == segment.id) {
+                live.add(entry);
+            }
+        }
+        return live;
+    }
+
+    public long getSizeInBytes() {
+        lock.readLock().lock();
+        try {
+            long size = 0;
+            for (Segment segment : segments.values()) {
+                size += segment.size;
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long getLiveBytes() {
+        long live = 0;
+        for (Segment segment : segments.values()) {
+            live += segment.liveBytes;
+        }
+        return live;
+    }
+
+    public int getEntries() {
+        return index.size();
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(ExtractionStore.class, "hits"), hits);
+        metricRegistry.register(MetricRegistry.name(ExtractionStore.class, "misses"), misses);
+        metricRegistry.register(MetricRegistry.name(ExtractionStore.class, "writes"), writes);
+        metricRegistry.register(MetricRegistry.name(ExtractionStore.class, "compactions"), compactions);
+        metricRegistry.register(MetricRegistry.name(ExtractionStore.class, "evictions"), evictions);
+        metricRegistry.register(MetricRegistry.name(ExtractionStore.class, "size-bytes"),
+                (Gauge<Long>) this::getSizeInBytes);
+        metricRegistry.register(MetricRegistry.name(ExtractionStore.class, "entries"),
+                (Gauge<Integer>) this::getEntries);
+    }
+
+    /**
+     * Opens segments left by previous runs and rebuilds the index, a torn record at the end of a segment (crash
+     * while appending) is cut off
+     */
+    @Override
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        lock.writeLock().lock();
+        try {
+            List<Path> paths = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+                stream.forEach(paths::add);
+            }
+            paths.sort(null);
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                long id = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                Segment segment = new Segment(id, path);
+                segments.put(id, segment);
+                recover(segment);
+            }
+            if (segments.isEmpty()) {
+                active = new Segment(0, segmentPath(0));
+                segments.put(0L, active);
+            } else {
+                active = segments.lastEntry().getValue();
+                for (Segment segment : segments.headMap(active.id).values()) {
+                    segment.seal();
+                }
+                if (active.size >= segmentSizeInBytes) {
+                    roll();
+                }
+            }
+            log.info("extraction store opened with " + index.size() + " entries in " + segments.size() +
+                    " segments");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void recover(Segment segment) throws IOException {
+        long offset = 0;
+        while (offset + HEADER_BYTES <= segment.size) {
+            StoredRecord record;
+            int length;
+            try {
+                length = segment.read(offset, HEADER_BYTES).getInt();
+                if (length < 0 || offset + HEADER_BYTES + length > segment.size) {
+                    break;
+                }
+                record = readRecord(segment, offset);
+            } catch (IOException e) {
+                break;
+            }
+            ExtractionKey key = record.key();
+            Location previous = index.remove(key);
+            if (previous != null) {
+                segments.get(previous.segmentId).liveBytes -= previous.recordSize();
+            }
+            if (record.response != null) {
+                Location location = new Location(segment.id, offset, length);
+                index.put(key, location);
+                segment.liveBytes += location.recordSize();
+            }
+            offset += HEADER_BYTES + length;
+        }
+        if (offset < segment.size) {
+            log.warn(segment.path + " has a torn record at " + offset + ", truncating");
+            segment.channel.truncate(offset);
+            segment.size = offset;
+        }
+    }
+
+    @Override
+    public void stop() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.channel.force(true);
+                segment.channel.close();
+            }
+            segments.clear();
+            index.clear();
+            active = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
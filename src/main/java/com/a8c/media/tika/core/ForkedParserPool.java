@@ -0,0 +1,84 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.ForkConfiguration;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.fork.ForkParser;
+import org.apache.tika.fork.ParserFactoryFactory;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.AutoDetectParserFactory;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>Pool of child JVMs parses are sent to, input bytes and SAX events travel over the child's stdin / stdout</p>
+ * <p>Each child has its own bounded heap and is replaced after a number of parses or when it dies (OOM, crash,
+ * parse timeout, cancelled parse), so the API JVM keeps small and predictable GC pauses</p>
+ */
+@Slf4j
+public class ForkedParserPool implements Managed {
+    private final ForkConfiguration configuration;
+    @Getter
+    private final ForkParser parser;
+
+    public ForkedParserPool(ForkConfiguration configuration) {
+        this.configuration = configuration;
+        if (StringUtils.isNotEmpty(configuration.getTikaBin())) {
+            this.parser = new ForkParser(Paths.get(configuration.getTikaBin()),
+                    new ParserFactoryFactory(AutoDetectParserFactory.class.getName(), Collections.emptyMap()));
+        } else {
+            // parser is serialized to the child, which loads its classes back from this JVM
+            this.parser = new ForkParser(ForkedParserPool.class.getClassLoader(),
+                    new AutoDetectParser(TikaConfig.getDefaultConfig()));
+        }
+        parser.setPoolSize(configuration.getPoolSize());
+        parser.setJavaCommand(configuration.getJavaCommand());
+        parser.setMaxFilesProcessedPerServer(configuration.getMaxParsesPerChild());
+        parser.setServerParseTimeoutMillis(configuration.getParseTimeoutInMillis());
+    }
+
+    /**
+     * Starts warm children by parsing a tiny document on each of them at once
+     */
+    @Override
+    public void start() {
+        int children = Math.min(configuration.getWarmChildren(), configuration.getPoolSize());
+        List<CompletableFuture<Void>> warmUps = new ArrayList<>();
+        for (int i = 0; i < children; i++) {
+            warmUps.add(CompletableFuture.runAsync(() -> {
+                try {
+                    parser.parse(new ByteArrayInputStream("warm up".getBytes(StandardCharsets.UTF_8)),
+                            new BodyContentHandler(), new Metadata(), new ParseContext());
+                } catch (Exception e) {
+                    log.error("could not start forked parser => " + e.getMessage());
+                }
+            }));
+        }
+        CompletableFuture.allOf(warmUps.toArray(new CompletableFuture<?>[0])).join();
+        log.info("started " + children + " forked parsers, pool size " + configuration.getPoolSize());
+    }
+
+    @Override
+    public void stop() {
+        parser.close();
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(ForkedParserPool.class, "pool-size"),
+                (Gauge<Integer>) parser::getPoolSize);
+    }
+}
@@ -0,0 +1,88 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.HttpClientConfiguration;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import io.netty.resolver.NameResolver;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.BoundRequestBuilder;
+import org.asynchttpclient.DefaultAsyncHttpClientConfig;
+
+import java.net.InetAddress;
+
+import static org.asynchttpclient.Dsl.asyncHttpClient;
+import static org.asynchttpclient.Dsl.config;
+
+/**
+ * <p>Single, long lived AsyncHttpClient shared by all downloads; owned by dropwizard lifecycle so the netty event
+ * loop, connection pool and SSL context are created once and closed on shutdown</p>
+ */
+@Slf4j
+public class ManagedAsyncHttpClient implements Managed {
+    @Getter
+    private final AsyncHttpClient asyncHttpClient;
+    private final NameResolver<InetAddress> nameResolver;
+
+    public ManagedAsyncHttpClient(HttpClientConfiguration configuration) {
+        DefaultAsyncHttpClientConfig.Builder builder = config()
+                .setMaxConnections(configuration.getMaxConnections())
+                .setMaxConnectionsPerHost(configuration.getMaxConnectionsPerHost())
+                .setKeepAlive(configuration.isKeepAlive())
+                .setConnectTimeout(configuration.getConnectTimeout())
+                .setPooledConnectionIdleTimeout(configuration.getPooledConnectionIdleTimeout())
+                .setConnectionPoolCleanerPeriod(configuration.getConnectionPoolCleanerPeriod())
+                .setConnectionTtl(configuration.getConnectionTtl())
+                .setThreadPoolName("tikaapi-http");
+        if (configuration.getIoThreads() > 0) {
+            builder.setIoThreadsCount(configuration.getIoThreads());
+        }
+        this.asyncHttpClient = asyncHttpClient(builder);
+        this.nameResolver = configuration.getDnsCacheTtl() > 0 ?
+                new CachingNameResolver(configuration.getDnsCacheTtl(), configuration.getDnsCacheMaxEntries()) :
+                null;
+    }
+
+    /**
+     * <p>Prepares GET request on the shared client, using the DNS cache if it is enabled</p>
+     *
+     * @param url resource to fetch
+     * @return request builder
+     */
+    public BoundRequestBuilder prepareGet(String url) {
+        BoundRequestBuilder requestBuilder = asyncHttpClient.prepareGet(url);
+        if (nameResolver != null) {
+            requestBuilder.setNameResolver(nameResolver);
+        }
+        return requestBuilder;
+    }
+
+    /**
+     * <p>Exports connection pool stats (open, idle and leased connections) as gauges</p>
+     *
+     * @param metricRegistry registry backing the /metrics servlet
+     */
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(ManagedAsyncHttpClient.class, "connections", "open"),
+                (Gauge<Long>) () -> asyncHttpClient.getClientStats().getTotalConnectionCount());
+        metricRegistry.register(MetricRegistry.name(ManagedAsyncHttpClient.class, "connections", "idle"),
+                (Gauge<Long>) () -> asyncHttpClient.getClientStats().getTotalIdleConnectionCount());
+        metricRegistry.register(MetricRegistry.name(ManagedAsyncHttpClient.class, "connections", "leased"),
+                (Gauge<Long>) () -> asyncHttpClient.getClientStats().getTotalActiveConnectionCount());
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() throws Exception {
+        log.info("closing shared http client");
+        asyncHttpClient.close();
+        if (nameResolver != null) {
+            nameResolver.close();
+        }
+    }
+}
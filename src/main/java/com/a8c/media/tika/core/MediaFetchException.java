@@ -0,0 +1,22 @@
+package com.a8c.media.tika.core;
+
+import lombok.Getter;
+
+/**
+ * <p>Raised when a resource could not be fetched or processed, carries the http status to be returned to the
+ * client</p>
+ */
+public class MediaFetchException extends RuntimeException {
+    @Getter
+    private final int statusCode;
+
+    public MediaFetchException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public MediaFetchException(int statusCode, String message, Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+    }
+}
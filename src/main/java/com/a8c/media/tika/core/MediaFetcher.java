@@ -4,33 +4,60 @@ import com.a8c.media.tika.api.MediaDetectionRequest;
 import com.a8c.media.tika.api.MediaDetectionResponse;
 import com.a8c.media.tika.api.MediaProcessingRequest;
 import com.a8c.media.tika.api.MediaProcessingResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
 import lombok.extern.slf4j.Slf4j;
-import org.asynchttpclient.AsyncHttpClient;
+import org.apache.tika.exception.UnsupportedFormatException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.asynchttpclient.BoundRequestBuilder;
 import org.asynchttpclient.ListenableFuture;
 import org.asynchttpclient.Response;
 
-import javax.ws.rs.container.AsyncResponse;
-
-import static org.asynchttpclient.Dsl.*;
-
+import javax.ws.rs.core.Response.Status;
 import java.io.IOException;
-import java.net.URISyntaxException;
-import java.security.NoSuchAlgorithmException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 /**
  * <p>Helper class to validate/initialize http download</p>
+ * <p>Downloads complete asynchronously on the http client event loop, only finished (or streamable) bodies are
+ * handed to the parse executor</p>
+ * <p>With a {@link TypeGate} bodies to be parsed are sniffed as they arrive and types not to be parsed are aborted
+ * with 415; type sniffed is handed to the parser so it is not detected twice</p>
  */
 @Slf4j
 public class MediaFetcher {
     private boolean allowAll = false;
     private List<String> whiteListSources;
+    private final ManagedAsyncHttpClient httpClient;
+    private final SpoolDirectory spoolDirectory;
+    private final DownloadQueue downloadQueue;
+    private final ExtractionCache extractionCache;
+    private final PipelineMetrics pipelineMetrics;
+    private final MemoryBudget memoryBudget;
+    private final TypeGate typeGate;
+    private final CancellationMetrics cancellationMetrics;
 
-    public MediaFetcher(List<String> sourceWhiteList) {
+    private MediaFetcher(Builder builder) {
+        this.httpClient = builder.httpClient;
+        this.spoolDirectory = builder.spoolDirectory;
+        this.downloadQueue = builder.downloadQueue;
+        this.extractionCache = builder.extractionCache;
+        this.pipelineMetrics = builder.pipelineMetrics;
+        this.memoryBudget = builder.memoryBudget;
+        this.typeGate = builder.typeGate;
+        this.cancellationMetrics = builder.cancellationMetrics;
+        List<String> sourceWhiteList = builder.sources;
         if (sourceWhiteList.size() == 1 && sourceWhiteList.get(0).equalsIgnoreCase("all")) {
             allowAll = true;
             log.warn("DANGER - RUNNING IN ALLOW-ALL SOURCE MODE");
@@ -39,6 +66,89 @@ public class MediaFetcher {
         }
     }
 
+    /**
+     * Builder helper to return MediaFetcher, optional collaborators left unset are not used
+     */
+    public static class Builder {
+        private List<String> sources = new ArrayList<>();
+        private ManagedAsyncHttpClient httpClient;
+        private SpoolDirectory spoolDirectory;
+        private DownloadQueue downloadQueue;
+        private ExtractionCache extractionCache;
+        private PipelineMetrics pipelineMetrics;
+        private MemoryBudget memoryBudget;
+        private TypeGate typeGate;
+        private CancellationMetrics cancellationMetrics;
+
+        /**
+         * Sources resources may be fetched from, "all" to allow any
+         */
+        public Builder withSources(List<String> sources) {
+            this.sources = sources;
+            return this;
+        }
+
+        public Builder withHttpClient(ManagedAsyncHttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        public Builder withSpoolDirectory(SpoolDirectory spoolDirectory) {
+            this.spoolDirectory = spoolDirectory;
+            return this;
+        }
+
+        public Builder withDownloadQueue(DownloadQueue downloadQueue) {
+            this.downloadQueue = downloadQueue;
+            return this;
+        }
+
+        /**
+         * Cache of extraction results, caching is disabled without it
+         */
+        public Builder withExtractionCache(ExtractionCache extractionCache) {
+            this.extractionCache = extractionCache;
+            return this;
+        }
+
+        /**
+         * Receives stage timings of each fetch
+         */
+        public Builder withPipelineMetrics(PipelineMetrics pipelineMetrics) {
+            this.pipelineMetrics = pipelineMetrics;
+            return this;
+        }
+
+        /**
+         * Parses reserve their expected memory from it before they start
+         */
+        public Builder withMemoryBudget(MemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * Types of bodies to be parsed are sniffed with it while downloading; without it any type is downloaded in
+         * full
+         */
+        public Builder withTypeGate(TypeGate typeGate) {
+            this.typeGate = typeGate;
+            return this;
+        }
+
+        /**
+         * Counts abandoned fetches and CPU time their parses wasted
+         */
+        public Builder withCancellationMetrics(CancellationMetrics cancellationMetrics) {
+            this.cancellationMetrics = cancellationMetrics;
+            return this;
+        }
+
+        public MediaFetcher build() {
+            return new MediaFetcher(this);
+        }
+    }
+
     public MediaFetcherProcessor withUrl(String source) {
         if (allowAll) {
             return new MediaFetcherProcessor(source);
@@ -48,7 +158,7 @@ public class MediaFetcher {
                 return new MediaFetcherProcessor(source);
             }
         }
-        throw new RuntimeException(
+        throw new MediaFetchException(Status.FORBIDDEN.getStatusCode(),
                 "NOT_WHITELISTED: " + source + " not in source white list , not allowed to " + "access");
     }
 
@@ -58,6 +168,10 @@ public class MediaFetcher {
         private long timeout;
         private int maxFileSizeInBytes = 1000 * 1000 * 2 ;
         private boolean ignoreIfNoHeader = false;
+        private int streamingBufferSizeInBytes = 0;
+        private int detectionPrefixSizeInBytes = 0;
+        private long processingTimeout = -1;
+        private RequestTimings timings;
 
         MediaFetcherProcessor(String url) {
             this.path = url;
@@ -68,6 +182,31 @@ public class MediaFetcher {
             return this;
         }
 
+        /**
+         * Parse is stopped once this much time passed since fetch started, download and parse are also stopped as
+         * soon as the returned future is cancelled
+         * @param processingTimeout in ms, -1 for no deadline
+         * @return
+         */
+        public MediaFetcherProcessor withProcessingTimeout(long processingTimeout) {
+            this.processingTimeout = processingTimeout;
+            return this;
+        }
+
+        /**
+         * Stage timings of the fetch are recorded into given timings, so caller can report them
+         * @param timings fresh timings, by default each fetch uses its own
+         * @return
+         */
+        public MediaFetcherProcessor withTimings(RequestTimings timings) {
+            this.timings = timings;
+            return this;
+        }
+
+        private RequestTimings newTimings() {
+            return timings != null ? timings : new RequestTimings();
+        }
+
         /**
          * Max Allowed download size of file in bytes
          * @param maxDownloadSizeInBytes
@@ -79,7 +218,8 @@ public class MediaFetcher {
         }
 
         /**
-         * if no content-length is present in file response, size of file will not be limited
+         * if no content-length is present in file response, download is allowed and max size is enforced as body
+         * is received
          * @param ignoreIfNoHeader true to ignore content-length error, if not present
          * @return
          */
@@ -89,145 +229,539 @@ public class MediaFetcher {
         }
 
         /**
-         * <p> Fetches HTTP stream , checks for content-Length and then calls TikaMediaProessor to process</p>
-         * <p> Sets response or error to AsyncResponse to complete response</p>
+         * Streams body to the parser while it is downloaded, instead of buffering whole file first
+         * @param bufferSizeInBytes max bytes buffered between download and parser, 0 to disable streaming
+         * @return
+         */
+        public MediaFetcherProcessor withStreaming(int bufferSizeInBytes) {
+            this.streamingBufferSizeInBytes = bufferSizeInBytes;
+            return this;
+        }
+
+        /**
+         * Detects MIME type from the first bytes of the resource (fetched with a Range request), full resource is
+         * only fetched if that is inconclusive
+         * @param prefixSizeInBytes bytes fetched for detection, 0 to always fetch whole resource
+         * @return
+         */
+        public MediaFetcherProcessor withDetectionPrefix(int prefixSizeInBytes) {
+            this.detectionPrefixSizeInBytes = prefixSizeInBytes;
+            return this;
+        }
+
+        // file name part of url, used as a hint for MIME detection
+        private String resourceName() {
+            try {
+                String urlPath = URI.create(path).getPath();
+                if (urlPath == null || urlPath.isEmpty()) {
+                    return null;
+                }
+                return urlPath.substring(urlPath.lastIndexOf('/') + 1);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        private AsyncCompletionHandlerWithContentLengthCheck<Response> newHandler(BodySink body) {
+            return newHandler(body, maxFileSizeInBytes);
+        }
+
+        private AsyncCompletionHandlerWithContentLengthCheck<Response> newHandler(BodySink body,
+                                                                                  int maxContentLength) {
+            return new AsyncCompletionHandlerWithContentLengthCheck<Response>(
+                    maxContentLength,
+                    ignoreIfNoHeader,
+                    path,
+                    body) {
+
+                @Override
+                protected void onContentLengthRecvd(int cL, boolean hadCl) {
+                    log.info(path + " content-length " + cL + " , content-Length value present in header => " +
+                            hadCl);
+                }
+
+                @Override
+                public Response onCompleted(Response response) throws Exception {
+                    return response;
+                }
+            };
+        }
+
+        // handler of a body to be parsed, sniffing its type if there is a type gate
+        private AsyncCompletionHandlerWithContentLengthCheck<Response> newGatedHandler(BodySink body,
+                                                                                       int maxSniffSizeInBytes) {
+            final AsyncCompletionHandlerWithContentLengthCheck<Response> handler = newHandler(body);
+            if (typeGate != null) {
+                handler.setTypeGate(typeGate, resourceName(),
+                        Math.min(typeGate.getSniffSizeInBytes(), maxSniffSizeInBytes));
+            }
+            return handler;
+        }
+
+        // type sniffed while downloading, once known (null if there is no type gate)
+        private CompletableFuture<TypeGate.Sniffed> sniffed(
+                AsyncCompletionHandlerWithContentLengthCheck<Response> handler) {
+            return typeGate != null ? handler.getSniffed() : CompletableFuture.completedFuture(null);
+        }
+
+        private MediaType parseType(TypeGate.Sniffed sniffed) {
+            return sniffed == null ? null : sniffed.getParseType();
+        }
+
+        // sniffed type is more telling than what origin announces
+        private String contentType(HttpHeaders headers, TypeGate.Sniffed sniffed) {
+            if (sniffed != null) {
+                return sniffed.getType().toString();
+            }
+            return headers == null ? null : headers.get(HttpHeaderNames.CONTENT_TYPE);
+        }
+
+        private MediaFetchException unsupportedType(AsyncCompletionHandlerWithContentLengthCheck<Response> handler,
+                                                    RequestTimings timings) {
+            TypeGate.Sniffed sniffed = handler.getSniffed().getNow(null);
+            String type = sniffed == null ? "unknown" : sniffed.getType().toString();
+            timings.setMimeType(type);
+            return new MediaFetchException(Status.UNSUPPORTED_MEDIA_TYPE.getStatusCode(),
+                    path + " is of type " + type + ", not parsed");
+        }
+
+        // GET through the download queue, conditional if there is a cached extraction to revalidate
+        private CompletableFuture<Response> execute(AsyncCompletionHandlerWithContentLengthCheck<Response> handler,
+                                                    CachedExtraction cached, RequestTimings timings) {
+            return submit(() -> {
+                BoundRequestBuilder request = httpClient.prepareGet(path).setRequestTimeout((int) timeout);
+                if (cached != null && cached.getEtag() != null) {
+                    request.setHeader(HttpHeaderNames.IF_NONE_MATCH, cached.getEtag());
+                }
+                if (cached != null && cached.getLastModified() != null) {
+                    request.setHeader(HttpHeaderNames.IF_MODIFIED_SINCE, cached.getLastModified());
+                }
+                return request;
+            }, handler, timings);
+        }
+
+        // sends request once the download queue has a slot, timing the wait and the download
+        private CompletableFuture<Response> submit(Supplier<BoundRequestBuilder> request,
+                                                   AsyncCompletionHandlerWithContentLengthCheck<Response> handler,
+                                                   RequestTimings timings) {
+            final long queuedAt = System.nanoTime();
+            return downloadQueue.submit(() -> {
+                final long startedAt = System.nanoTime();
+                timings.add(RequestTimings.Stage.DOWNLOAD_QUEUE, startedAt - queuedAt);
+                handler.setTimings(timings);
+                CompletableFuture<Response> executing = cancellable(request.get().execute(handler));
+                executing.whenComplete((response, throwable) -> {
+                    timings.addSince(RequestTimings.Stage.DOWNLOAD, startedAt);
+                    timings.setDownloadedBytes(handler.getReceivedBytes());
+                });
+                return executing;
+            });
+        }
+
+        // time a task waits for a parse thread counts as parse queue wait
+        private Executor timedQueue(Executor parseExecutor, RequestTimings timings) {
+            return task -> {
+                final long queuedAt = System.nanoTime();
+                parseExecutor.execute(() -> {
+                    timings.addSince(RequestTimings.Stage.PARSE_QUEUE, queuedAt);
+                    task.run();
+                });
+            };
+        }
+
+        private <T> CompletableFuture<T> recorded(CompletableFuture<T> result, RequestTimings timings) {
+            if (pipelineMetrics != null) {
+                result.whenComplete((value, throwable) -> pipelineMetrics.record(timings));
+            }
+            return result;
+        }
+
+        // cancelling returned future aborts the request and closes its connection
+        private CompletableFuture<Response> cancellable(ListenableFuture<Response> future) {
+            CompletableFuture<Response> completable = future.toCompletableFuture();
+            completable.whenComplete((response, throwable) -> {
+                if (completable.isCancelled()) {
+                    future.cancel(true);
+                }
+            });
+            return completable;
+        }
+
+        // size as announced by origin, bodies without Content-Length may still grow up to max file size
+        private long expectedSize(HttpHeaders headers) {
+            String contentLength = headers == null ? null : headers.get(HttpHeaderNames.CONTENT_LENGTH);
+            if (contentLength != null) {
+                try {
+                    return Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    log.debug(path + " invalid content length " + contentLength);
+                }
+            }
+            return maxFileSizeInBytes;
+        }
+
+        // starts parse once memory it is expected to need is reserved, holding it until parse completes
+        private <T> CompletableFuture<T> withMemory(long size, String contentType, Cancellation cancellation,
+                                                    Supplier<CompletableFuture<T>> parse) {
+            if (memoryBudget == null) {
+                return parse.get();
+            }
+            final CompletableFuture<MemoryBudget.Reservation> reservation = memoryBudget.reserve(
+                    memoryBudget.estimate(size, contentType));
+            cancellation.onCancel(() -> reservation.cancel(false));
+            return reservation.thenCompose(reserved -> {
+                final CompletableFuture<T> parsing;
+                try {
+                    parsing = parse.get();
+                } catch (RuntimeException e) {
+                    reserved.release();
+                    throw e;
+                }
+                return parsing.whenComplete((result, throwable) -> reserved.release());
+            });
+        }
+
+        private MediaFetchException toParseFailure(Exception e, Cancellation cancellation) {
+            if (cancellation.isCancelled()) {
+                return new MediaFetchException(Status.REQUEST_TIMEOUT.getStatusCode(),
+                        path + " parse cancelled or past deadline", e);
+            }
+            if (e instanceof UnsupportedFormatException) {
+                // no parser enabled for its type, see ParserRegistry
+                return new MediaFetchException(Status.UNSUPPORTED_MEDIA_TYPE.getStatusCode(),
+                        path + " " + e.getMessage(), e);
+            }
+            return new MediaFetchException(Status.INTERNAL_SERVER_ERROR.getStatusCode(),
+                    e.getMessage() + " -> while processing resource", e);
+        }
+
+        private void checkNotCancelled(Cancellation cancellation) {
+            // parser may end gracefully on a body closed by cancellation
+            if (cancellation.isCancelled()) {
+                throw new MediaFetchException(Status.REQUEST_TIMEOUT.getStatusCode(),
+                        path + " parse cancelled or past deadline");
+            }
+        }
+
+        private boolean isNotModified(int statusCode, CachedExtraction cached) {
+            return cached != null && statusCode == Status.NOT_MODIFIED.getStatusCode();
+        }
+
+        // Downloads whole body into given buffer (spilling to disk if large) without holding a thread, completes
+        // only if origin returned 200 (or 304 to a conditional request); caller owns the buffer and must close it
+        private CompletableFuture<Response> download(SpoolingBodyBuffer body,
+                                                     AsyncCompletionHandlerWithContentLengthCheck<Response> handler,
+                                                     CachedExtraction cached, Cancellation cancellation,
+                                                     RequestTimings timings) {
+            final CompletableFuture<Response> executing = execute(handler, cached, timings);
+            cancellation.onCancel(() -> executing.cancel(true));
+            return executing
+                    .handle((response, throwable) -> {
+                        if (throwable != null) {
+                            throw new CompletionException(throwable);
+                        }
+                        if (isNotModified(response.getStatusCode(), cached)) {
+                            return response;
+                        }
+                        if (response.getStatusCode() != Status.OK.getStatusCode()) {
+                            // only set on a 200 aborted after sniffing, which is reported as 415
+                            if (handler.isUnsupportedType()) {
+                                throw unsupportedType(handler, timings);
+                            }
+                            if (handler.isTooLarge()) {
+                                log.error(path + "  was too large to process");
+                            }
+                            throw new MediaFetchException(response.getStatusCode(),
+                                    path + " returned " + response.getStatusCode());
+                        }
+                        log.info(path + " downloaded " + body.getSize() + " bytes , spilled to disk => " +
+                                body.isSpilled());
+                        return response;
+                    });
+        }
+
+        /**
+         * <p> Fetches HTTP stream , checks for content-Length and then calls TikaMediaProessor to process on parse
+         * executor</p>
          *
          * @param mediaProcessor         TikaMediaProcessor which wraps Tika requests
-         * @param mediaProcessingRequest Original request to Jersey
-         * @param asyncResponse          Jersey AsyncResponse to be resumed
-         * @param executorService        threadpool manager
-         * @throws IOException
-         * @throws URISyntaxException
-         * @throws NoSuchAlgorithmException
-         * @throws InterruptedException
-         * @throws ExecutionException
-         * @throws TimeoutException
-         */
-        public void fetchStreamAndProcess(TikaMediaProcessor mediaProcessor,
-                                          MediaProcessingRequest mediaProcessingRequest, AsyncResponse asyncResponse,
-                                          ExecutorService executorService)
-                throws IOException, URISyntaxException, NoSuchAlgorithmException, InterruptedException,
-                ExecutionException, TimeoutException {
-            final int[] contentLength = new int[1];
-            final boolean[] hadContentLengthHeader = new boolean[1];
-            try (AsyncHttpClient ahc = asyncHttpClient()) {
-                final ListenableFuture<Response> future = ahc.prepareGet(path).execute(
-                        new AsyncCompletionHandlerWithContentLengthCheck<Response>(
-                                maxFileSizeInBytes,
-                                ignoreIfNoHeader,
-                                mediaProcessingRequest.getResourcePath()) {
-
-                            @Override
-                            protected void onContentLengthRecvd(int cL, boolean hadCl) {
-                                contentLength[0] = cL;
-                                hadContentLengthHeader[0] = hadCl;
-                            }
+         * @param request                Original request to Jersey
+         * @param parseExecutor          CPU bound executor used to run Tika
+         * @return future of extracted content, failed with {@link MediaFetchException} carrying the status to return
+         */
+        public CompletableFuture<MediaProcessingResponse> fetchAndProcess(TikaMediaProcessor mediaProcessor,
+                                                                          MediaProcessingRequest request,
+                                                                          Executor parseExecutor) {
+            final ExtractionKey key = ExtractionKey.of(request);
+            final CachedExtraction cached = extractionCache == null ? null : extractionCache.get(key);
+            final RequestTimings timings = newTimings();
+            timings.setOcr(request.isOcrRequested());
+            return fetchAndParse(cached, () -> {
+                        MediaProcessingResponse revalidated = extractionCache.revalidated(key, cached);
+                        if (revalidated.getMetaData() != null) {
+                            timings.setMimeType(revalidated.getMetaData().get(Metadata.CONTENT_TYPE));
+                        }
+                        return revalidated;
+                    },
+                    (body, headers, type) -> mediaProcessor.processMedia(body,
+                            ProcessingOptions.forRequest(request).withKnownType(type).build()),
+                    (mediaProcessingResponse, headers) -> {
+                        if (extractionCache != null) {
+                            extractionCache.put(key, cached, mediaProcessingResponse, headers);
+                        }
+                    }, timings, parseExecutor);
+        }
+
+        /**
+         * <p> Fetches HTTP stream , checks for content-Length and then hands body to given parser on parse
+         * executor; body is closed once parser returns</p>
+         *
+         * @param parser        consumes body
+         * @param parseExecutor CPU bound executor used to run parser
+         * @param <T>           parse result
+         * @return future of parse result, failed with {@link MediaFetchException} carrying the status to return
+         */
+        public <T> CompletableFuture<T> fetchAndParse(BodyParser<T> parser, Executor parseExecutor) {
+            return fetchAndParse(null, null, parser, (result, headers) -> {
+            }, newTimings(), parseExecutor);
+        }
+
+        private <T> CompletableFuture<T> fetchAndParse(CachedExtraction cached, Supplier<T> notModified,
+                                                       BodyParser<T> parser, BiConsumer<T, HttpHeaders> onParsed,
+                                                       RequestTimings timings, Executor parseExecutor) {
+            final Cancellation cancellation = new Cancellation(processingTimeout, cancellationMetrics);
+            final Executor timedParseExecutor = timedQueue(parseExecutor, timings);
+            final CompletableFuture<T> result = streamingBufferSizeInBytes > 0 ?
+                    streamAndParse(cached, notModified, parser, onParsed, cancellation, timings,
+                            timedParseExecutor) :
+                    downloadAndParse(cached, notModified, parser, onParsed, cancellation, timings,
+                            timedParseExecutor);
+            return recorded(whenCancelled(result, cancellation), timings);
+        }
+
+        // caller cancelling returned future (timeout, disconnect) stops download and parse
+        private <T> CompletableFuture<T> whenCancelled(CompletableFuture<T> result, Cancellation cancellation) {
+            result.whenComplete((value, throwable) -> {
+                if (result.isCancelled()) {
+                    log.info(path + " abandoned, cancelling download and parse");
+                    cancellation.cancel();
+                }
+            });
+            return result;
+        }
 
-                            @Override
-                            public Response onCompleted(Response response) throws Exception {
-                                return response;
+        private <T> CompletableFuture<T> downloadAndParse(CachedExtraction cached, Supplier<T> notModified,
+                                                          BodyParser<T> parser, BiConsumer<T, HttpHeaders> onParsed,
+                                                          Cancellation cancellation, RequestTimings timings,
+                                                          Executor parseExecutor) {
+            final SpoolingBodyBuffer body = spoolDirectory.newBuffer();
+            final AsyncCompletionHandlerWithContentLengthCheck<Response> handler =
+                    newGatedHandler(body, Integer.MAX_VALUE);
+            return download(body, handler, cached, cancellation, timings).thenComposeAsync(response -> {
+                if (isNotModified(response.getStatusCode(), cached)) {
+                    return CompletableFuture.completedFuture(notModified.get());
+                }
+                final TypeGate.Sniffed sniffed = handler.getSniffed().getNow(null);
+                // whole body is here, its actual size is known
+                return withMemory(body.getSize(), contentType(response.getHeaders(), sniffed), cancellation,
+                        () -> CompletableFuture.supplyAsync(() -> {
+                            try {
+                                // spool file is written out before a parse permit is taken
+                                final InputStream stream = body.openStream();
+                                T result = timings.runParse(() -> cancellation.runParse(() ->
+                                        WorkerPool.runWithParsePermit(() -> parser.parse(stream,
+                                                response.getHeaders(), parseType(sniffed)))));
+                                checkNotCancelled(cancellation);
+                                onParsed.accept(result, response.getHeaders());
+                                return result;
+                            } catch (MediaFetchException e) {
+                                throw e;
+                            } catch (Exception e) {
+                                throw toParseFailure(e, cancellation);
                             }
-                        });
-                Response response = future.get(timeout, TimeUnit.MILLISECONDS);
-                if (response.getStatusCode() == javax.ws.rs.core.Response.Status.OK.getStatusCode()) {
-                    log.info(mediaProcessingRequest.getResourcePath() +
-                            "content-length " + contentLength[0] + " , content-Length value present in header => " +
-                            hadContentLengthHeader[0]);
-                    MediaProcessingResponse mediaProcessingResponse = mediaProcessor
-                            .processMedia(response.getResponseBodyAsStream(), mediaProcessingRequest.isUseOCR(),
-                                    mediaProcessingRequest.getOcrLangs());
-                    asyncResponse.resume(javax.ws.rs.core.Response.ok().entity(mediaProcessingResponse).build());
-
-                } else {
-                    if (response.getStatusCode() ==
-                            javax.ws.rs.core.Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode()) {
-                        log.error(mediaProcessingRequest.getResourcePath() + "  was too large to process with " +
-                                "content-length " + contentLength[0] + " , content-Length value present in header => " +
-                                hadContentLengthHeader[0]);
+                        }, parseExecutor));
+            }, Runnable::run).whenComplete((response, throwable) -> body.close());
+        }
+
+        // Parser consumes body while it is being downloaded, download and parse overlap and at most
+        // streamingBufferSizeInBytes of body is held in memory
+        private <T> CompletableFuture<T> streamAndParse(CachedExtraction cached, Supplier<T> notModified,
+                                                        BodyParser<T> parser, BiConsumer<T, HttpHeaders> onParsed,
+                                                        Cancellation cancellation, RequestTimings timings,
+                                                        Executor parseExecutor) {
+            final BoundedBodyInputStream body = new BoundedBodyInputStream(streamingBufferSizeInBytes);
+            // body is not read until type is sniffed, no more can be sniffed than body holds
+            final AsyncCompletionHandlerWithContentLengthCheck<Response> handler =
+                    newGatedHandler(body, streamingBufferSizeInBytes);
+            final CompletableFuture<Response> download = execute(handler, cached, timings);
+            cancellation.onCancel(() -> {
+                download.cancel(true);
+                body.close();
+            });
+            download.whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    // download may have failed before handler saw anything, e.g. rejected by queue
+                    handler.getStatusCode().completeExceptionally(throwable);
+                    handler.getSniffed().complete(null);
+                }
+            });
+            final BiFunction<Integer, TypeGate.Sniffed, T> parse = (statusCode, sniffed) -> {
+                try {
+                    if (isNotModified(statusCode, cached)) {
+                        return notModified.get();
+                    }
+                    if (statusCode != Status.OK.getStatusCode()) {
+                        throw new MediaFetchException(statusCode, path + " returned " + statusCode);
+                    }
+                    // parse permit is given back while waiting for body parts
+                    T result = timings.runParse(() -> cancellation.runParse(() ->
+                            WorkerPool.runWithParsePermit(() ->
+                                    parser.parse(body, handler.getHeaders(), parseType(sniffed)))));
+                    checkNotCancelled(cancellation);
+                    if (handler.isTooLarge()) {
+                        // parser may stop gracefully on a truncated stream
+                        throw new MediaFetchException(Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode(),
+                                path + " exceeded max size while streaming");
                     }
-                    asyncResponse
-                            .resume(javax.ws.rs.core.Response.serverError().status(response.getStatusCode()).build());
+                    onParsed.accept(result, handler.getHeaders());
+                    return result;
+                } catch (MediaFetchException e) {
+                    throw e;
+                } catch (Exception e) {
+                    if (handler.isTooLarge()) {
+                        throw new MediaFetchException(Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode(),
+                                path + " exceeded max size while streaming", e);
+                    }
+                    if (body.getFailure() != null && !cancellation.isCancelled()) {
+                        throw new CompletionException(body.getFailure());
+                    }
+                    throw toParseFailure(e, cancellation);
+                } finally {
+                    body.close();
                 }
-            } catch (TimeoutException toe) {
-                log.error("Timeout exception while downloading file " + toe.getMessage());
-                asyncResponse.resume(javax.ws.rs.core.Response.serverError()
-                        .status(javax.ws.rs.core.Response.Status.REQUEST_TIMEOUT).build());
-            } catch (Throwable throwable) {
-                log.error("Exception while processing file " + mediaProcessingRequest.getResourcePath() + " => " +
-                        throwable.toString());
-                asyncResponse.resume(javax.ws.rs.core.Response.serverError().entity(throwable.getMessage() + " -> " +
-                        "while downloading resource").build());
-            }
+            };
+            return handler.getStatusCode().thenCompose(statusCode -> statusCode != Status.OK.getStatusCode() ?
+                    CompletableFuture.supplyAsync(() -> parse.apply(statusCode, null), parseExecutor) :
+                    // parse starts as type is known, announced size is all there is to go by
+                    sniffed(handler).thenCompose(sniffed -> {
+                        if (handler.isUnsupportedType()) {
+                            throw unsupportedType(handler, timings);
+                        }
+                        return withMemory(expectedSize(handler.getHeaders()),
+                                contentType(handler.getHeaders(), sniffed), cancellation,
+                                () -> CompletableFuture.supplyAsync(() -> parse.apply(statusCode, sniffed),
+                                        parseExecutor));
+                    })
+            ).whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    body.close();
+                    download.cancel(true);
+                }
+            });
         }
 
         /**
-         * <p> Fetches HTTP stream , checks for content-Length and then calls TikaMediaProessor to detect MIME </p>
-         * <p> Sets response or error to AsyncResponse to complete response</p>
+         * <p> Fetches first bytes of HTTP stream and calls TikaMediaProessor to detect MIME on parse executor; falls
+         * back to fetching the whole resource if the prefix is not enough to tell the type</p>
          *
          * @param mediaProcessor        TikaMediaProcessor which wraps Tika requests
          * @param mediaDetectionRequest Original request to Jersey
-         * @param asyncResponse         Jersey AsyncResponse to be resumed
-         * @param executorService       threadpool manager managed by dropwizard
-         * @throws IOException
-         * @throws URISyntaxException
-         * @throws NoSuchAlgorithmException
-         * @throws InterruptedException
-         * @throws ExecutionException
-         * @throws TimeoutException
-         */
-        public void fetchStreamAndDetect(TikaMediaProcessor mediaProcessor, MediaDetectionRequest mediaDetectionRequest,
-                                         AsyncResponse asyncResponse, ExecutorService executorService)
-                throws IOException, URISyntaxException, NoSuchAlgorithmException, InterruptedException,
-                ExecutionException, TimeoutException {
-            final int[] contentLength = new int[1];
-            final boolean[] hadContentLengthHeader = new boolean[1];
-            try (AsyncHttpClient ahc = asyncHttpClient()) {
-                final ListenableFuture<Response> future = ahc.prepareGet(path).execute(
-                        new AsyncCompletionHandlerWithContentLengthCheck<Response>(
-                                maxFileSizeInBytes,
-                                ignoreIfNoHeader,
-                                mediaDetectionRequest.getResourcePath()) {
-
-                            @Override
-                            protected void onContentLengthRecvd(int cL, boolean hadCl) {
-                                contentLength[0] = cL;
-                                hadContentLengthHeader[0] = hadCl;
-                            }
+         * @param parseExecutor         executor used to run Tika
+         * @return future of detected type, failed with {@link MediaFetchException} carrying the status to return
+         */
+        public CompletableFuture<MediaDetectionResponse> fetchAndDetect(TikaMediaProcessor mediaProcessor,
+                                                                        MediaDetectionRequest mediaDetectionRequest,
+                                                                        Executor parseExecutor) {
+            final Cancellation cancellation = new Cancellation(processingTimeout, cancellationMetrics);
+            final RequestTimings timings = newTimings();
+            final Executor timedParseExecutor = timedQueue(parseExecutor, timings);
+            if (detectionPrefixSizeInBytes <= 0) {
+                return recorded(whenCancelled(fetchAllAndDetect(mediaProcessor, cancellation, timings,
+                        timedParseExecutor), cancellation), timings);
+            }
+            final PrefixBodySink prefix = new PrefixBodySink(detectionPrefixSizeInBytes);
+            // size limit does not apply, download is aborted once prefix is received
+            final AsyncCompletionHandlerWithContentLengthCheck<Response> handler =
+                    newHandler(prefix, Integer.MAX_VALUE);
+            final CompletableFuture<Response> executing = submit(() -> httpClient.prepareGet(path)
+                    .setHeader(HttpHeaderNames.RANGE, "bytes=0-" + (detectionPrefixSizeInBytes - 1))
+                    .setRequestTimeout((int) timeout), handler, timings);
+            cancellation.onCancel(() -> executing.cancel(true));
+            return recorded(whenCancelled(executing
+                    .thenComposeAsync(response -> {
+                        int statusCode = response.getStatusCode();
+                        if (statusCode != Status.OK.getStatusCode() &&
+                                statusCode != Status.PARTIAL_CONTENT.getStatusCode()) {
+                            throw new MediaFetchException(statusCode, path + " returned " + statusCode);
+                        }
+                        byte[] bytes = prefix.getPrefix();
+                        boolean partial = prefix.isTruncated() || (statusCode == Status.PARTIAL_CONTENT
+                                .getStatusCode() && bytes.length >= detectionPrefixSizeInBytes);
+                        String mimeType = detect(mediaProcessor, TikaInputStream.get(bytes), timings);
+                        if (partial && !mediaProcessor.isConclusive(mimeType)) {
+                            log.info(path + " detected as " + mimeType + " from first " + bytes.length +
+                                    " bytes, fetching whole resource");
+                            return fetchAllAndDetect(mediaProcessor, cancellation, timings, timedParseExecutor);
+                        }
+                        return CompletableFuture.completedFuture(toDetectionResponse(mimeType));
+                    }, timedParseExecutor), cancellation), timings);
+        }
 
-                            @Override
-                            public Response onCompleted(Response response) throws Exception {
-                                return response;
-                            }
-                        });
+        private CompletableFuture<MediaDetectionResponse> fetchAllAndDetect(TikaMediaProcessor mediaProcessor,
+                                                                           Cancellation cancellation,
+                                                                           RequestTimings timings,
+                                                                           Executor parseExecutor) {
+            final SpoolingBodyBuffer body = spoolDirectory.newBuffer();
+            return download(body, newHandler(body), null, cancellation, timings).thenApplyAsync(response -> {
                 try {
-                    Response response = future.get(timeout, TimeUnit.MILLISECONDS);
-                    if (response.getStatusCode() == javax.ws.rs.core.Response.Status.OK.getStatusCode()) {
-                        log.info(mediaDetectionRequest.getResourcePath() + "  was too large to detect with " +
-                                "content-length " + contentLength[0] + " , content-Length value present in header => " +
-                                hadContentLengthHeader[0]);
-                        MediaDetectionResponse mediaProcessingResponse = new MediaDetectionResponse();
-                        mediaProcessingResponse
-                                .setMimeType(mediaProcessor.detectMimeType(response.getResponseBodyAsStream()));
-                        asyncResponse.resume(javax.ws.rs.core.Response.ok().entity(mediaProcessingResponse).build());
-
-                    } else {
-                        if (response.getStatusCode() ==
-                                javax.ws.rs.core.Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode()) {
-                            log.error(mediaDetectionRequest.getResourcePath() + "  was too large to detect with " +
-                                    "content-length " + contentLength[0] +
-                                    " , content-Length value present in header => " + hadContentLengthHeader[0]);
-                        }
-                        asyncResponse.resume(javax.ws.rs.core.Response.serverError().status(response.getStatusCode())
-                                .build());
-                    }
-                } catch (Throwable throwable) {
-                    log.error("Exception while detecting mimetype - " + throwable.toString());
-                    asyncResponse
-                            .resume(javax.ws.rs.core.Response.serverError().entity(throwable.getMessage()).build());
+                    return toDetectionResponse(detect(mediaProcessor, body.openStream(), timings));
+                } catch (IOException e) {
+                    throw new MediaFetchException(Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getMessage(), e);
                 }
+            }, parseExecutor).whenComplete((response, throwable) -> body.close());
+        }
+
+        private String detect(TikaMediaProcessor mediaProcessor, InputStream inputStream, RequestTimings timings) {
+            final long startedAt = System.nanoTime();
+            try {
+                String mimeType = WorkerPool.runWithParsePermit(() ->
+                        mediaProcessor.detectMimeType(inputStream, resourceName()));
+                timings.setMimeType(mimeType);
+                return mimeType;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MediaFetchException(Status.SERVICE_UNAVAILABLE.getStatusCode(),
+                        path + " interrupted waiting for a parse permit", e);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new MediaFetchException(Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getMessage(), e);
+            } finally {
+                timings.addSince(RequestTimings.Stage.DETECT, startedAt);
             }
         }
 
+        private MediaDetectionResponse toDetectionResponse(String mimeType) {
+            MediaDetectionResponse mediaDetectionResponse = new MediaDetectionResponse();
+            mediaDetectionResponse.setMimeType(mimeType);
+            return mediaDetectionResponse;
+        }
+
+    }
+
+    /**
+     * Consumes a fetched body on the parse executor
+     *
+     * @param <T> parse result
+     */
+    public interface BodyParser<T> {
+        /**
+         * @param body    fetched body
+         * @param headers headers sent by origin
+         * @param type    type sniffed while downloading, body can be parsed as such without detecting it again;
+         *                null if not known
+         */
+        T parse(InputStream body, HttpHeaders headers, MediaType type) throws Exception;
     }
 
 }
@@ -6,8 +6,6 @@ import com.google.inject.Provides;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Names;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.tika.config.TikaConfig;
-import org.apache.tika.parser.AutoDetectParser;
 
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -19,20 +17,34 @@ import java.util.concurrent.ExecutorService;
 public class MediaProcessorModule extends AbstractModule {
     final ExecutorService executorService;
     final TikaMediaServerConfiguration tikaMediaServerConfiguration;
+    final ForkedParserPool forkedParserPool;
+    final ExecutorService ocrPageExecutor;
+    final ParserRegistry parserRegistry;
 
     public MediaProcessorModule(ExecutorService executorService, TikaMediaServerConfiguration serverConfiguration) {
+        this(executorService, serverConfiguration, null, null);
+    }
+
+    /**
+     * @param forkedParserPool when set, parses run in its child JVMs instead of in process; detection stays in
+     *                         process as it only reads a few bytes
+     * @param ocrPageExecutor  when set, pages of one document are OCRed in parallel on it
+     */
+    public MediaProcessorModule(ExecutorService executorService, TikaMediaServerConfiguration serverConfiguration,
+                                ForkedParserPool forkedParserPool, ExecutorService ocrPageExecutor) {
         this.executorService = executorService;
         this.tikaMediaServerConfiguration = serverConfiguration;
+        this.forkedParserPool = forkedParserPool;
+        this.ocrPageExecutor = ocrPageExecutor;
+        // full registry is shared ( compared against a parser per thread in ProcessMediaBenchmark)
+        this.parserRegistry = ParserRegistry.of(serverConfiguration.getParserConfiguration());
     }
 
-    // Per tika manual,AutoDetectParser is thread safe
-    // Construction of this object is time consuming, so trying to leverage a static  ( to be load tested)
-    static AutoDetectParser autoDetectParser = new AutoDetectParser(TikaConfig.getDefaultConfig());
-
     @Override
     protected void configure() {
         bind(new TypeLiteral<List<String>>(){}).annotatedWith(Names.named("http-whitelist"))
                 .toProvider(() -> tikaMediaServerConfiguration.getSources());
+        bind(ParserRegistry.class).toInstance(parserRegistry);
 
     }
 
@@ -42,12 +54,16 @@ public class MediaProcessorModule extends AbstractModule {
         log.info("ocr timeout -" + tikaMediaServerConfiguration.getDefaultOCRTimeout());
         log.info("max processing threads -" + tikaMediaServerConfiguration.getMaxProcessingQueueDepth());
         log.info("default processing timeout -" + tikaMediaServerConfiguration.getDefaultProcessingTimeout());
+        log.info("forked parsers -" + (forkedParserPool != null));
         return new TikaMediaProcessor.Builder()
                 .withDefaultOCRTimeout(tikaMediaServerConfiguration.getDefaultOCRTimeout())
                 .withExecutorService(executorService)
                 .withMaxProcessingQueueDepth(tikaMediaServerConfiguration.getMaxProcessingQueueDepth())
                 .withDefaultProcessingTimeout(tikaMediaServerConfiguration.getDefaultProcessingTimeout())
-                .withTikaParser(autoDetectParser)
+                .withTikaParser(forkedParserPool != null ? forkedParserPool.getParser() : parserRegistry.getParser())
+                .withDetector(parserRegistry.getParser().getDetector())
+                .withOcrPageExecutor(ocrPageExecutor, tikaMediaServerConfiguration.getMaxOcrPagesInParallel())
+                .withAutoOcrMinCharactersPerPage(tikaMediaServerConfiguration.getAutoOcrMinCharactersPerPage())
                 .withAllowedSources(tikaMediaServerConfiguration.getSources())
                 .build();
 
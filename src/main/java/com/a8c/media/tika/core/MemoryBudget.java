@@ -0,0 +1,220 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.MemoryBudgetConfiguration;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Admission control on heap: thread counts say little about memory, a few large PDFs or archives parsed at once
+ * can exhaust it while most threads are idle. Each parse reserves its expected cost (downloaded size times an
+ * expansion factor for its type) before it starts and releases it once done; reservations that do not fit wait
+ * briefly in arrival order, then are rejected</p>
+ */
+@Slf4j
+public class MemoryBudget {
+    private final long capacity;
+    private final long maxWaitInMillis;
+    private final int retryAfterSeconds;
+    private final long baseCost;
+    private final double defaultExpansionFactor;
+    private final Map<String, Double> expansionFactors;
+    private final ScheduledExecutorService scheduler;
+    private final ArrayDeque<Waiter> waiting = new ArrayDeque<>();
+    private long reserved;
+    private final Meter rejected = new Meter();
+    private final Timer wait = new Timer();
+
+    /**
+     * @param configuration budget and cost estimation
+     * @param scheduler     fails reservations which waited too long
+     */
+    public MemoryBudget(MemoryBudgetConfiguration configuration, ScheduledExecutorService scheduler) {
+        this.capacity = configuration.getMaxInBytes() > 0 ? configuration.getMaxInBytes() :
+                Runtime.getRuntime().maxMemory() / 2;
+        this.maxWaitInMillis = configuration.getMaxWaitInMillis();
+        this.retryAfterSeconds = configuration.getRetryAfterSeconds();
+        this.baseCost = configuration.getBaseCostInBytes();
+        this.defaultExpansionFactor = configuration.getDefaultExpansionFactor();
+        this.expansionFactors = configuration.getExpansionFactors();
+        this.scheduler = scheduler;
+        log.info("memory budget of " + capacity + " bytes");
+    }
+
+    /**
+     * @param contentLength downloaded size in bytes
+     * @param contentType   Content-Type of the download, may be null
+     * @return heap expected to be used while parsing it
+     */
+    public long estimate(long contentLength, String contentType) {
+        return baseCost + (long) (contentLength * expansionFactor(RequestTimings.baseType(contentType)));
+    }
+
+    private double expansionFactor(String mimeType) {
+        if (mimeType == null) {
+            return defaultExpansionFactor;
+        }
+        Double factor = expansionFactors.get(mimeType);
+        if (factor == null && mimeType.indexOf('/') > 0) {
+            factor = expansionFactors.get(mimeType.substring(0, mimeType.indexOf('/')) + "/*");
+        }
+        return factor != null ? factor : defaultExpansionFactor;
+    }
+
+    /**
+     * <p>Reserves given bytes, at most the whole budget so a document bigger than it still runs, alone</p>
+     *
+     * @param bytes expected cost, see {@link #estimate(long, String)}
+     * @return future of the reservation, to be released once parse is done; failed with
+     * {@link WorkerPoolRejectedException} if it did not fit in time. Cancelling it gives up waiting
+     */
+    public CompletableFuture<Reservation> reserve(long bytes) {
+        final long cost = Math.min(bytes, capacity);
+        final Waiter waiter = new Waiter(cost);
+        synchronized (this) {
+            if (waiting.isEmpty() && reserved + cost <= capacity) {
+                reserved += cost;
+                waiter.future.complete(new Reservation(cost));
+                return waiter.future;
+            }
+            if (maxWaitInMillis <= 0) {
+                return reject(waiter);
+            }
+            waiting.add(waiter);
+        }
+        scheduler.schedule(() -> {
+            synchronized (this) {
+                if (!waiting.remove(waiter)) {
+                    return;
+                }
+            }
+            reject(waiter);
+            // a large waiter at the head may have held back smaller ones which fit
+            grantWaiting();
+        }, maxWaitInMillis, TimeUnit.MILLISECONDS);
+        waiter.future.whenComplete((reservation, throwable) -> {
+            if (waiter.future.isCancelled()) {
+                synchronized (this) {
+                    waiting.remove(waiter);
+                }
+                grantWaiting();
+            }
+        });
+        return waiter.future;
+    }
+
+    private CompletableFuture<Reservation> reject(Waiter waiter) {
+        rejected.mark();
+        waiter.future.completeExceptionally(new WorkerPoolRejectedException("memory", retryAfterSeconds));
+        return waiter.future;
+    }
+
+    private void release(long cost) {
+        synchronized (this) {
+            reserved -= cost;
+        }
+        grantWaiting();
+    }
+
+    // in arrival order, so a large reservation is not passed over forever by small ones
+    private void grantWaiting() {
+        while (true) {
+            Waiter next;
+            synchronized (this) {
+                Iterator<Waiter> iterator = waiting.iterator();
+                next = null;
+                while (iterator.hasNext()) {
+                    Waiter candidate = iterator.next();
+                    if (candidate.future.isDone()) {
+                        iterator.remove();
+                        continue;
+                    }
+                    if (reserved + candidate.cost <= capacity) {
+                        iterator.remove();
+                        reserved += candidate.cost;
+                        next = candidate;
+                    }
+                    break;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            wait.update(System.nanoTime() - next.queuedAt, TimeUnit.NANOSECONDS);
+            if (!next.future.complete(new Reservation(next.cost))) {
+                // cancelled meanwhile
+                release(next.cost);
+                return;
+            }
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+    public synchronized long getAvailable() {
+        return capacity - reserved;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(MemoryBudget.class, "reserved"),
+                (Gauge<Long>) this::getReserved);
+        metricRegistry.register(MetricRegistry.name(MemoryBudget.class, "available"),
+                (Gauge<Long>) this::getAvailable);
+        metricRegistry.register(MetricRegistry.name(MemoryBudget.class, "waiting"),
+                (Gauge<Integer>) this::getWaiting);
+        metricRegistry.register(MetricRegistry.name(MemoryBudget.class, "rejected"), rejected);
+        metricRegistry.register(MetricRegistry.name(MemoryBudget.class, "wait"), wait);
+    }
+
+    private static class Waiter {
+        final long cost;
+        final long queuedAt = System.nanoTime();
+        final CompletableFuture<Reservation> future = new CompletableFuture<>();
+
+        Waiter(long cost) {
+            this.cost = cost;
+        }
+    }
+
+    /**
+     * Bytes held in the budget until released, releasing more than once has no effect
+     */
+    public class Reservation {
+        private final long cost;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Reservation(long cost) {
+            this.cost = cost;
+        }
+
+        public long getCost() {
+            return cost;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                MemoryBudget.this.release(cost);
+            }
+        }
+    }
+}
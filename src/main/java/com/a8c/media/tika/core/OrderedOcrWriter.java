@@ -0,0 +1,116 @@
+package com.a8c.media.tika.core;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Writes document text with OCR text of pages being recognized in parallel put back in page order; text after
+ * a page still being recognized is held back until the page is done</p>
+ * <p>Only used from the parse thread</p>
+ */
+@Slf4j
+class OrderedOcrWriter extends Writer {
+    private final Writer out;
+    private final int maxCharacters;
+    // StringBuilder for held back text, Future for a page
+    private final Deque<Object> pending = new ArrayDeque<>();
+    private long written;
+    @Getter
+    private boolean truncated;
+
+    /**
+     * @param out           receives text in order
+     * @param maxCharacters text is cut after this many characters, -1 for no limit
+     */
+    OrderedOcrWriter(Writer out, int maxCharacters) {
+        this.out = out;
+        this.maxCharacters = maxCharacters;
+    }
+
+    void addPage(Future<String> page) {
+        pending.add(page);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        drain();
+        if (pending.isEmpty()) {
+            writeOut(new String(chars, offset, length));
+            return;
+        }
+        if (!(pending.peekLast() instanceof StringBuilder)) {
+            pending.add(new StringBuilder());
+        }
+        ((StringBuilder) pending.peekLast()).append(chars, offset, length);
+    }
+
+    /**
+     * Writes out whatever precedes the first page not recognized yet
+     */
+    private void drain() throws IOException {
+        while (!pending.isEmpty()) {
+            Object head = pending.peekFirst();
+            if (head instanceof Future && !((Future<?>) head).isDone()) {
+                return;
+            }
+            writeNext();
+        }
+    }
+
+    /**
+     * Waits for all pages, writing out the rest of the text
+     */
+    void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeNext() throws IOException {
+        Object head = pending.pollFirst();
+        if (head instanceof StringBuilder) {
+            writeOut(head.toString());
+            return;
+        }
+        try {
+            writeOut(((Future<String>) head).get() + "\n");
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while waiting for OCR of page");
+        } catch (ExecutionException | CancellationException e) {
+            // same as a failing embedded image in a sequential parse, document text goes on without it
+            log.warn("OCR of page failed => " + e.getMessage());
+        }
+    }
+
+    private void writeOut(String text) throws IOException {
+        if (truncated) {
+            return;
+        }
+        if (maxCharacters >= 0 && written + text.length() > maxCharacters) {
+            text = text.substring(0, (int) (maxCharacters - written));
+            truncated = true;
+        }
+        out.write(text);
+        written += text.length();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
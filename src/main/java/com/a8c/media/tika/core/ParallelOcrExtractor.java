@@ -0,0 +1,255 @@
+package com.a8c.media.tika.core;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.extractor.ParsingEmbeddedDocumentExtractor;
+import org.apache.tika.io.IOUtils;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.ocr.TesseractOCRConfig;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.ContentHandlerDecorator;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>Takes over OCR of images embedded in a document (scanned PDF pages, inline images) from the parse: images
+ * are handed to a shared page pool instead of running Tesseract on them one after another on the parse thread;
+ * other embedded documents are parsed as usual</p>
+ * <p>At most maxPagesInParallel pages of one document are recognized or waiting at once, parse waits for a page
+ * to finish before handing over more</p>
+ * <p>With a min characters per page, images of a page are held until the page ends and only OCRed if its text
+ * layer is shorter than that, so born-digital pages are not OCRed at all</p>
+ */
+@Slf4j
+class ParallelOcrExtractor implements EmbeddedDocumentExtractor {
+    private final EmbeddedDocumentExtractor delegate;
+    private final Parser parser;
+    private final Detector detector;
+    private final ExecutorService pageExecutor;
+    private final Semaphore pagesInFlight;
+    private final OrderedOcrWriter writer;
+    private final int minCharactersPerPage;
+    private final RequestTimings timings;
+    private final ParseContext ocrContext = new ParseContext();
+    private final List<Future<String>> pages = new ArrayList<>();
+    private final List<Image> heldImages = new ArrayList<>();
+    private final SortedSet<Integer> ocrPages = new TreeSet<>();
+    // 0 until the first page starts, and for documents without pages
+    private int page;
+    private int pageCharacters;
+
+    /**
+     * @param pageExecutor         null to OCR on the parse thread
+     * @param minCharactersPerPage only pages with less text than this are OCRed, -1 to OCR all
+     * @param timings              receives time spent in OCR, may be null
+     */
+    ParallelOcrExtractor(ParseContext context, Parser parser, Detector detector, ExecutorService pageExecutor,
+                         int maxPagesInParallel, OrderedOcrWriter writer, int minCharactersPerPage,
+                         RequestTimings timings) {
+        this.delegate = new ParsingEmbeddedDocumentExtractor(context);
+        this.parser = parser;
+        this.detector = detector;
+        this.pageExecutor = pageExecutor;
+        this.pagesInFlight = new Semaphore(pageExecutor != null ? maxPagesInParallel : 1);
+        this.writer = writer;
+        this.minCharactersPerPage = minCharactersPerPage;
+        this.timings = timings;
+        ocrContext.set(TesseractOCRConfig.class, context.get(TesseractOCRConfig.class));
+    }
+
+    /**
+     * @param handler handler document is parsed to
+     * @return handler tracking pages and their text, to be passed to the parser in place of given one
+     */
+    ContentHandler trackPages(ContentHandler handler) {
+        return new PageTracker(handler);
+    }
+
+    /**
+     * @return pages (1-based) whose images were handed over for OCR
+     */
+    List<Integer> getOcrPages() {
+        return new ArrayList<>(ocrPages);
+    }
+
+    @Override
+    public boolean shouldParseEmbedded(Metadata metadata) {
+        return delegate.shouldParseEmbedded(metadata);
+    }
+
+    @Override
+    public void parseEmbedded(InputStream stream, ContentHandler handler, Metadata metadata, boolean outputHtml)
+            throws SAXException, IOException {
+        InputStream in = stream.markSupported() ? stream : new BufferedInputStream(stream);
+        MediaType type = detector.detect(in, metadata);
+        if (!"image".equals(type.getType())) {
+            delegate.parseEmbedded(in, handler, metadata, outputHtml);
+            return;
+        }
+        Image image = new Image(IOUtils.toByteArray(in), type);
+        if (minCharactersPerPage < 0) {
+            recognize(image);
+        } else {
+            heldImages.add(image);
+        }
+    }
+
+    private void endPage() throws IOException {
+        if (heldImages.isEmpty()) {
+            return;
+        }
+        if (pageCharacters < minCharactersPerPage) {
+            for (Image image : heldImages) {
+                recognize(image);
+            }
+        } else {
+            log.debug("page " + page + " has " + pageCharacters + " characters of text, not OCRed");
+        }
+        heldImages.clear();
+    }
+
+    private void recognize(Image image) throws IOException {
+        if (page > 0) {
+            ocrPages.add(page);
+        }
+        try {
+            pagesInFlight.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while waiting for OCR of previous pages");
+        }
+        Callable<String> task = () -> {
+            long startedAt = System.nanoTime();
+            try {
+                return recognize(image.bytes, image.type);
+            } finally {
+                pagesInFlight.release();
+                if (timings != null) {
+                    timings.addSince(RequestTimings.Stage.OCR, startedAt);
+                }
+            }
+        };
+        Future<String> page = null;
+        if (pageExecutor != null) {
+            try {
+                page = pageExecutor.submit(task);
+            } catch (RejectedExecutionException e) {
+                log.info("page pool is full, OCR of page on parse thread");
+            }
+        }
+        if (page == null) {
+            FutureTask<String> inline = new FutureTask<>(task);
+            inline.run();
+            page = inline;
+        }
+        pages.add(page);
+        writer.addPage(page);
+    }
+
+    private String recognize(byte[] image, MediaType type) throws Exception {
+        Metadata metadata = new Metadata();
+        metadata.set(Metadata.CONTENT_TYPE, type.toString());
+        BodyContentHandler text = new BodyContentHandler(-1);
+        parser.parse(new ByteArrayInputStream(image), text, metadata, ocrContext);
+        return text.toString().trim();
+    }
+
+    /**
+     * Stops pages still queued or being recognized, destroying their Tesseract processes
+     */
+    void cancel() {
+        for (Future<String> page : pages) {
+            page.cancel(true);
+        }
+    }
+
+    private static class Image {
+        final byte[] bytes;
+        final MediaType type;
+
+        Image(byte[] bytes, MediaType type) {
+            this.bytes = bytes;
+            this.type = type;
+        }
+    }
+
+    // pages are <div class="page"> in Tika's xhtml output
+    private class PageTracker extends ContentHandlerDecorator {
+        private int depth;
+        private int pageDepth = -1;
+
+        PageTracker(ContentHandler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String name, Attributes atts) throws SAXException {
+            if ("div".equals(localName)) {
+                depth++;
+                if (pageDepth < 0 && "page".equals(atts.getValue("class"))) {
+                    pageDepth = depth;
+                    page++;
+                    pageCharacters = 0;
+                }
+            }
+            super.startElement(uri, localName, name, atts);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String name) throws SAXException {
+            super.endElement(uri, localName, name);
+            if ("div".equals(localName)) {
+                if (depth == pageDepth) {
+                    pageDepth = -1;
+                    try {
+                        endPage();
+                    } catch (IOException e) {
+                        throw new SAXException(e);
+                    }
+                }
+                depth--;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            for (int i = start; i < start + length; i++) {
+                if (!Character.isWhitespace(ch[i])) {
+                    pageCharacters++;
+                }
+            }
+            super.characters(ch, start, length);
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            // images of documents without pages are judged by the text of the whole document
+            try {
+                endPage();
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+            super.endDocument();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.ParserConfiguration;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.DefaultDetector;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.exception.UnsupportedFormatException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.mime.MimeTypes;
+import org.apache.tika.parser.AbstractParser;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.CompositeParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.ParserDecorator;
+import org.xml.sax.ContentHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Parser documents are parsed with and the types it takes. By default every parser of tika-parsers is loaded
+ * (scientific formats, CAD, ...), costing startup time and metaspace and widening the attack surface; a trimmed
+ * registry only loads configured parser classes, or those of a custom tika-config, and may be limited further to
+ * given MIME types</p>
+ * <p>A trimmed registry rejects documents of any other type with {@link UnsupportedFormatException} as soon as
+ * their type is detected, before parsing; embedded documents of such types are skipped</p>
+ * <p>Documents whose type is already known, see {@link #setKnownType(Metadata, MediaType)}, are not detected again
+ * </p>
+ */
+@Slf4j
+public class ParserRegistry {
+    private static final String KNOWN_TYPE = "X-TikaApi-Known-Type";
+
+    @Getter
+    private final AutoDetectParser parser;
+    @Getter
+    private final MimeTypes mimeTypes;
+    @Getter
+    private final boolean trimmed;
+
+    ParserRegistry(AutoDetectParser parser, MimeTypes mimeTypes, boolean trimmed) {
+        this.parser = parser;
+        this.mimeTypes = mimeTypes;
+        this.trimmed = trimmed;
+        parser.setDetector(new KnownTypeDetector(parser.getDetector()));
+    }
+
+    // Per tika manual,AutoDetectParser is thread safe
+    // Construction of this object is time consuming, so it is built once and shared
+    private static class Full {
+        static final ParserRegistry INSTANCE = build(() -> new ParserRegistry(
+                new AutoDetectParser(TikaConfig.getDefaultConfig()), TikaConfig.getDefaultConfig().getMimeRepository(),
+                false));
+    }
+
+    /**
+     * @return registry of every parser of tika-parsers
+     */
+    public static ParserRegistry full() {
+        return Full.INSTANCE;
+    }
+
+    /**
+     * @param configuration parsers and types to be used
+     * @return shared full registry if nothing is trimmed, a new trimmed one otherwise
+     * @throws IllegalArgumentException if a parser class or the tika config can not be loaded
+     */
+    public static ParserRegistry of(ParserConfiguration configuration) {
+        if (!configuration.isTrimmed()) {
+            return full();
+        }
+        return build(() -> trimmed(configuration));
+    }
+
+    private interface Builder {
+        ParserRegistry build() throws Exception;
+    }
+
+    // logs what building took, to compare trimmed and full registries
+    private static ParserRegistry build(Builder builder) {
+        final long startedAt = System.nanoTime();
+        final long loadedClasses = ManagementFactory.getClassLoadingMXBean().getTotalLoadedClassCount();
+        ParserRegistry registry;
+        try {
+            registry = builder.build();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("could not build parser registry => " + e.getMessage(), e);
+        }
+        log.info((registry.isTrimmed() ? "trimmed" : "full") + " parser registry of " +
+                registry.getSupportedTypes().size() + " types built in " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) + " ms, loading " +
+                (ManagementFactory.getClassLoadingMXBean().getTotalLoadedClassCount() - loadedClasses) + " classes");
+        return registry;
+    }
+
+    private static ParserRegistry trimmed(ParserConfiguration configuration) throws Exception {
+        TikaConfig tikaConfig = configuration.getTikaConfig() != null ?
+                new TikaConfig(Paths.get(configuration.getTikaConfig())) : null;
+        MimeTypes mimeTypes = tikaConfig != null ? tikaConfig.getMimeRepository() : MimeTypes.getDefaultMimeTypes();
+        MediaTypeRegistry mediaTypeRegistry = mimeTypes.getMediaTypeRegistry();
+        // detectors are few and cheap, types must be told apart even if they are rejected
+        Detector detector = tikaConfig != null ? tikaConfig.getDetector() : new DefaultDetector(mimeTypes);
+        List<Parser> parsers = new ArrayList<>();
+        if (!configuration.getParserClasses().isEmpty()) {
+            for (String parserClass : configuration.getParserClasses()) {
+                parsers.add(newParser(parserClass));
+            }
+        } else if (tikaConfig != null) {
+            parsers.add(tikaConfig.getParser());
+        } else {
+            parsers.add(TikaConfig.getDefaultConfig().getParser());
+        }
+        CompositeParser composite = new CompositeParser(mediaTypeRegistry, parsers);
+        composite.setFallback(new UnsupportedTypeParser());
+        Parser enabled = composite;
+        if (!configuration.getEnabledTypes().isEmpty()) {
+            Set<MediaType> enabledTypes = new TreeSet<>();
+            for (String enabledType : configuration.getEnabledTypes()) {
+                MediaType mediaType = MediaType.parse(enabledType);
+                if (mediaType == null) {
+                    throw new IllegalArgumentException("invalid MIME type " + enabledType);
+                }
+                enabledTypes.add(mediaType);
+            }
+            enabled = ParserDecorator.withTypes(composite, enabledTypes);
+        }
+        AutoDetectParser autoDetectParser = new AutoDetectParser(detector, enabled);
+        autoDetectParser.setMediaTypeRegistry(mediaTypeRegistry);
+        autoDetectParser.setFallback(new UnsupportedTypeParser());
+        return new ParserRegistry(autoDetectParser, mimeTypes, true);
+    }
+
+    private static Parser newParser(String parserClass) throws Exception {
+        Class<?> type = Class.forName(parserClass);
+        if (!Parser.class.isAssignableFrom(type)) {
+            throw new IllegalArgumentException(parserClass + " is not a parser");
+        }
+        return (Parser) type.getConstructor().newInstance();
+    }
+
+    /**
+     * @return types documents may be of, sorted
+     */
+    public SortedSet<MediaType> getSupportedTypes() {
+        return Collections.unmodifiableSortedSet(new TreeSet<>(parser.getSupportedTypes(new ParseContext())));
+    }
+
+    /**
+     * <p>Type of the document to be parsed, when known beforehand (e.g. sniffed while downloading); parser goes
+     * straight to the parser of that type instead of detecting it again</p>
+     *
+     * @param metadata metadata passed to {@link #getParser()}
+     * @param type     type the document is known to be of
+     */
+    public static void setKnownType(Metadata metadata, MediaType type) {
+        metadata.set(KNOWN_TYPE, type.toString());
+    }
+
+    /**
+     * @param metadata metadata after parse, known type is not reported with the rest
+     */
+    public static void clearKnownType(Metadata metadata) {
+        metadata.remove(KNOWN_TYPE);
+    }
+
+    /**
+     * Takes type from metadata if known, detects it otherwise
+     */
+    private static class KnownTypeDetector implements Detector {
+        private final Detector detector;
+
+        KnownTypeDetector(Detector detector) {
+            this.detector = detector;
+        }
+
+        @Override
+        public MediaType detect(InputStream input, Metadata metadata) throws IOException {
+            MediaType knownType = MediaType.parse(metadata.get(KNOWN_TYPE));
+            return knownType != null ? knownType : detector.detect(input, metadata);
+        }
+    }
+
+    /**
+     * Fallback of a trimmed registry, for types none of its parsers takes
+     */
+    private static class UnsupportedTypeParser extends AbstractParser {
+        @Override
+        public Set<MediaType> getSupportedTypes(ParseContext context) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void parse(InputStream stream, ContentHandler handler, Metadata metadata, ParseContext context)
+                throws IOException, TikaException {
+            throw new UnsupportedFormatException("no parser enabled for " + metadata.get(Metadata.CONTENT_TYPE));
+        }
+    }
+}
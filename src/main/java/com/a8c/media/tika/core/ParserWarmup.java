@@ -0,0 +1,175 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.WarmupConfiguration;
+import com.a8c.media.tika.api.OcrStrategy;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.lifecycle.Managed;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.io.IOUtils;
+import org.apache.tika.io.TikaInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Parses each document of the sample corpus (under /warmup on the classpath) a few times at startup, and
+ * optionally OCRs a sample image per language, so the first requests after a deploy do not pay for loading POI,
+ * PDFBox etc., for JIT compilation and for Tesseract models</p>
+ * <p>Runs on its own thread once started, server accepts requests meanwhile and health check reports warming so
+ * load balancers hold traffic off until it is done</p>
+ */
+@Slf4j
+public class ParserWarmup implements Managed {
+    static final List<String> SAMPLES = Collections.unmodifiableList(Arrays.asList("html", "txt", "xml", "csv", "rtf",
+            "eml", "pdf", "docx", "xlsx", "pptx", "xls", "ppt", "zip", "png", "jpg"));
+    private static final String OCR_SAMPLE = "png";
+
+    public enum State {
+        PENDING, WARMING, DONE
+    }
+
+    private final TikaMediaProcessor mediaProcessor;
+    private final int iterations;
+    private final List<String> ocrLanguages;
+    // by format, in warm-up order; written by the warm-up thread only
+    private final Map<String, Latency> latencies = Collections.synchronizedMap(new LinkedHashMap<>());
+    @Getter
+    private volatile State state = State.PENDING;
+    @Getter
+    private volatile long durationInMillis = -1;
+
+    public ParserWarmup(TikaMediaProcessor mediaProcessor, WarmupConfiguration configuration) {
+        this.mediaProcessor = mediaProcessor;
+        this.iterations = configuration.getIterations();
+        this.ocrLanguages = configuration.getOcrLanguages();
+    }
+
+    @Override
+    public void start() {
+        Thread thread = new Thread(this::run, "tikaapi-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    /**
+     * <p>Warms up every sample in turn on the calling thread, a sample which fails is logged and skipped</p>
+     */
+    public void run() {
+        state = State.WARMING;
+        final long startedAt = System.nanoTime();
+        try {
+            for (String sample : SAMPLES) {
+                warm(sample, sample, OcrStrategy.NEVER, null);
+            }
+            for (String language : ocrLanguages) {
+                warm("ocr-" + language, OCR_SAMPLE, OcrStrategy.ALWAYS, Collections.singletonList(language));
+            }
+        } finally {
+            // a server which could not warm up still serves, just slower at first
+            durationInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+            state = State.DONE;
+        }
+        log.info("warm-up done in " + durationInMillis + " ms");
+        synchronized (latencies) {
+            latencies.forEach((format, latency) -> log.info("warm-up " + format + " => cold " +
+                    latency.getColdMillis() + " ms, warm " + latency.getWarmMillis() + " ms"));
+        }
+    }
+
+    private void warm(String format, String sample, OcrStrategy ocrStrategy, List<String> langs) {
+        try {
+            byte[] bytes = load(sample);
+            long coldNanos = parse(bytes, ocrStrategy, langs);
+            List<Long> warmNanos = new ArrayList<>();
+            for (int i = 1; i < iterations; i++) {
+                warmNanos.add(parse(bytes, ocrStrategy, langs));
+            }
+            Collections.sort(warmNanos);
+            // median of the runs after the first, a single run is noisy
+            long warm = warmNanos.isEmpty() ? coldNanos : warmNanos.get(warmNanos.size() / 2);
+            latencies.put(format, new Latency(TimeUnit.NANOSECONDS.toMillis(coldNanos),
+                    TimeUnit.NANOSECONDS.toMillis(warm)));
+        } catch (Exception e) {
+            log.warn("warm-up of " + format + " failed => " + e.toString());
+        }
+    }
+
+    private long parse(byte[] bytes, OcrStrategy ocrStrategy, List<String> langs) throws Exception {
+        final long startedAt = System.nanoTime();
+        mediaProcessor.processMedia(TikaInputStream.get(bytes),
+                new ProcessingOptions.Builder().withOcrStrategy(ocrStrategy).withOcrLangs(langs).build());
+        return System.nanoTime() - startedAt;
+    }
+
+    private static byte[] load(String sample) throws IOException {
+        try (InputStream inputStream = ParserWarmup.class.getResourceAsStream("/warmup/sample." + sample)) {
+            if (inputStream == null) {
+                throw new IOException("missing warm-up sample " + sample);
+            }
+            return IOUtils.toByteArray(inputStream);
+        }
+    }
+
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    /**
+     * @return latency of each warmed up format, by format
+     */
+    public Map<String, Latency> getLatencies() {
+        synchronized (latencies) {
+            return new LinkedHashMap<>(latencies);
+        }
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(ParserWarmup.class, "duration"),
+                (Gauge<Long>) this::getDurationInMillis);
+        List<String> formats = new ArrayList<>(SAMPLES);
+        for (String language : ocrLanguages) {
+            formats.add("ocr-" + language);
+        }
+        for (String format : formats) {
+            metricRegistry.register(MetricRegistry.name(ParserWarmup.class, format, "cold"), (Gauge<Long>) () -> {
+                Latency latency = latencies.get(format);
+                return latency == null ? -1 : latency.getColdMillis();
+            });
+            metricRegistry.register(MetricRegistry.name(ParserWarmup.class, format, "warm"), (Gauge<Long>) () -> {
+                Latency latency = latencies.get(format);
+                return latency == null ? -1 : latency.getWarmMillis();
+            });
+        }
+    }
+
+    /**
+     * Parse time of one format, in ms, on first use and once warmed up
+     */
+    public static class Latency {
+        @Getter
+        @JsonProperty
+        private final long coldMillis;
+        @Getter
+        @JsonProperty
+        private final long warmMillis;
+
+        Latency(long coldMillis, long warmMillis) {
+            this.coldMillis = coldMillis;
+            this.warmMillis = warmMillis;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.a8c.media.tika.core;
+
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Per stage timers of the request pipeline (see {@link RequestTimings.Stage}) and size metrics, so a latency
+ * regression can be traced to a stage and a document type</p>
+ * <p>Metrics are named &lt;stage&gt;.&lt;detected type&gt;.&lt;ocr|no-ocr&gt; under this class, e.g.
+ * com.a8c.media.tika.core.PipelineMetrics.parse.application_pdf.ocr; '.' and '/' of the type are replaced with '_'
+ * so they do not add levels to the dotted name (application/vnd.ms-excel becomes application_vnd_ms-excel). Types
+ * are those Tika detects, so the set of names stays bounded. Sizes are meters (count is the total, rates are bytes
+ * per second) and histograms (size per request)</p>
+ */
+public class PipelineMetrics {
+    static final String UNKNOWN_TYPE = "unknown";
+
+    private final MetricRegistry metricRegistry;
+
+    public PipelineMetrics(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    /**
+     * <p>Records stages request went through, and its sizes</p>
+     *
+     * @param timings timings of a finished (or failed) request
+     */
+    public void record(RequestTimings timings) {
+        String mimeType = timings.getMimeType();
+        boolean ocr = timings.isOcr();
+        for (RequestTimings.Stage stage : RequestTimings.Stage.values()) {
+            long nanos = timings.getNanos(stage);
+            if (nanos >= 0) {
+                record(stage, mimeType, ocr, nanos);
+            }
+        }
+        long downloadedBytes = timings.getDownloadedBytes();
+        if (downloadedBytes >= 0) {
+            metricRegistry.meter(name("downloaded-bytes", mimeType, ocr)).mark(downloadedBytes);
+            metricRegistry.histogram(name("downloaded-size", mimeType, ocr)).update(downloadedBytes);
+            long parseNanos = timings.getNanos(RequestTimings.Stage.PARSE);
+            if (parseNanos > 0) {
+                metricRegistry.histogram(name("parsed-bytes-per-second", mimeType, ocr))
+                        .update(downloadedBytes * TimeUnit.SECONDS.toNanos(1) / parseNanos);
+            }
+        }
+        long extractedCharacters = timings.getExtractedCharacters();
+        if (extractedCharacters >= 0) {
+            metricRegistry.meter(name("extracted-characters", mimeType, ocr)).mark(extractedCharacters);
+            metricRegistry.histogram(name("extracted-size", mimeType, ocr)).update(extractedCharacters);
+        }
+    }
+
+    /**
+     * @param stage    stage
+     * @param mimeType detected type, null if unknown
+     * @param ocr      whether OCR was requested
+     * @param nanos    time stage took
+     */
+    public void record(RequestTimings.Stage stage, String mimeType, boolean ocr, long nanos) {
+        metricRegistry.timer(name(stage.getMetricName(), mimeType, ocr)).update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    static String name(String metric, String mimeType, boolean ocr) {
+        return MetricRegistry.name(PipelineMetrics.class, metric,
+                mimeType == null ? UNKNOWN_TYPE : mimeType.replace('.', '_').replace('/', '_'),
+                ocr ? "ocr" : "no-ocr");
+    }
+}
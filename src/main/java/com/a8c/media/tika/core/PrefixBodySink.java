@@ -0,0 +1,49 @@
+package com.a8c.media.tika.core;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * <p>Keeps only the first bytes of a body and asks for download to be aborted once it has enough, used for MIME
+ * detection which only needs the magic bytes</p>
+ */
+public class PrefixBodySink implements BodySink {
+    private final int prefixSizeInBytes;
+    private final ByteArrayOutputStream prefix;
+    private boolean truncated;
+
+    public PrefixBodySink(int prefixSizeInBytes) {
+        this.prefixSizeInBytes = prefixSizeInBytes;
+        this.prefix = new ByteArrayOutputStream(Math.min(prefixSizeInBytes, 8192));
+    }
+
+    @Override
+    public synchronized boolean offer(byte[] bytes, boolean last) {
+        int remaining = prefixSizeInBytes - prefix.size();
+        if (bytes.length >= remaining && !(bytes.length == remaining && last)) {
+            prefix.write(bytes, 0, remaining);
+            truncated = true;
+            return false;
+        }
+        prefix.write(bytes, 0, bytes.length);
+        return true;
+    }
+
+    @Override
+    public void complete() {
+    }
+
+    @Override
+    public void fail(Throwable throwable) {
+    }
+
+    public synchronized byte[] getPrefix() {
+        return prefix.toByteArray();
+    }
+
+    /**
+     * @return true if body was longer than the prefix, i.e. only part of it was received
+     */
+    public synchronized boolean isTruncated() {
+        return truncated;
+    }
+}
@@ -0,0 +1,84 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.api.MediaProcessingRequest;
+import com.a8c.media.tika.api.OcrStrategy;
+import lombok.Getter;
+import org.apache.tika.mime.MediaType;
+
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * <p>How {@link TikaMediaProcessor#processMedia(java.io.InputStream, ProcessingOptions)} extracts text; defaults
+ * are no OCR, no character limit, type detected from content and text returned in the response</p>
+ */
+@Getter
+public class ProcessingOptions {
+    private OcrStrategy ocrStrategy;
+    private List<String> ocrLangs;
+    private int maxContentCharacters;
+    private MediaType knownType;
+    private Writer contentText;
+
+    private ProcessingOptions(Builder builder) {
+        this.ocrStrategy = builder.ocrStrategy;
+        this.ocrLangs = builder.ocrLangs;
+        this.maxContentCharacters = builder.maxContentCharacters;
+        this.knownType = builder.knownType;
+        this.contentText = builder.contentText;
+    }
+
+    /**
+     * @param request request to take OCR strategy, OCR languages and character limit from
+     * @return builder with options of given request
+     */
+    public static Builder forRequest(MediaProcessingRequest request) {
+        return new Builder()
+                .withOcrStrategy(request.getEffectiveOcrStrategy())
+                .withOcrLangs(request.getOcrLangs())
+                .withMaxContentCharacters(request.getMaxContentCharacters());
+    }
+
+    public static class Builder {
+        private OcrStrategy ocrStrategy = OcrStrategy.NEVER;
+        private List<String> ocrLangs;
+        private int maxContentCharacters = -1;
+        private MediaType knownType;
+        private Writer contentText;
+
+        public Builder withOcrStrategy(OcrStrategy ocrStrategy) {
+            this.ocrStrategy = ocrStrategy;
+            return this;
+        }
+
+        // language models to be used for OCR, null for eng
+        public Builder withOcrLangs(List<String> ocrLangs) {
+            this.ocrLangs = ocrLangs;
+            return this;
+        }
+
+        // text is cut (and response flagged truncated) after this many characters, -1 for no limit
+        public Builder withMaxContentCharacters(int maxContentCharacters) {
+            this.maxContentCharacters = maxContentCharacters;
+            return this;
+        }
+
+        // type of the content if already known (e.g. sniffed while downloading), parser of that type is used
+        // without detecting it again; null to detect
+        public Builder withKnownType(MediaType knownType) {
+            this.knownType = knownType;
+            return this;
+        }
+
+        // receives text as the parser produces it, so it is never held in memory as a whole; null to return it
+        // in the response
+        public Builder withContentText(Writer contentText) {
+            this.contentText = contentText;
+            return this;
+        }
+
+        public ProcessingOptions build() {
+            return new ProcessingOptions(this);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.api.Timings;
+import org.apache.tika.mime.MediaType;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Time spent by one request in each stage of the pipeline, with the downloaded / extracted sizes and the
+ * detected type; stages are filled in from the http client event loop, the parse thread and OCR page threads</p>
+ * <p>While the parse runs it is available to the parser through {@link #current()}</p>
+ */
+public class RequestTimings {
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    public enum Stage {
+        // waiting for a download slot
+        DOWNLOAD_QUEUE("download-queue"),
+        // tcp (and tls) connect to origin, not there for pooled connections
+        CONNECT("connect"),
+        // request sent until origin status received
+        FIRST_BYTE("first-byte"),
+        // request sent until body fully received (overlaps parse when streaming)
+        DOWNLOAD("download"),
+        // waiting for a parse thread once body (or its first bytes) is there
+        PARSE_QUEUE("parse-queue"),
+        // whole parse, OCR included
+        PARSE("parse"),
+        // Tesseract time summed over pages, pages may run in parallel with each other and the parse
+        OCR("ocr"),
+        DETECT("detect"),
+        // writing json response
+        SERIALIZE("serialize");
+
+        private final String metricName;
+
+        Stage(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+    private volatile String mimeType;
+    private volatile boolean ocr;
+    private volatile long downloadedBytes = -1;
+    private volatile long extractedCharacters = -1;
+    private volatile String parser;
+    private volatile boolean shared;
+
+    public RequestTimings() {
+        for (int i = 0; i < stageNanos.length(); i++) {
+            stageNanos.set(i, -1);
+        }
+    }
+
+    /**
+     * @return timings of the request whose parse runs on this thread, null if none
+     */
+    public static RequestTimings current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param stage stage, time is added to what it already took
+     * @param nanos time it took
+     */
+    public void add(Stage stage, long nanos) {
+        stageNanos.accumulateAndGet(stage.ordinal(), nanos, (current, added) -> Math.max(0, current) + added);
+    }
+
+    /**
+     * @param stage    stage
+     * @param startedAt {@link System#nanoTime()} stage started at, ends now
+     */
+    public void addSince(Stage stage, long startedAt) {
+        add(stage, System.nanoTime() - startedAt);
+    }
+
+    /**
+     * @return time stage took, -1 if request did not go through it
+     */
+    public long getNanos(Stage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    public long getMillis(Stage stage) {
+        long nanos = getNanos(stage);
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * <p>Runs parse on current thread as the {@link Stage#PARSE} stage, these timings being current meanwhile</p>
+     *
+     * @param parse parse to run
+     * @param <T>   parse result
+     * @return parse result
+     * @throws Exception thrown by parse
+     */
+    public <T> T runParse(Callable<T> parse) throws Exception {
+        long startedAt = System.nanoTime();
+        CURRENT.set(this);
+        try {
+            return parse.call();
+        } finally {
+            CURRENT.remove();
+            addSince(Stage.PARSE, startedAt);
+        }
+    }
+
+    /**
+     * @return base type detected for the document, null if not known (yet)
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * @param mimeType detected type, parameters (charset etc.) are dropped
+     */
+    public void setMimeType(String mimeType) {
+        this.mimeType = baseType(mimeType);
+    }
+
+    /**
+     * @param mimeType type, possibly with parameters, may be null
+     * @return type without parameters
+     */
+    public static String baseType(String mimeType) {
+        MediaType mediaType = mimeType == null ? null : MediaType.parse(mimeType);
+        return mediaType == null ? mimeType : mediaType.getBaseType().toString();
+    }
+
+    public boolean isOcr() {
+        return ocr;
+    }
+
+    public void setOcr(boolean ocr) {
+        this.ocr = ocr;
+    }
+
+    /**
+     * @return body bytes received from origin, -1 if nothing was downloaded
+     */
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    public void setDownloadedBytes(long downloadedBytes) {
+        this.downloadedBytes = downloadedBytes;
+    }
+
+    /**
+     * @return characters of text extracted, -1 if nothing was parsed
+     */
+    public long getExtractedCharacters() {
+        return extractedCharacters;
+    }
+
+    public void setExtractedCharacters(long extractedCharacters) {
+        this.extractedCharacters = extractedCharacters;
+    }
+
+    /**
+     * @return class name of parser that handled the document, null if not parsed
+     */
+    public String getParser() {
+        return parser;
+    }
+
+    public void setParser(String parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * @return true if the request got the result of a fetch started for another request, stages are those of that
+     * fetch
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    public void setShared(boolean shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * <p>Takes stages, sizes, type and parser of a fetch started for another request, and flags these timings
+     * shared; serialization is not copied, each request writes its own response</p>
+     *
+     * @param fetch timings of the request the fetch ran for
+     */
+    public void copySharedFetch(RequestTimings fetch) {
+        for (Stage stage : Stage.values()) {
+            if (stage != Stage.SERIALIZE) {
+                stageNanos.set(stage.ordinal(), fetch.getNanos(stage));
+            }
+        }
+        mimeType = fetch.mimeType;
+        ocr = fetch.ocr;
+        downloadedBytes = fetch.downloadedBytes;
+        extractedCharacters = fetch.extractedCharacters;
+        parser = fetch.parser;
+        shared = true;
+    }
+
+    /**
+     * @param totalNanos time request took overall, -1 if not known
+     * @return breakdown as returned to clients
+     */
+    public Timings toTimings(long totalNanos) {
+        Timings timings = new Timings();
+        timings.setDownloadQueueMillis(millis(Stage.DOWNLOAD_QUEUE));
+        timings.setConnectMillis(millis(Stage.CONNECT));
+        timings.setFirstByteMillis(millis(Stage.FIRST_BYTE));
+        timings.setDownloadMillis(millis(Stage.DOWNLOAD));
+        timings.setParseQueueMillis(millis(Stage.PARSE_QUEUE));
+        timings.setDetectMillis(millis(Stage.DETECT));
+        timings.setParseMillis(millis(Stage.PARSE));
+        timings.setOcrMillis(millis(Stage.OCR));
+        timings.setSerializeMillis(millis(Stage.SERIALIZE));
+        timings.setTotalMillis(totalNanos < 0 ? null : TimeUnit.NANOSECONDS.toMillis(totalNanos));
+        timings.setDownloadedBytes(downloadedBytes < 0 ? null : downloadedBytes);
+        timings.setExtractedCharacters(extractedCharacters < 0 ? null : extractedCharacters);
+        timings.setMimeType(mimeType);
+        timings.setParser(parser);
+        timings.setShared(shared ? Boolean.TRUE : null);
+        return timings;
+    }
+
+    private Long millis(Stage stage) {
+        long millis = getMillis(stage);
+        return millis < 0 ? null : millis;
+    }
+
+    /**
+     * Result of a fetch along with the timings of the request it ran for, so requests sharing it can report its stages
+     *
+     * @param <T> fetch result
+     */
+    public static class Timed<T> {
+        private final T result;
+        private final RequestTimings timings;
+
+        public Timed(T result, RequestTimings timings) {
+            this.result = result;
+            this.timings = timings;
+        }
+
+        public T getResult() {
+            return result;
+        }
+
+        public RequestTimings getTimings() {
+            return timings;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.a8c.media.tika.core;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>Coalesces concurrent calls for the same key into one, callers arriving while a call is in flight share its
+ * result instead of starting their own</p>
+ *
+ * @param <K> key identifying equivalent calls
+ * @param <V> call result
+ */
+public class SingleFlight<K, V> {
+    private final String name;
+    private final Map<K, Flight> inFlight = new ConcurrentHashMap<>();
+    private final Meter calls = new Meter();
+    private final Meter coalesced = new Meter();
+    private final Meter abandoned = new Meter();
+
+    /**
+     * @param name used in metric names
+     */
+    public SingleFlight(String name) {
+        this.name = name;
+    }
+
+    /**
+     * <p>Starts call unless an equivalent one is in flight</p>
+     * <p>Once every caller of a call cancelled its future the call itself is cancelled</p>
+     *
+     * @param key  identifies the call
+     * @param call starts the call, only invoked by the first caller
+     * @return future of call result, each caller gets its own future so completing or cancelling it does not
+     * affect others
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        while (true) {
+            Flight flight = new Flight();
+            Flight existing = inFlight.putIfAbsent(key, flight);
+            if (existing != null) {
+                CompletableFuture<V> waiter = existing.join(key);
+                if (waiter == null) {
+                    // call was just abandoned, start over
+                    continue;
+                }
+                coalesced.mark();
+                return waiter;
+            }
+            calls.mark();
+            CompletableFuture<V> waiter = flight.join(key);
+            try {
+                flight.start(key, call.get());
+            } catch (Throwable throwable) {
+                inFlight.remove(key, flight);
+                flight.shared.completeExceptionally(throwable);
+            }
+            return waiter;
+        }
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(SingleFlight.class, name, "calls"), calls);
+        metricRegistry.register(MetricRegistry.name(SingleFlight.class, name, "coalesced"), coalesced);
+        metricRegistry.register(MetricRegistry.name(SingleFlight.class, name, "abandoned"), abandoned);
+        metricRegistry.register(MetricRegistry.name(SingleFlight.class, name, "in-flight"),
+                (Gauge<Integer>) this::getInFlight);
+    }
+
+    private class Flight {
+        private final CompletableFuture<V> shared = new CompletableFuture<>();
+        private CompletableFuture<V> running;
+        private int waiters;
+        private boolean isAbandoned;
+
+        private void start(K key, CompletableFuture<V> call) {
+            synchronized (this) {
+                running = call;
+                if (isAbandoned) {
+                    call.cancel(true);
+                }
+            }
+            call.whenComplete((value, throwable) -> {
+                inFlight.remove(key, this);
+                if (throwable != null) {
+                    shared.completeExceptionally(throwable);
+                } else {
+                    shared.complete(value);
+                }
+            });
+        }
+
+        /**
+         * @return future for one more caller, null if the flight was abandoned already
+         */
+        private CompletableFuture<V> join(K key) {
+            synchronized (this) {
+                if (isAbandoned) {
+                    return null;
+                }
+                waiters++;
+            }
+            CompletableFuture<V> waiter = shared.thenApply(Function.identity());
+            waiter.whenComplete((value, throwable) -> {
+                if (waiter.isCancelled()) {
+                    leave(key);
+                }
+            });
+            return waiter;
+        }
+
+        private void leave(K key) {
+            CompletableFuture<V> toCancel;
+            synchronized (this) {
+                if (--waiters > 0 || shared.isDone()) {
+                    return;
+                }
+                isAbandoned = true;
+                toCancel = running;
+            }
+            abandoned.mark();
+            inFlight.remove(key, this);
+            if (toCancel != null) {
+                toCancel.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.SpoolConfiguration;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Owns the temp directory large downloads are spilled to, and the disk quota shared by all of them</p>
+ */
+@Slf4j
+public class SpoolDirectory implements Managed {
+    static final String PREFIX = "tikaapi-";
+    static final String SUFFIX = ".spool";
+
+    @Getter
+    private final Path directory;
+    @Getter
+    private final int memoryThresholdInBytes;
+    @Getter
+    private final long quotaInBytes;
+    private final AtomicLong usedBytes = new AtomicLong();
+    // null to write spool files on the http client event loop
+    private final Executor writeExecutor;
+
+    public SpoolDirectory(SpoolConfiguration configuration) {
+        this(configuration, null);
+    }
+
+    /**
+     * @param configuration spool directory, memory threshold and quota
+     * @param writeExecutor spilled bodies are written on it, off the http client event loop
+     */
+    public SpoolDirectory(SpoolConfiguration configuration, Executor writeExecutor) {
+        this.writeExecutor = writeExecutor;
+        this.directory = Paths.get(configuration.getDirectory());
+        this.memoryThresholdInBytes = configuration.getMemoryThresholdInBytes();
+        this.quotaInBytes = configuration.getQuotaInBytes();
+    }
+
+    /**
+     * @return new buffer, memory backed until it grows over threshold
+     */
+    public SpoolingBodyBuffer newBuffer() {
+        return new SpoolingBodyBuffer(this, writeExecutor);
+    }
+
+    Path createFile() throws IOException {
+        Files.createDirectories(directory);
+        return Files.createTempFile(directory, PREFIX, SUFFIX);
+    }
+
+    boolean tryReserve(long bytes) {
+        while (true) {
+            long used = usedBytes.get();
+            if (used + bytes > quotaInBytes) {
+                return false;
+            }
+            if (usedBytes.compareAndSet(used, used + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    void release(long bytes) {
+        usedBytes.addAndGet(-bytes);
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(SpoolDirectory.class, "used-bytes"),
+                (Gauge<Long>) this::getUsedBytes);
+    }
+
+    /**
+     * Removes files left over by a previous run
+     */
+    @Override
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stale) {
+                log.info("deleting stale spool file " + path);
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+    }
+}
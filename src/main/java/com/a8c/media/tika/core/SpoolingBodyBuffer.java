@@ -0,0 +1,277 @@
+package com.a8c.media.tika.core;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.io.TikaInputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>Download buffer which keeps small bodies in memory and spills to a temp file once the body grows over the
+ * configured threshold, so heap usage does not grow with file size</p>
+ * <p>Body parts are offered on the http client event loop, so once spilled they are handed to a writer executor and
+ * written there, one buffer's writes in order; reading from the origin is paused while too many bytes wait to be
+ * written. Quota is still reserved as parts are offered, so a download over quota fails right away</p>
+ * <p>Spilled bodies are handed to the parser as file backed {@link TikaInputStream}, which lets parsers needing
+ * random access (pdf, zip based formats) work on the file directly instead of copying it</p>
+ */
+@Slf4j
+public class SpoolingBodyBuffer implements BodySink, Closeable {
+    static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    // bytes waiting for the writer before reading from origin is paused, resumed once half of them are written
+    static final long MAX_PENDING_WRITE_BYTES = 1024 * 1024;
+
+    private final SpoolDirectory spoolDirectory;
+    // null to write on the thread offering body parts
+    private final Executor writeExecutor;
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private boolean spilled;
+    private long size;
+    private long reserved;
+    private long pendingWriteBytes;
+    private boolean paused;
+    private boolean completed;
+    private boolean closed;
+    private Throwable failure;
+    // tail of the writes queued so far
+    private CompletableFuture<Void> writes = CompletableFuture.completedFuture(null);
+    private volatile FlowControl flowControl;
+    // only used by writes, which run one at a time
+    private Path file;
+    private OutputStream fileOutput;
+    private volatile IOException writeFailure;
+
+    SpoolingBodyBuffer(SpoolDirectory spoolDirectory) {
+        this(spoolDirectory, null);
+    }
+
+    SpoolingBodyBuffer(SpoolDirectory spoolDirectory, Executor writeExecutor) {
+        this.spoolDirectory = spoolDirectory;
+        this.writeExecutor = writeExecutor;
+    }
+
+    @Override
+    public void setFlowControl(FlowControl flowControl) {
+        this.flowControl = flowControl;
+    }
+
+    @Override
+    public boolean offer(byte[] bytes, boolean last) throws IOException {
+        boolean pause = false;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (writeFailure != null) {
+                throw new IOException("could not write spool file " + file, writeFailure);
+            }
+            if (!spilled && size + bytes.length > spoolDirectory.getMemoryThresholdInBytes()) {
+                spill();
+            }
+            if (spilled) {
+                reserve(bytes.length);
+                pendingWriteBytes += bytes.length;
+                enqueue(() -> {
+                    try {
+                        if (fileOutput != null) {
+                            fileOutput.write(bytes);
+                        }
+                    } finally {
+                        // resumes a paused download after a failed write too, its next part fails it
+                        written(bytes.length);
+                    }
+                });
+                if (!last && !paused && pendingWriteBytes >= MAX_PENDING_WRITE_BYTES && flowControl != null) {
+                    paused = true;
+                    pause = true;
+                }
+            } else {
+                memory.write(bytes);
+            }
+            size += bytes.length;
+        }
+        if (pause) {
+            flowControl.pause();
+        }
+        return true;
+    }
+
+    private void reserve(long bytes) throws IOException {
+        if (!spoolDirectory.tryReserve(bytes)) {
+            throw new SpoolQuotaExceededException(
+                    "spool quota of " + spoolDirectory.getQuotaInBytes() + " bytes exhausted");
+        }
+        reserved += bytes;
+    }
+
+    private void spill() throws IOException {
+        reserve(size);
+        spilled = true;
+        final ByteArrayOutputStream inMemory = memory;
+        memory = null;
+        enqueue(() -> {
+            file = spoolDirectory.createFile();
+            log.debug("spilling download of " + inMemory.size() + " bytes to " + file);
+            fileOutput = new BufferedOutputStream(Files.newOutputStream(file), WRITE_BUFFER_SIZE);
+            inMemory.writeTo(fileOutput);
+        });
+    }
+
+    private void written(long bytes) {
+        boolean resume = false;
+        synchronized (this) {
+            pendingWriteBytes -= bytes;
+            if (paused && pendingWriteBytes <= MAX_PENDING_WRITE_BYTES / 2) {
+                paused = false;
+                resume = true;
+            }
+        }
+        if (resume) {
+            flowControl.resume();
+        }
+    }
+
+    // runs write after the ones already queued; a failed write closes the file, later writes are skipped
+    private void enqueue(SpoolWrite write) {
+        if (writeExecutor == null) {
+            run(write);
+        } else {
+            writes = writes.thenRunAsync(() -> run(write), writeExecutor);
+        }
+    }
+
+    private void run(SpoolWrite write) {
+        try {
+            write.run();
+        } catch (IOException e) {
+            log.warn("failed to write spool file " + file + " => " + e.getMessage());
+            if (writeFailure == null) {
+                writeFailure = e;
+            }
+            closeFileOutput();
+        }
+    }
+
+    @Override
+    public synchronized void complete() {
+        completed = true;
+        if (spilled) {
+            enqueue(this::closeFileOutput);
+        }
+    }
+
+    @Override
+    public synchronized void fail(Throwable throwable) {
+        completed = true;
+        failure = throwable;
+        if (spilled) {
+            enqueue(this::closeFileOutput);
+        }
+    }
+
+    private void closeFileOutput() {
+        if (fileOutput != null) {
+            try {
+                fileOutput.close();
+            } catch (IOException e) {
+                log.warn("failed to close spool file " + file, e);
+                if (writeFailure == null) {
+                    writeFailure = e;
+                }
+            }
+            fileOutput = null;
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized boolean isSpilled() {
+        return spilled;
+    }
+
+    /**
+     * <p>Opens completed body for reading, stream stays valid until buffer is closed; waits for a spilled body to
+     * be written out</p>
+     *
+     * @return file backed TikaInputStream if spilled, memory backed otherwise
+     * @throws IOException if download did not complete successfully or spool file could not be written
+     */
+    public InputStream openStream() throws IOException {
+        final CompletableFuture<Void> written;
+        synchronized (this) {
+            if (closed || !completed || failure != null) {
+                throw new IOException("download incomplete", failure);
+            }
+            if (!spilled) {
+                return TikaInputStream.get(memory.toByteArray());
+            }
+            written = writes;
+        }
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for spool file to be written");
+        } catch (ExecutionException e) {
+            throw new IOException("could not write spool file", e.getCause());
+        }
+        if (writeFailure != null) {
+            throw new IOException("could not write spool file " + file, writeFailure);
+        }
+        return TikaInputStream.get(file);
+    }
+
+    /**
+     * Deletes spool file and returns its space to the quota, once queued writes are done
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        memory = null;
+        final long release = reserved;
+        reserved = 0;
+        if (!spilled) {
+            spoolDirectory.release(release);
+            return;
+        }
+        enqueue(() -> {
+            closeFileOutput();
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.warn("failed to delete spool file " + file, e);
+                }
+            }
+            spoolDirectory.release(release);
+        });
+    }
+
+    private interface SpoolWrite {
+        void run() throws IOException;
+    }
+
+    /**
+     * Raised when there is not enough spool space left to hold a download
+     */
+    public static class SpoolQuotaExceededException extends IOException {
+        SpoolQuotaExceededException(String message) {
+            super(message);
+        }
+    }
+}
@@ -1,29 +1,45 @@
 package com.a8c.media.tika.core;
 
 import com.a8c.media.tika.api.MediaProcessingResponse;
+import com.a8c.media.tika.api.OcrStrategy;
 import com.google.common.collect.Lists;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.tika.Tika;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.Detector;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.exception.UnsupportedFormatException;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.fork.ForkParser;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
 import org.apache.tika.parser.AbstractParser;
 import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
 import org.apache.tika.parser.ocr.TesseractOCRConfig;
 import org.apache.tika.parser.pdf.PDFParserConfig;
 import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 
 import java.io.BufferedInputStream;
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -31,6 +47,13 @@ import java.util.concurrent.ExecutorService;
  */
 @Slf4j
 public class TikaMediaProcessor {
+    // container / generic types, detection from a prefix can be refined by looking at the whole resource
+    private static final Set<MediaType> INCONCLUSIVE_TYPES = new HashSet<>(Lists.newArrayList(
+            MediaType.OCTET_STREAM, MediaType.TEXT_PLAIN, MediaType.application("zip"),
+            MediaType.application("x-tika-ooxml"), MediaType.application("x-tika-msoffice"),
+            MediaType.application("x-tika-ole")));
+    private static final String PARSED_BY = "X-Parsed-By";
+
     @Getter
     private long defaultProcessingTimeout;
     @Getter
@@ -45,6 +68,14 @@ public class TikaMediaProcessor {
     boolean ocrEnabled = false;
     @Getter
     private List<String> allowedSources = new ArrayList<>();
+    @Getter
+    private Detector detector;
+    @Getter
+    private ExecutorService ocrPageExecutor;
+    @Getter
+    private int maxOcrPagesInParallel = 1;
+    @Getter
+    private int autoOcrMinCharactersPerPage = 100;
 
     /**
      * Builder helper to return TikaMediaProcessor
@@ -64,6 +95,14 @@ public class TikaMediaProcessor {
         private boolean ocrEnabled = false;
         @Getter
         private List<String> allowedSources = new ArrayList<>();
+        @Getter
+        private Detector detector;
+        @Getter
+        private ExecutorService ocrPageExecutor;
+        @Getter
+        private int maxOcrPagesInParallel = 1;
+        @Getter
+        private int autoOcrMinCharactersPerPage = 100;
 
         public Builder withExecutorService(ExecutorService executorService) {
             this.executorService = executorService;
@@ -95,6 +134,33 @@ public class TikaMediaProcessor {
             return this;
         }
 
+        /**
+         * Detector used for MIME detection, shared across requests as construction loads the whole mime registry;
+         * defaults to detector of default tika config
+         */
+        public Builder withDetector(Detector detector) {
+            this.detector = detector;
+            return this;
+        }
+
+        /**
+         * Pages (embedded images) of one document are OCRed on given executor, up to maxPagesInParallel at once;
+         * without it, or with 1, Tesseract runs page after page on the parse thread. Not used with forked parsers
+         */
+        public Builder withOcrPageExecutor(ExecutorService ocrPageExecutor, int maxPagesInParallel) {
+            this.ocrPageExecutor = ocrPageExecutor;
+            this.maxOcrPagesInParallel = maxPagesInParallel;
+            return this;
+        }
+
+        /**
+         * With {@link OcrStrategy#AUTO} only pages with less text than this are OCRed
+         */
+        public Builder withAutoOcrMinCharactersPerPage(int minCharacters) {
+            this.autoOcrMinCharactersPerPage = minCharacters;
+            return this;
+        }
+
         /**
          * Returns TikaMediaProcessor based on supplied params
          *
@@ -108,6 +174,11 @@ public class TikaMediaProcessor {
             tikaMediaProcessor.defaultProcessingTimeout = this.defaultProcessingTimeout;
             tikaMediaProcessor.defaultParser = this.parser;
             tikaMediaProcessor.allowedSources = this.allowedSources;
+            tikaMediaProcessor.detector = this.detector != null ? this.detector :
+                    TikaConfig.getDefaultConfig().getDetector();
+            tikaMediaProcessor.ocrPageExecutor = this.ocrPageExecutor;
+            tikaMediaProcessor.maxOcrPagesInParallel = this.maxOcrPagesInParallel;
+            tikaMediaProcessor.autoOcrMinCharactersPerPage = this.autoOcrMinCharactersPerPage;
             return tikaMediaProcessor;
         }
     }
@@ -117,7 +188,7 @@ public class TikaMediaProcessor {
 
     // Sets parser context for OCR - will throw exception in case of invalid language
     // or language model missing in server
-    private void setParserContextForOCR(ParseContext context, List<String> langs) {
+    private void setParserContextForOCR(ParseContext context, List<String> langs, long timeoutInMillis) {
         PDFParserConfig pdfConfig = new PDFParserConfig();
         pdfConfig.setExtractInlineImages(true);
         TesseractOCRConfig tesserConfig = new TesseractOCRConfig();
@@ -133,54 +204,169 @@ public class TikaMediaProcessor {
         }
         log.info("languages used in OCR " + ocrLangs);
         tesserConfig.setLanguage(ocrLangs);
+        // tesseract process is killed past this, also when parse thread is interrupted
+        tesserConfig.setTimeout((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeoutInMillis + 999)));
         context.set(PDFParserConfig.class, pdfConfig);
         context.set(TesseractOCRConfig.class, tesserConfig);
     }
 
+    private boolean isPageParallelOcr() {
+        return ocrPageExecutor != null && maxOcrPagesInParallel > 1;
+    }
+
     /**
-     * <p> Processes inputstream to extract text content, optionally using OCR</p>
+     * <p> Processes inputstream to extract text content, applying OCR as per given options; response lists pages
+     * whose images were OCRed</p>
+     * <p> Text is returned in the response, unless options carry a writer to receive it as the parser produces it,
+     * in which case the response has metadata only</p>
      *
-     * @param inputStream inputstream
-     * @param ocrEnabled  controls whether OCR is used
-     * @param langs       language models to be used for OCR
+     * @param inputStream inputstream, closed once processed
+     * @param options     OCR strategy and languages, character limit, known type and text writer
      * @return
      * @throws TikaException
      * @throws SAXException
      * @throws IOException
      * @throws URISyntaxException
      */
-    public MediaProcessingResponse processMedia(InputStream inputStream, boolean ocrEnabled, List<String> langs)
+    public MediaProcessingResponse processMedia(InputStream inputStream, ProcessingOptions options)
             throws TikaException, SAXException, IOException, URISyntaxException {
+        if (options.getContentText() != null) {
+            return extractText(inputStream, options, options.getContentText());
+        }
+        StringWriter contentText = new StringWriter();
+        MediaProcessingResponse mediaProcessingResponse = extractText(inputStream, options, contentText);
+        mediaProcessingResponse.setContentText(contentText.toString());
+        return mediaProcessingResponse;
+    }
+
+    private MediaProcessingResponse extractText(InputStream inputStream, ProcessingOptions options,
+                                                Writer contentText)
+            throws TikaException, SAXException, IOException, URISyntaxException {
+        final OcrStrategy ocrStrategy = options.getOcrStrategy();
+        final List<String> langs = options.getOcrLangs();
+        final int maxContentCharacters = options.getMaxContentCharacters();
+        final MediaType knownType = options.getKnownType();
         MediaProcessingResponse mediaProcessingResponse = new MediaProcessingResponse();
+        ParallelOcrExtractor ocrPages = null;
+        boolean ocrEnabled = ocrStrategy != OcrStrategy.NEVER;
+        RequestTimings timings = RequestTimings.current();
         try {
-            BodyContentHandler saxStream = new BodyContentHandler();
+            CountingWriter countedText = new CountingWriter(contentText);
+            // parse context objects would have to be sent to the child JVM, which the page extractor can not be;
+            // forked parsers OCR every image
+            OrderedOcrWriter orderedText = ocrEnabled && !(defaultParser instanceof ForkParser) ?
+                    new OrderedOcrWriter(countedText, maxContentCharacters) : null;
+            WriteOutContentHandler writeOut = new WriteOutContentHandler(
+                    orderedText != null ? orderedText : countedText, maxContentCharacters);
+            Cancellation cancellation = Cancellation.current();
+            ContentHandler saxStream = new BodyContentHandler(writeOut);
+            if (cancellation != null) {
+                saxStream = new CancellableContentHandler(saxStream, cancellation);
+            }
             Metadata metadata = new Metadata();
             ParseContext context = new ParseContext();
+            // forked parsers detect in the child JVM, which knows nothing of it
+            if (knownType != null && !(defaultParser instanceof ForkParser)) {
+                ParserRegistry.setKnownType(metadata, knownType);
+            }
 
-            try (InputStream stream = new BufferedInputStream(inputStream)) {
+            // file backed TikaInputStreams are passed as is, so parsers can use the file for random access
+            try (InputStream stream = inputStream instanceof TikaInputStream ? inputStream :
+                    new BufferedInputStream(inputStream)) {
                 if (ocrEnabled) {
                     log.info("OCR is enabled in request , setting OCR context params ");
-                    setParserContextForOCR(context, langs);
+                    setParserContextForOCR(context, langs, cancellation != null &&
+                            cancellation.getRemainingMillis() >= 0 ? cancellation.getRemainingMillis() :
+                            defaultOCRTimeOut);
+                }
+                if (orderedText != null) {
+                    context.set(Parser.class, defaultParser);
+                    ocrPages = new ParallelOcrExtractor(context, defaultParser, detector,
+                            isPageParallelOcr() ? ocrPageExecutor : null, maxOcrPagesInParallel, orderedText,
+                            ocrStrategy == OcrStrategy.AUTO ? autoOcrMinCharactersPerPage : -1, timings);
+                    context.set(EmbeddedDocumentExtractor.class, ocrPages);
+                    saxStream = ocrPages.trackPages(saxStream);
+                }
+                try {
+                    defaultParser.parse(stream, saxStream, metadata, context);
+                } catch (SAXException e) {
+                    if (!writeOut.isWriteLimitReached(e)) {
+                        throw e;
+                    }
+                    log.info("content text truncated at " + maxContentCharacters + " characters");
+                    mediaProcessingResponse.setTruncated(true);
                 }
-                defaultParser.parse(stream, saxStream, metadata, context);
-                mediaProcessingResponse.setContentText(saxStream.toString());
+                if (orderedText != null) {
+                    orderedText.finish();
+                    if (orderedText.isTruncated()) {
+                        mediaProcessingResponse.setTruncated(true);
+                    }
+                    mediaProcessingResponse.setOcrPages(ocrPages.getOcrPages());
+                }
+                ParserRegistry.clearKnownType(metadata);
                 Map<String, String> metaData = new HashMap<>();
                 for (String name : metadata.names()) {
                     metaData.put(name, metadata.get(name));
                 }
                 mediaProcessingResponse.setMetaData(metaData);
                 mediaProcessingResponse.setOcrIncluded(ocrEnabled);
+                if (timings != null) {
+                    timings.setOcr(ocrEnabled);
+                    timings.setMimeType(metadata.get(Metadata.CONTENT_TYPE));
+                    timings.setExtractedCharacters(countedText.getCount());
+                    // composite parsers list themselves first, the one that did the work last
+                    String[] parsedBy = metadata.getValues(PARSED_BY);
+                    timings.setParser(parsedBy.length > 0 ? parsedBy[parsedBy.length - 1] :
+                            defaultParser.getClass().getName());
+                }
             }
             return mediaProcessingResponse;
 
+        } catch (UnsupportedFormatException e) {
+            log.info("Not processed with Tika - " + e.getMessage());
+            throw e;
         } catch (Throwable e) {
             log.error("Error in processing with Tika - ", e);
             throw e;
         } finally {
+            if (ocrPages != null) {
+                ocrPages.cancel();
+            }
             inputStream.close();
         }
     }
 
+    // counts characters of extracted text, as written after truncation
+    private static class CountingWriter extends FilterWriter {
+        private long count;
+
+        CountingWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            super.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            super.write(cbuf, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            super.write(str, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
     /**
      * <p>Detects mimetype of inputstream</p>
      *
@@ -189,12 +375,43 @@ public class TikaMediaProcessor {
      * @throws IOException
      */
     public String detectMimeType(InputStream inputStream) throws IOException {
-        try {
-            log.info("Downloaded for mime type detection ");
-            return new Tika().detect(inputStream);
+        return detectMimeType(inputStream, null);
+    }
+
+    /**
+     * <p>Detects mimetype of inputstream, using resource name as a hint when magic bytes are not enough</p>
+     *
+     * @param inputStream
+     * @param resourceName file name of resource, may be null
+     * @return
+     * @throws IOException
+     */
+    public String detectMimeType(InputStream inputStream, String resourceName) throws IOException {
+        Metadata metadata = new Metadata();
+        if (resourceName != null) {
+            metadata.set(Metadata.RESOURCE_NAME_KEY, resourceName);
+        }
+        try (TikaInputStream stream = TikaInputStream.get(inputStream)) {
+            return detector.detect(stream, metadata).toString();
         } finally {
             inputStream.close();
         }
     }
 
+    /**
+     * @param mimeType detected type
+     * @return false if type is generic and might be refined given more of the resource
+     */
+    public boolean isConclusive(String mimeType) {
+        return isConclusive(MediaType.parse(mimeType));
+    }
+
+    /**
+     * @param mediaType detected type, may be null
+     * @return false if type is generic and might be refined given more of the resource
+     */
+    static boolean isConclusive(MediaType mediaType) {
+        return mediaType != null && !INCONCLUSIVE_TYPES.contains(mediaType.getBaseType());
+    }
+
 }
@@ -0,0 +1,175 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.TypeGateConfiguration;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.mime.MimeTypeException;
+import org.apache.tika.mime.MimeTypes;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Decides from the first bytes of a download, its Content-Type and the file name of its url whether it is worth
+ * downloading further, so videos and other types no parser is configured for are aborted with 415 before using
+ * bandwidth, a parse thread or memory</p>
+ * <p>Sniffing only reads magic bytes (no container detection, which needs the whole body), so it is cheap enough to
+ * run on the http client event loop; containers such as zip or OLE show up as their generic type and are let
+ * through</p>
+ */
+@Slf4j
+public class TypeGate {
+    private final MimeTypes mimeTypes;
+    private final MediaTypeRegistry mediaTypeRegistry;
+    private final int sniffSizeInBytes;
+    private final Set<MediaType> deniedTypes;
+    // null to let every type through
+    private final Set<MediaType> allowedTypes;
+    private final Meter rejected = new Meter();
+
+    /**
+     * @param configuration  sniff size, denied and allowed types
+     * @param parserRegistry types are sniffed with its MIME repository; allowed types default to those it supports
+     */
+    public TypeGate(TypeGateConfiguration configuration, ParserRegistry parserRegistry) {
+        this.mimeTypes = parserRegistry.getMimeTypes();
+        this.mediaTypeRegistry = mimeTypes.getMediaTypeRegistry();
+        this.sniffSizeInBytes = configuration.getSniffSizeInBytes();
+        this.deniedTypes = parse(configuration.getDeniedTypes());
+        if (!configuration.getAllowedTypes().isEmpty()) {
+            this.allowedTypes = parse(configuration.getAllowedTypes());
+        } else if (parserRegistry.isTrimmed()) {
+            this.allowedTypes = new HashSet<>(parserRegistry.getSupportedTypes());
+        } else {
+            this.allowedTypes = null;
+        }
+    }
+
+    private static Set<MediaType> parse(List<String> types) {
+        Set<MediaType> mediaTypes = new HashSet<>();
+        for (String type : types) {
+            MediaType mediaType = MediaType.parse(type);
+            if (mediaType == null) {
+                throw new IllegalArgumentException("invalid MIME type " + type);
+            }
+            mediaTypes.add(mediaType.getBaseType());
+        }
+        return mediaTypes;
+    }
+
+    /**
+     * @return leading bytes of a body {@link #sniff(byte[], String, String)} wants
+     */
+    public int getSniffSizeInBytes() {
+        return sniffSizeInBytes;
+    }
+
+    /**
+     * @param prefix       first bytes of the body, up to {@link #getSniffSizeInBytes()}
+     * @param contentType  Content-Type sent by origin, may be null
+     * @param resourceName file name of the url, may be null
+     * @return type of the body and whether it may be parsed
+     */
+    public Sniffed sniff(byte[] prefix, String contentType, String resourceName) {
+        try {
+            // type parser would detect from the bytes alone, hints may only refine it
+            MediaType fromBytes = mimeTypes.detect(TikaInputStream.get(prefix), new Metadata());
+            Metadata hints = new Metadata();
+            MediaType contentTypeHint = registeredType(contentType);
+            if (contentTypeHint != null) {
+                hints.set(Metadata.CONTENT_TYPE, contentTypeHint.toString());
+            }
+            if (resourceName != null) {
+                hints.set(Metadata.RESOURCE_NAME_KEY, resourceName);
+            }
+            MediaType type = mimeTypes.detect(TikaInputStream.get(prefix), hints);
+            boolean allowed = isAllowed(type);
+            if (!allowed) {
+                rejected.mark();
+            }
+            return new Sniffed(type, TikaMediaProcessor.isConclusive(fromBytes) ? fromBytes : null, allowed);
+        } catch (IOException e) {
+            // bytes are in memory, should not happen; parser will find out
+            log.warn("could not sniff type => " + e.getMessage());
+            return new Sniffed(MediaType.OCTET_STREAM, null, true);
+        }
+    }
+
+    // detecting with a hint of an unknown type registers it in the (process wide) MIME repository for good, and
+    // takes it as the type of bodies magic does not tell; origins may send anything
+    private MediaType registeredType(String contentType) {
+        MediaType mediaType = MediaType.parse(contentType);
+        if (mediaType == null) {
+            return null;
+        }
+        try {
+            return mimeTypes.getRegisteredMimeType(mediaType.getBaseType().toString()) != null ?
+                    mediaType.getBaseType() : null;
+        } catch (MimeTypeException e) {
+            return null;
+        }
+    }
+
+    boolean isAllowed(MediaType type) {
+        if (matches(type, deniedTypes)) {
+            return false;
+        }
+        return allowedTypes == null || !TikaMediaProcessor.isConclusive(type) || matches(type, allowedTypes);
+    }
+
+    // type, or any of its supertypes, is in given types, as is or as top level type
+    private boolean matches(MediaType type, Collection<MediaType> types) {
+        for (MediaType current = type.getBaseType(); current != null;
+             current = mediaTypeRegistry.getSupertype(current)) {
+            if (types.contains(current) || types.contains(new MediaType(current.getType(), "*"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(TypeGate.class, "rejected"), rejected);
+    }
+
+    /**
+     * Outcome of sniffing a body
+     */
+    public static class Sniffed {
+        private final MediaType type;
+        private final MediaType parseType;
+        private final boolean allowed;
+
+        Sniffed(MediaType type, MediaType parseType, boolean allowed) {
+            this.type = type;
+            this.parseType = parseType;
+            this.allowed = allowed;
+        }
+
+        /**
+         * @return type sniffed from bytes, Content-Type and file name
+         */
+        public MediaType getType() {
+            return type;
+        }
+
+        /**
+         * @return type body can be parsed as without detecting it again, null if bytes alone do not tell
+         */
+        public MediaType getParseType() {
+            return parseType;
+        }
+
+        public boolean isAllowed() {
+            return allowed;
+        }
+    }
+}
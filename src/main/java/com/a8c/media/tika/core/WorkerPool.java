@@ -0,0 +1,323 @@
+package com.a8c.media.tika.core;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import lombok.Getter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * <p>Bounded executor for one class of parse work, rejecting with {@link WorkerPoolRejectedException} once its
+ * queue is full; requests for its work can be shed up front by an {@link AdaptiveConcurrencyLimit}, see
+ * {@link #admit(Supplier)}</p>
+ * <p>On virtual threads each task gets its own thread, see {@link #withVirtualThreads(ExecutorService, int)}, and
+ * parsing is bounded by parse permits instead of pool size: a task only holds a permit around its CPU bound work,
+ * see {@link #runWithParsePermit(Callable)}; tasks waiting for a body or for a permit do not count against them</p>
+ */
+public class WorkerPool implements Executor {
+    private static final ThreadLocal<ParsePermit> PARSE_PERMIT = new ThreadLocal<>();
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int retryAfterSeconds;
+    private final Meter rejected = new Meter();
+    @Getter
+    private ExecutorService executor;
+    // fixed pool of platform threads, null on virtual threads
+    private ThreadPoolExecutor threadPoolExecutor;
+    // virtual threads only: tasks started and not done yet, bounded in place of threads and queue
+    private int maxTasks;
+    private final AtomicInteger tasks = new AtomicInteger();
+    private final AtomicLong completedTasks = new AtomicLong();
+    private Semaphore parsePermits;
+    @Getter
+    private AdaptiveConcurrencyLimit concurrencyLimit;
+
+    public WorkerPool(String name, int retryAfterSeconds) {
+        this.name = name;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return handler to be set on the executor of this pool
+     */
+    public RejectedExecutionHandler rejectionHandler() {
+        return (runnable, executor) -> {
+            rejected.mark();
+            throw new WorkerPoolRejectedException(name, retryAfterSeconds);
+        };
+    }
+
+    public WorkerPool withExecutor(ThreadPoolExecutor executor) {
+        this.executor = executor;
+        this.threadPoolExecutor = executor;
+        return this;
+    }
+
+    /**
+     * @param threadPerTaskExecutor starts a new virtual thread per task
+     * @param maxTasks              tasks started and not done yet, further ones are rejected as by a full queue
+     * @return
+     */
+    public WorkerPool withVirtualThreads(ExecutorService threadPerTaskExecutor, int maxTasks) {
+        this.executor = threadPerTaskExecutor;
+        this.threadPoolExecutor = null;
+        this.maxTasks = maxTasks;
+        return this;
+    }
+
+    /**
+     * @param parsePermits shared by pools running on virtual threads, a task holds one while it parses so number
+     *                     of parses running at once stays bounded however many threads the pools have
+     * @return
+     */
+    public WorkerPool withParsePermits(Semaphore parsePermits) {
+        this.parsePermits = parsePermits;
+        return this;
+    }
+
+    /**
+     * @param concurrencyLimit admits requests before they download anything, null to admit until queue is full
+     * @return
+     */
+    public WorkerPool withConcurrencyLimit(AdaptiveConcurrencyLimit concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+        return this;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (threadPoolExecutor != null) {
+            executeWithPermits(command);
+            return;
+        }
+        if (tasks.incrementAndGet() > maxTasks) {
+            tasks.decrementAndGet();
+            rejected.mark();
+            throw new WorkerPoolRejectedException(name, retryAfterSeconds);
+        }
+        try {
+            executeWithPermits(() -> {
+                try {
+                    command.run();
+                } finally {
+                    tasks.decrementAndGet();
+                    completedTasks.incrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            tasks.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * <p>Starts request work once admitted by the concurrency limit, a slot is held from now until the work
+     * completes, so a request shed here has not spent download bandwidth, a download slot or spool quota yet</p>
+     *
+     * @param work starts the request (download and parse on this pool)
+     * @param <T>  work result
+     * @return future of work, failed with {@link WorkerPoolRejectedException} if limit is reached
+     */
+    public <T> CompletableFuture<T> admit(Supplier<CompletableFuture<T>> work) {
+        if (concurrencyLimit == null) {
+            return work.get();
+        }
+        if (!concurrencyLimit.tryAcquire()) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new WorkerPoolRejectedException(name, retryAfterSeconds));
+            return rejected;
+        }
+        final long acquiredAt = System.nanoTime();
+        final CompletableFuture<T> admitted;
+        try {
+            admitted = work.get();
+        } catch (RuntimeException e) {
+            concurrencyLimit.abandon();
+            throw e;
+        }
+        admitted.whenComplete((result, throwable) -> {
+            // latency of work which was cancelled or never ran says nothing about load
+            if (admitted.isCancelled() || isRejected(throwable)) {
+                concurrencyLimit.abandon();
+            } else {
+                concurrencyLimit.release(acquiredAt);
+            }
+        });
+        return admitted;
+    }
+
+    private static boolean isRejected(Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof RejectedExecutionException;
+    }
+
+    private void executeWithPermits(Runnable command) {
+        if (parsePermits == null) {
+            executor.execute(command);
+            return;
+        }
+        // permit is taken by the work itself once it is ready to parse, a task is never dropped here as its
+        // future would never complete
+        executor.execute(() -> {
+            PARSE_PERMIT.set(new ParsePermit(parsePermits));
+            try {
+                command.run();
+            } finally {
+                PARSE_PERMIT.remove();
+            }
+        });
+    }
+
+    /**
+     * <p>Runs CPU bound work of a task holding a parse permit of the pool running the task, work runs as is on pools
+     * without permits (platform threads, their size bounds parsing)</p>
+     *
+     * @param work parse or detection
+     * @param <T>  work result
+     * @return work result
+     * @throws InterruptedException if interrupted waiting for a permit, e.g. request was cancelled
+     * @throws Exception            thrown by work
+     */
+    public static <T> T runWithParsePermit(Callable<T> work) throws Exception {
+        ParsePermit permit = PARSE_PERMIT.get();
+        if (permit == null || permit.held) {
+            return work.call();
+        }
+        permit.acquire();
+        try {
+            return work.call();
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * <p>Gives the permit of the work running on this thread back while it waits for input, e.g. body still being
+     * downloaded; must not block, may be called with locks held</p>
+     *
+     * @return true if permit was given back, it is to be taken again with {@link #retakeParsePermit()}
+     */
+    public static boolean yieldParsePermit() {
+        ParsePermit permit = PARSE_PERMIT.get();
+        if (permit == null || !permit.held) {
+            return false;
+        }
+        permit.release();
+        return true;
+    }
+
+    /**
+     * @throws InterruptedException if interrupted waiting for the permit, work must stop
+     */
+    public static void retakeParsePermit() throws InterruptedException {
+        ParsePermit permit = PARSE_PERMIT.get();
+        if (permit != null && !permit.held) {
+            permit.acquire();
+        }
+    }
+
+    /**
+     * @return share of threads busy plus share of queue filled, 0 (idle) to 2 (everything busy and queue full); on
+     * virtual threads twice the share of the task bound in use, so 2 still means new tasks are rejected
+     */
+    public double getSaturation() {
+        if (threadPoolExecutor == null) {
+            return 2.0 * tasks.get() / maxTasks;
+        }
+        int queued = threadPoolExecutor.getQueue().size();
+        int queueCapacity = queued + threadPoolExecutor.getQueue().remainingCapacity();
+        return (double) threadPoolExecutor.getActiveCount() / threadPoolExecutor.getMaximumPoolSize() +
+                (queueCapacity == 0 ? 0 : (double) queued / queueCapacity);
+    }
+
+    /**
+     * @return tasks running; on virtual threads tasks started, whether parsing or waiting for a body or permit
+     */
+    public int getActiveCount() {
+        return threadPoolExecutor == null ? tasks.get() : threadPoolExecutor.getActiveCount();
+    }
+
+    public int getPoolSize() {
+        return threadPoolExecutor == null ? tasks.get() : threadPoolExecutor.getPoolSize();
+    }
+
+    /**
+     * @return tasks waiting for a thread, none on virtual threads
+     */
+    public int getQueueSize() {
+        return threadPoolExecutor == null ? 0 : threadPoolExecutor.getQueue().size();
+    }
+
+    /**
+     * @return tasks which can still be accepted without a free thread; on virtual threads, left of the task bound
+     */
+    public int getRemainingQueueCapacity() {
+        return threadPoolExecutor == null ? Math.max(0, maxTasks - tasks.get()) :
+                threadPoolExecutor.getQueue().remainingCapacity();
+    }
+
+    public long getCompletedTaskCount() {
+        return threadPoolExecutor == null ? completedTasks.get() : threadPoolExecutor.getCompletedTaskCount();
+    }
+
+    public long getTaskCount() {
+        return threadPoolExecutor == null ? completedTasks.get() + tasks.get() : threadPoolExecutor.getTaskCount();
+    }
+
+    public void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(MetricRegistry.name(WorkerPool.class, name, "active"),
+                (Gauge<Integer>) this::getActiveCount);
+        metricRegistry.register(MetricRegistry.name(WorkerPool.class, name, "queued"),
+                (Gauge<Integer>) this::getQueueSize);
+        metricRegistry.register(MetricRegistry.name(WorkerPool.class, name, "completed"),
+                (Gauge<Long>) this::getCompletedTaskCount);
+        metricRegistry.register(MetricRegistry.name(WorkerPool.class, name, "rejected"), rejected);
+        if (concurrencyLimit != null) {
+            metricRegistry.register(MetricRegistry.name(WorkerPool.class, name, "limit"),
+                    (Gauge<Integer>) concurrencyLimit::getLimit);
+            metricRegistry.register(MetricRegistry.name(WorkerPool.class, name, "in-flight"),
+                    (Gauge<Integer>) concurrencyLimit::getInFlight);
+            metricRegistry.register(MetricRegistry.name(WorkerPool.class, name, "limit-rejected"),
+                    concurrencyLimit.getRejected());
+        }
+    }
+
+    // permit of the task running on a thread, only used by that thread
+    private static class ParsePermit {
+        private final Semaphore permits;
+        private boolean held;
+
+        ParsePermit(Semaphore permits) {
+            this.permits = permits;
+        }
+
+        void acquire() throws InterruptedException {
+            permits.acquire();
+            held = true;
+        }
+
+        void release() {
+            if (held) {
+                held = false;
+                permits.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.a8c.media.tika.core;
+
+import lombok.Getter;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>Raised when a worker pool queue is full, client should retry after the given delay</p>
+ */
+public class WorkerPoolRejectedException extends RejectedExecutionException {
+    @Getter
+    private final String pool;
+    @Getter
+    private final int retryAfterSeconds;
+
+    public WorkerPoolRejectedException(String pool, int retryAfterSeconds) {
+        super(pool + " queue full");
+        this.pool = pool;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
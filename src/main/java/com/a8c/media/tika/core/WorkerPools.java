@@ -0,0 +1,35 @@
+package com.a8c.media.tika.core;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Bulkheads for parse work: MIME detection, plain text extraction and OCR extraction each get their own threads
+ * and queue, so a few long OCR jobs can not hold up millisecond detections</p>
+ */
+@Getter
+public class WorkerPools {
+    private final WorkerPool detect;
+    private final WorkerPool text;
+    private final WorkerPool ocr;
+
+    public WorkerPools(WorkerPool detect, WorkerPool text, WorkerPool ocr) {
+        this.detect = detect;
+        this.text = text;
+        this.ocr = ocr;
+    }
+
+    /**
+     * @param useOCR whether request uses OCR
+     * @return pool extraction is to run on
+     */
+    public WorkerPool forProcessing(boolean useOCR) {
+        return useOCR ? ocr : text;
+    }
+
+    public List<WorkerPool> all() {
+        return Arrays.asList(detect, text, ocr);
+    }
+}
@@ -1,5 +1,6 @@
 package com.a8c.media.tika.health;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
 import lombok.Setter;
@@ -35,4 +36,23 @@ public class ExecutorHealthCheckResponse {
     @Setter
     @JsonProperty
     private int remainingQueueCapacity;
+
+    // busy threads share plus queue fill share, 2 means every thread busy and queue full
+    @Getter
+    @Setter
+    @JsonProperty
+    private double saturation;
+
+    // adaptive limit on tasks queued or running, only when enabled
+    @Getter
+    @Setter
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer concurrencyLimit;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer inFlight;
 }
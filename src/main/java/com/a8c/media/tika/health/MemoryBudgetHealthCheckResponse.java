@@ -0,0 +1,30 @@
+package com.a8c.media.tika.health;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+public class MemoryBudgetHealthCheckResponse {
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private long capacityInBytes;
+
+    // estimated memory of parses running or about to
+    @Getter
+    @Setter
+    @JsonProperty
+    private long reservedInBytes;
+
+    @Getter
+    @Setter
+    @JsonProperty
+    private long availableInBytes;
+
+    // requests waiting for their reservation to fit
+    @Getter
+    @Setter
+    @JsonProperty
+    private int waiting;
+}
@@ -1,34 +1,87 @@
 package com.a8c.media.tika.health;
 
 import com.a8c.media.tika.TikaMediaServerConfiguration;
+import com.a8c.media.tika.core.MemoryBudget;
+import com.a8c.media.tika.core.ParserWarmup;
+import com.a8c.media.tika.core.WorkerPool;
+import com.a8c.media.tika.core.WorkerPools;
 import com.codahale.metrics.health.HealthCheck;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 
 public class TikaMediaServerHealthCheck extends HealthCheck {
-    ExecutorService executorService;
+    WorkerPools workerPools;
+    MemoryBudget memoryBudget;
+    ParserWarmup parserWarmup;
     TikaMediaServerConfiguration mediaServerConfiguration;
 
-    public TikaMediaServerHealthCheck(ExecutorService executorService,
+    /**
+     * @param memoryBudget reported when set, null if there is none
+     * @param parserWarmup unhealthy (warming) until it is done, null if there is none
+     */
+    public TikaMediaServerHealthCheck(WorkerPools workerPools, MemoryBudget memoryBudget, ParserWarmup parserWarmup,
                                       TikaMediaServerConfiguration mediaServerConfiguration) {
-        this.executorService = executorService;
+        this.workerPools = workerPools;
+        this.memoryBudget = memoryBudget;
+        this.parserWarmup = parserWarmup;
         this.mediaServerConfiguration = mediaServerConfiguration;
     }
 
+    private ExecutorHealthCheckResponse toResponse(WorkerPool workerPool) {
+        ExecutorHealthCheckResponse executorHealthCheckResponse = new ExecutorHealthCheckResponse();
+        executorHealthCheckResponse.setActiveThreads(workerPool.getActiveCount());
+        executorHealthCheckResponse.setCompletedTasks(workerPool.getCompletedTaskCount());
+        executorHealthCheckResponse.setPoolSize(workerPool.getPoolSize());
+        executorHealthCheckResponse.setTaskCount(workerPool.getTaskCount());
+        executorHealthCheckResponse.setQueueSize(workerPool.getQueueSize());
+        executorHealthCheckResponse.setRemainingQueueCapacity(workerPool.getRemainingQueueCapacity());
+        executorHealthCheckResponse.setSaturation(workerPool.getSaturation());
+        if (workerPool.getConcurrencyLimit() != null) {
+            executorHealthCheckResponse.setConcurrencyLimit(workerPool.getConcurrencyLimit().getLimit());
+            executorHealthCheckResponse.setInFlight(workerPool.getConcurrencyLimit().getInFlight());
+        }
+        return executorHealthCheckResponse;
+    }
+
+    private MemoryBudgetHealthCheckResponse toResponse(MemoryBudget memoryBudget) {
+        MemoryBudgetHealthCheckResponse memoryBudgetHealthCheckResponse = new MemoryBudgetHealthCheckResponse();
+        memoryBudgetHealthCheckResponse.setCapacityInBytes(memoryBudget.getCapacity());
+        memoryBudgetHealthCheckResponse.setReservedInBytes(memoryBudget.getReserved());
+        memoryBudgetHealthCheckResponse.setAvailableInBytes(memoryBudget.getAvailable());
+        memoryBudgetHealthCheckResponse.setWaiting(memoryBudget.getWaiting());
+        return memoryBudgetHealthCheckResponse;
+    }
+
+    private WarmupHealthCheckResponse toResponse(ParserWarmup parserWarmup) {
+        WarmupHealthCheckResponse warmupHealthCheckResponse = new WarmupHealthCheckResponse();
+        warmupHealthCheckResponse.setState(parserWarmup.getState().name().toLowerCase(Locale.ROOT));
+        warmupHealthCheckResponse.setDurationInMillis(parserWarmup.getDurationInMillis());
+        warmupHealthCheckResponse.setLatencies(parserWarmup.getLatencies());
+        return warmupHealthCheckResponse;
+    }
+
     @Override
     protected Result check() throws Exception {
-        ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) executorService;
-        ExecutorHealthCheckResponse executorHealthCheckResponse = new ExecutorHealthCheckResponse();
-        executorHealthCheckResponse.setActiveThreads(threadPoolExecutor.getActiveCount());
-        executorHealthCheckResponse.setCompletedTasks(threadPoolExecutor.getCompletedTaskCount());
-        executorHealthCheckResponse.setPoolSize(threadPoolExecutor.getPoolSize());
-        executorHealthCheckResponse.setTaskCount(threadPoolExecutor.getTaskCount());
-        executorHealthCheckResponse.setQueueSize(threadPoolExecutor.getQueue().size());
-        executorHealthCheckResponse.setRemainingQueueCapacity(threadPoolExecutor.getQueue().remainingCapacity());
-
-        return Result.builder().withDetail("executor", executorHealthCheckResponse)
-                .withDetail("config", mediaServerConfiguration).build();
+        Map<String, ExecutorHealthCheckResponse> pools = new LinkedHashMap<>();
+        for (WorkerPool workerPool : workerPools.all()) {
+            pools.put(workerPool.getName(), toResponse(workerPool));
+        }
+        ResultBuilder result = Result.builder()
+                .withDetail("executor", pools.get(workerPools.getText().getName()))
+                .withDetail("pools", pools);
+        if (memoryBudget != null) {
+            result.withDetail("memoryBudget", toResponse(memoryBudget));
+        }
+        if (parserWarmup != null) {
+            result.withDetail("warmup", toResponse(parserWarmup));
+            if (!parserWarmup.isDone()) {
+                // keeps load balancers from sending traffic while first parses are still slow
+                result.unhealthy().withMessage("warming");
+            }
+        }
+        return result.withDetail("config", mediaServerConfiguration).build();
 
     }
 
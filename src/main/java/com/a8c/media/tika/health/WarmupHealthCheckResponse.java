@@ -0,0 +1,29 @@
+package com.a8c.media.tika.health;
+
+import com.a8c.media.tika.core.ParserWarmup;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Map;
+
+public class WarmupHealthCheckResponse {
+
+    // pending, warming or done
+    @Getter
+    @Setter
+    @JsonProperty
+    private String state;
+
+    // -1 until done
+    @Getter
+    @Setter
+    @JsonProperty
+    private long durationInMillis;
+
+    // parse time of each format on first use and once warmed up
+    @Getter
+    @Setter
+    @JsonProperty
+    private Map<String, ParserWarmup.Latency> latencies;
+}
@@ -0,0 +1,39 @@
+package com.a8c.media.tika.resources;
+
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import com.a8c.media.tika.core.PipelineMetrics;
+import com.a8c.media.tika.core.RequestTimings;
+
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+
+/**
+ * <p>Times json serialization of extraction responses as the serialize stage of {@link PipelineMetrics}; the
+ * response carries type and OCR flag the stage is recorded under. Streamed responses are serialized while the
+ * parse runs and are counted in its time instead</p>
+ */
+public class SerializationTimingInterceptor implements WriterInterceptor {
+    private final PipelineMetrics pipelineMetrics;
+
+    public SerializationTimingInterceptor(PipelineMetrics pipelineMetrics) {
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        if (!(context.getEntity() instanceof MediaProcessingResponse)) {
+            context.proceed();
+            return;
+        }
+        MediaProcessingResponse response = (MediaProcessingResponse) context.getEntity();
+        long startedAt = System.nanoTime();
+        try {
+            context.proceed();
+        } finally {
+            String mimeType = response.getMetaData() == null ? null : response.getMetaData().get("Content-Type");
+            pipelineMetrics.record(RequestTimings.Stage.SERIALIZE, RequestTimings.baseType(mimeType),
+                    response.isOcrIncluded(), System.nanoTime() - startedAt);
+        }
+    }
+}
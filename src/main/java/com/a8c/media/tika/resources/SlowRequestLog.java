@@ -0,0 +1,46 @@
+package com.a8c.media.tika.resources;
+
+import com.a8c.media.tika.core.RequestTimings;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Logs requests slower than a threshold as one json line with their timing breakdown, to the slow-requests
+ * logger so they can be routed / filtered on their own</p>
+ */
+@Slf4j(topic = "slow-requests")
+class SlowRequestLog {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final long thresholdInMillis;
+
+    /**
+     * @param thresholdInMillis requests taking at least this long are logged, <= 0 to log none
+     */
+    SlowRequestLog(long thresholdInMillis) {
+        this.thresholdInMillis = thresholdInMillis;
+    }
+
+    /**
+     * @param endpoint     endpoint request was sent to
+     * @param resourcePath resource requested
+     * @param status       http status returned
+     * @param timings      stages of the request
+     * @param receivedAt   {@link System#nanoTime()} request was received at
+     */
+    void logIfSlow(String endpoint, String resourcePath, int status, RequestTimings timings, long receivedAt) {
+        long totalNanos = System.nanoTime() - receivedAt;
+        if (thresholdInMillis <= 0 || TimeUnit.NANOSECONDS.toMillis(totalNanos) < thresholdInMillis) {
+            return;
+        }
+        ObjectNode line = objectMapper.createObjectNode();
+        line.put("endpoint", endpoint);
+        line.put("resourcePath", resourcePath);
+        line.put("status", status);
+        line.set("timings", objectMapper.valueToTree(timings.toTimings(totalNanos)));
+        log.warn(line.toString());
+    }
+}
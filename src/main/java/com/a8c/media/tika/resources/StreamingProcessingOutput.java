@@ -0,0 +1,134 @@
+package com.a8c.media.tika.resources;
+
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import com.a8c.media.tika.api.Timings;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * <p>Writes extracted text to the response as the parser produces it, so heap used per request does not depend on
+ * the length of the text</p>
+ * <p>As plain text only the content is written. As json, content text is streamed inside a
+ * {@link MediaProcessingResponse} shaped object and metadata (only complete once parse is done) is written last;
+ * a failure once the response is committed is reported in an "error" field and requested timings are written
+ * in a trailing "timings" field</p>
+ */
+@Slf4j
+class StreamingProcessingOutput implements StreamingOutput {
+    private static final int BUFFER_SIZE = 8192;
+
+    interface Extraction {
+        MediaProcessingResponse extract(Writer contentText) throws Exception;
+    }
+
+    private final String resourcePath;
+    private final ObjectMapper objectMapper;
+    private final boolean json;
+    private final boolean ocrIncluded;
+    private final Extraction extraction;
+    private final Supplier<Timings> timings;
+
+    /**
+     * @param objectMapper builds the json generator, so json output is written as the rest of the api does
+     * @param timings      called once extraction is done for the timings written last in json, null to omit them
+     */
+    StreamingProcessingOutput(String resourcePath, ObjectMapper objectMapper, boolean json, boolean ocrIncluded,
+                              Extraction extraction, Supplier<Timings> timings) {
+        this.resourcePath = resourcePath;
+        this.objectMapper = objectMapper;
+        this.json = json;
+        this.ocrIncluded = ocrIncluded;
+        this.extraction = extraction;
+        this.timings = timings;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+        if (!json) {
+            try {
+                extraction.extract(writer);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                // status is already sent, aborting is the only way to tell client text is incomplete
+                log.error("Exception while streaming " + resourcePath + " => " + e.toString());
+                throw new IOException(e);
+            }
+            writer.flush();
+            return;
+        }
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(writer);
+        // output is closed by jersey
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartObject();
+        generator.writeBooleanField("ocrIncluded", ocrIncluded);
+        generator.writeFieldName("contentText");
+        generator.writeRawValue("\"");
+        MediaProcessingResponse response = null;
+        String error = null;
+        try {
+            response = extraction.extract(new JsonStringContent(generator));
+        } catch (Exception e) {
+            log.error("Exception while streaming " + resourcePath + " => " + e.toString());
+            error = e.getMessage() == null ? e.toString() : e.getMessage();
+        }
+        generator.writeRaw('"');
+        if (response != null) {
+            generator.writeBooleanField("truncated", response.isTruncated());
+            if (response.getOcrPages() != null) {
+                generator.writeObjectField("ocrPages", response.getOcrPages());
+            }
+            generator.writeObjectField("metaData", response.getMetaData());
+        }
+        if (error != null) {
+            generator.writeStringField("error", error);
+        }
+        if (timings != null) {
+            generator.writeObjectField("timings", timings.get());
+        }
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    /**
+     * Escapes text written to it as the content of the json string the generator has opened
+     */
+    private static class JsonStringContent extends Writer {
+        private final JsonGenerator generator;
+        private final StringBuilder escaped = new StringBuilder();
+
+        JsonStringContent(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            escaped.setLength(0);
+            JsonStringEncoder.getInstance().quoteAsString(CharBuffer.wrap(chars, offset, length), escaped);
+            generator.writeRaw(escaped.toString());
+        }
+
+        @Override
+        public void flush() throws IOException {
+            generator.flush();
+        }
+
+        @Override
+        public void close() {
+            // generator is owned by caller
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.a8c.media.tika.resources;
+
+import com.a8c.media.tika.TikaMediaServerConfiguration;
+import com.a8c.media.tika.api.BatchItemResponse;
+import com.a8c.media.tika.api.BatchRequest;
+import com.a8c.media.tika.api.MediaDetectionRequest;
+import com.a8c.media.tika.api.MediaProcessingRequest;
+import com.a8c.media.tika.core.MediaFetchException;
+import com.codahale.metrics.annotation.Metered;
+import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Resource to serve batches of process / detect requests
+ * Items go through the same pipeline as single requests (download queue, parse executor, cache, coalescing), a
+ * bounded number of them at once per batch. Each result is written as one line of newline delimited json as soon as
+ * it is ready, so a slow item does not hold back the others. Items not done by the batch deadline are reported
+ * with status 408 and the response is closed
+ */
+@Path("/api/batch")
+@Produces(TikaBatchProcessingResource.NDJSON)
+@Slf4j
+public class TikaBatchProcessingResource {
+    public static final String NDJSON = "application/x-ndjson";
+
+    final TikaMediaProcessingResource tikaMediaProcessingResource;
+    final TikaMediaServerConfiguration tikaMediaServerConfiguration;
+    final ScheduledExecutorService scheduler;
+    final ObjectMapper objectMapper;
+
+    public TikaBatchProcessingResource(TikaMediaProcessingResource tikaMediaProcessingResource,
+                                       TikaMediaServerConfiguration mediaServerConfiguration,
+                                       ScheduledExecutorService scheduler, ObjectMapper objectMapper) {
+        this.tikaMediaProcessingResource = tikaMediaProcessingResource;
+        this.tikaMediaServerConfiguration = mediaServerConfiguration;
+        this.scheduler = scheduler;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * <p>Processes a batch of media files, streaming back one result per line</p>
+     *
+     * @param batchRequest items to be processed and batch deadline
+     * @return chunked response, one {@link BatchItemResponse} per line in completion order
+     */
+    @POST
+    @Path("/process")
+    @Timed(name = "time-processMediaBatch")
+    @Metered
+    public ChunkedOutput<String> processMedia(BatchRequest<MediaProcessingRequest> batchRequest) {
+        return run(batchRequest, MediaProcessingRequest::getResourcePath, tikaMediaProcessingResource::process);
+    }
+
+    /**
+     * <p>Detects MIME type of a batch of media files, streaming back one result per line</p>
+     *
+     * @param batchRequest items to be detected and batch deadline
+     * @return chunked response, one {@link BatchItemResponse} per line in completion order
+     */
+    @POST
+    @Path("/detect")
+    @Timed(name = "time-detectMediaBatch")
+    @Metered
+    public ChunkedOutput<String> detectMedia(BatchRequest<MediaDetectionRequest> batchRequest) {
+        return run(batchRequest, MediaDetectionRequest::getResourcePath, tikaMediaProcessingResource::detect);
+    }
+
+    private <Q, R> ChunkedOutput<String> run(BatchRequest<Q> batchRequest, Function<Q, String> resourcePathOf,
+                                            Function<Q, CompletableFuture<R>> call) {
+        List<Q> items = batchRequest == null || batchRequest.getItems() == null ? Collections.emptyList() :
+                batchRequest.getItems();
+        if (items.size() > tikaMediaServerConfiguration.getMaxBatchSize()) {
+            throw new WebApplicationException(Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE)
+                    .entity("batch of " + items.size() + " items, at most " +
+                            tikaMediaServerConfiguration.getMaxBatchSize() + " allowed").build());
+        }
+        long timeout = batchRequest == null || batchRequest.getBatchTimeout() == -1 ?
+                tikaMediaServerConfiguration.getDefaultBatchTimeout() : batchRequest.getBatchTimeout();
+        ChunkedOutput<String> output = newOutput();
+        new Batch<>(items, resourcePathOf, call, output).start(timeout);
+        return output;
+    }
+
+    // response lines of a batch are written to
+    ChunkedOutput<String> newOutput() {
+        return new ChunkedOutput<>(String.class);
+    }
+
+    private class Batch<Q, R> {
+        private final List<Q> items;
+        private final Function<Q, String> resourcePathOf;
+        private final Function<Q, CompletableFuture<R>> call;
+        private final ChunkedOutput<String> output;
+        private final boolean[] written;
+        private final CompletableFuture<?>[] running;
+        // serialized lines not yet written, only the thread draining them writes to output
+        private final ArrayDeque<String> pending = new ArrayDeque<>();
+        private int remaining;
+        private int next;
+        private boolean closed;
+        private ScheduledFuture<?> deadline;
+        private boolean writing;
+        private boolean outputClosed;
+
+        Batch(List<Q> items, Function<Q, String> resourcePathOf, Function<Q, CompletableFuture<R>> call,
+              ChunkedOutput<String> output) {
+            this.items = items;
+            this.resourcePathOf = resourcePathOf;
+            this.call = call;
+            this.output = output;
+            this.written = new boolean[items.size()];
+            this.running = new CompletableFuture<?>[items.size()];
+            this.remaining = items.size();
+        }
+
+        void start(long timeout) {
+            if (items.isEmpty()) {
+                close();
+                return;
+            }
+            synchronized (this) {
+                deadline = scheduler.schedule(this::onDeadline, timeout, TimeUnit.MILLISECONDS);
+            }
+            int concurrency = Math.min(items.size(), tikaMediaServerConfiguration.getMaxBatchConcurrency());
+            for (int i = 0; i < concurrency; i++) {
+                startNext();
+            }
+        }
+
+        private void startNext() {
+            final int index;
+            synchronized (this) {
+                if (closed || next >= items.size()) {
+                    return;
+                }
+                index = next++;
+            }
+            CompletableFuture<R> result;
+            try {
+                result = call.apply(items.get(index));
+            } catch (RuntimeException e) {
+                result = new CompletableFuture<>();
+                result.completeExceptionally(e);
+            }
+            final boolean abandoned;
+            synchronized (this) {
+                running[index] = result;
+                abandoned = closed;
+            }
+            if (abandoned) {
+                result.cancel(true);
+            }
+            result.whenComplete((value, throwable) -> {
+                write(index, value, throwable);
+                startNext();
+            });
+        }
+
+        private void write(int index, R value, Throwable throwable) {
+            final boolean last;
+            synchronized (this) {
+                if (!enqueue(index, value, throwable)) {
+                    return;
+                }
+                last = remaining == 0;
+            }
+            if (last) {
+                close();
+            } else {
+                drain();
+            }
+        }
+
+        // serializes result of an item into the lines to be written, false if batch is closed or item is
+        // already written; must be called with lock held
+        private boolean enqueue(int index, R value, Throwable throwable) {
+            if (closed || written[index]) {
+                return false;
+            }
+            written[index] = true;
+            remaining--;
+            BatchItemResponse<R> line = new BatchItemResponse<>();
+            line.setIndex(index);
+            line.setResourcePath(resourcePathOf.apply(items.get(index)));
+            if (throwable == null) {
+                line.setStatus(Response.Status.OK.getStatusCode());
+                line.setResult(value);
+            } else {
+                Throwable cause = TikaMediaProcessingResource.unwrap(throwable);
+                line.setStatus(TikaMediaProcessingResource.toErrorStatus(cause));
+                line.setError(cause.getMessage());
+                log.error("batch item " + line.getResourcePath() + " failed => " + cause.toString());
+            }
+            String json;
+            try {
+                json = objectMapper.writeValueAsString(line);
+            } catch (IOException e) {
+                log.error("could not serialize batch item " + line.getResourcePath() + " => " + e.getMessage());
+                json = "{\"index\":" + index + ",\"status\":500}";
+            }
+            pending.add(json + "\n");
+            return true;
+        }
+
+        /**
+         * <p>Writes queued lines, one thread at a time and outside the lock, so threads completing items never wait
+         * on a slow client; output is closed once the batch is closed and every queued line is written</p>
+         */
+        private void drain() {
+            synchronized (this) {
+                if (writing || outputClosed) {
+                    return;
+                }
+                writing = true;
+            }
+            while (true) {
+                String line;
+                synchronized (this) {
+                    line = pending.poll();
+                    if (line == null) {
+                        writing = false;
+                        if (!closed) {
+                            return;
+                        }
+                        outputClosed = true;
+                    }
+                }
+                if (line == null) {
+                    closeOutput();
+                    return;
+                }
+                try {
+                    output.write(line);
+                } catch (IOException e) {
+                    log.info("batch client went away => " + e.getMessage());
+                    synchronized (this) {
+                        pending.clear();
+                        writing = false;
+                        outputClosed = true;
+                    }
+                    closeOutput();
+                    close();
+                    return;
+                }
+            }
+        }
+
+        private void closeOutput() {
+            try {
+                output.close();
+            } catch (IOException e) {
+                log.debug("could not close batch response => " + e.getMessage());
+            }
+        }
+
+        private void onDeadline() {
+            synchronized (this) {
+                for (int i = 0; i < items.size(); i++) {
+                    enqueue(i, null, new MediaFetchException(Response.Status.REQUEST_TIMEOUT.getStatusCode(),
+                            "batch deadline passed"));
+                }
+            }
+            close();
+        }
+
+        // no more lines are taken, output is closed once queued ones are written
+        private void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (deadline != null) {
+                    deadline.cancel(false);
+                }
+            }
+            // past deadline or client gone, stop items still downloading / parsing
+            for (CompletableFuture<?> result : running) {
+                if (result != null) {
+                    result.cancel(true);
+                }
+            }
+            drain();
+        }
+    }
+}
@@ -2,12 +2,23 @@ package com.a8c.media.tika.resources;
 
 import com.a8c.media.tika.TikaMediaServerConfiguration;
 import com.a8c.media.tika.api.MediaDetectionRequest;
+import com.a8c.media.tika.api.MediaDetectionResponse;
 import com.a8c.media.tika.api.MediaProcessingRequest;
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import com.a8c.media.tika.api.Timings;
+import com.a8c.media.tika.core.ExtractionKey;
+import com.a8c.media.tika.core.MediaFetchException;
 import com.a8c.media.tika.core.MediaFetcher;
+import com.a8c.media.tika.core.ProcessingOptions;
+import com.a8c.media.tika.core.RequestTimings;
+import com.a8c.media.tika.core.SingleFlight;
 import com.a8c.media.tika.core.TikaMediaProcessor;
+import com.a8c.media.tika.core.WorkerPool;
+import com.a8c.media.tika.core.WorkerPoolRejectedException;
+import com.a8c.media.tika.core.WorkerPools;
 import com.codahale.metrics.annotation.Metered;
 import com.codahale.metrics.annotation.Timed;
-import lombok.SneakyThrows;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.inject.Inject;
@@ -15,23 +26,30 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ConnectionCallback;
 import javax.ws.rs.container.Suspended;
 import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.io.IOException;
-import java.net.URISyntaxException;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 /**
  * Resource to serve REST requests to API
  * All methods in this resource works using async http
  * Following pattern is used :
- * - File to be processed is fetched using asyncio, worker thread blocks while waiting for IO ( to keep http
- * connection management simple, but this is an area for improvement)
- * - On Completion, Inputstream is processed by same thread
- * - On Thread Completion, async http response is returned
+ * - File to be processed is fetched using asyncio on the http client event loop, no worker thread waits for it
+ * - On download completion ( or once body can be streamed), Inputstream is processed on the parse executor
+ * - On parse completion, async http response is resumed
+ * Concurrent process requests for the same resource, options and timeouts share one fetch and parse, each still
+ * resumed (or timed out) on its own
  */
 @Path("/api")
 @Produces(MediaType.APPLICATION_JSON)
@@ -41,16 +59,24 @@ public class TikaMediaProcessingResource {
     final TikaMediaProcessor tikaMediaProcessor;
     final MediaFetcher mediaFetcher;
     final TikaMediaServerConfiguration tikaMediaServerConfiguration;
-    final ExecutorService executorService;
+    final WorkerPools workerPools;
+    final SingleFlight<ExtractionKey.Flight, RequestTimings.Timed<MediaProcessingResponse>> processingFlights;
+    final SlowRequestLog slowRequestLog;
+    final ObjectMapper objectMapper;
 
     @Inject
     public TikaMediaProcessingResource(TikaMediaProcessor tikaMediaProcessor, MediaFetcher mediaFetcher,
                                        TikaMediaServerConfiguration mediaServerConfiguration,
-                                       ExecutorService executorService) {
+                                       WorkerPools workerPools, SingleFlight<ExtractionKey.Flight,
+                                               RequestTimings.Timed<MediaProcessingResponse>> processingFlights,
+                                       ObjectMapper objectMapper) {
         this.tikaMediaProcessor = tikaMediaProcessor;
         this.mediaFetcher = mediaFetcher;
         this.tikaMediaServerConfiguration = mediaServerConfiguration;
-        this.executorService = executorService;
+        this.workerPools = workerPools;
+        this.processingFlights = processingFlights;
+        this.slowRequestLog = new SlowRequestLog(mediaServerConfiguration.getSlowRequestThresholdInMillis());
+        this.objectMapper = objectMapper;
     }
 
     private long getRequestProcessingTimeout(long requestOverride, boolean isOCR) {
@@ -80,39 +106,276 @@ public class TikaMediaProcessingResource {
         });
     }
 
+    // nobody waits for the result any more, stop its download / parse
+    private void cancelWhenAbandoned(AsyncResponse asyncResponse, CompletableFuture<?> work) {
+        asyncResponse.setTimeoutHandler(new TimeoutHandler() {
+            @Override
+            public void handleTimeout(AsyncResponse asyncResponse) {
+                asyncResponse.resume(Response.serverError().status(Response.Status.REQUEST_TIMEOUT).build());
+                work.cancel(true);
+            }
+        });
+        asyncResponse.register((ConnectionCallback) disconnected -> work.cancel(true));
+    }
+
+    private MediaFetcher.MediaFetcherProcessor newFetcher(String resourcePath, long downloadTimeout,
+                                                          long processingTimeout, RequestTimings timings) {
+        return mediaFetcher.withUrl(resourcePath)
+                .withTimings(timings)
+                .withTimeout(getDownloadTimeout(downloadTimeout))
+                .withProcessingTimeout(processingTimeout)
+                .withMaxDownloadSizeInBytes(tikaMediaServerConfiguration.getMaxFileSizeInBytes())
+                .ignoreIfNoContentTypeHeader(tikaMediaServerConfiguration.isIgnoreIfNoContentLengthHeader())
+                .withStreaming(tikaMediaServerConfiguration.getStreamingBufferSizeInBytes())
+                .withDetectionPrefix(tikaMediaServerConfiguration.getDetectionPrefixSizeInBytes());
+    }
+
+    /**
+     * @param throwable failure, possibly wrapped by CompletableFuture
+     * @return failure as raised by the pipeline stage
+     */
+    static Throwable unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) &&
+                cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * <p>Maps failures from any stage of the pipeline to http status</p>
+     *
+     * @param throwable failure, possibly wrapped by CompletableFuture
+     * @return http status to be returned for it
+     */
+    public static int toErrorStatus(Throwable throwable) {
+        Throwable cause = unwrap(throwable);
+        if (cause instanceof MediaFetchException) {
+            return ((MediaFetchException) cause).getStatusCode();
+        }
+        if (cause instanceof TimeoutException) {
+            return Response.Status.REQUEST_TIMEOUT.getStatusCode();
+        }
+        if (cause instanceof WorkerPoolRejectedException) {
+            return Response.Status.TOO_MANY_REQUESTS.getStatusCode();
+        }
+        if (cause instanceof RejectedExecutionException) {
+            return Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
+        }
+        return Response.Status.INTERNAL_SERVER_ERROR.getStatusCode();
+    }
+
+    private Response toErrorResponse(String resourcePath, Throwable throwable) {
+        Throwable cause = unwrap(throwable);
+        int status = toErrorStatus(cause);
+        log.error("Exception while processing file " + resourcePath + " => " + cause.toString());
+        if (cause instanceof WorkerPoolRejectedException) {
+            return Response.status(status)
+                    .header(HttpHeaders.RETRY_AFTER, ((WorkerPoolRejectedException) cause).getRetryAfterSeconds())
+                    .build();
+        }
+        if (status != Response.Status.INTERNAL_SERVER_ERROR.getStatusCode()) {
+            return Response.serverError().status(status).build();
+        }
+        if (cause instanceof MediaFetchException) {
+            return Response.serverError().entity(cause.getMessage()).build();
+        }
+        return Response.serverError().entity(cause.getMessage() + " -> while downloading resource").build();
+    }
+
+    private void resume(AsyncResponse asyncResponse, String resourcePath, Object entity, Throwable throwable) {
+        if (throwable != null) {
+            asyncResponse.resume(toErrorResponse(resourcePath, throwable));
+        } else {
+            asyncResponse.resume(Response.ok().entity(entity).build());
+        }
+    }
+
+    // response is written on the resuming thread, so resuming is timed as serialization
+    private void resumeAndLog(AsyncResponse asyncResponse, String endpoint, String resourcePath, Object entity,
+                              Throwable throwable, CompletableFuture<?> work, RequestTimings timings,
+                              long receivedAt) {
+        long resumedAt = System.nanoTime();
+        resume(asyncResponse, resourcePath, entity, throwable);
+        if (throwable == null) {
+            timings.addSince(RequestTimings.Stage.SERIALIZE, resumedAt);
+        }
+        slowRequestLog.logIfSlow(endpoint, resourcePath, toLoggedStatus(throwable, work), timings, receivedAt);
+    }
+
+    private static int toLoggedStatus(Throwable throwable, CompletableFuture<?> work) {
+        if (throwable == null) {
+            return Response.Status.OK.getStatusCode();
+        }
+        // timed out (already answered by the timeout handler) or client went away
+        if (work.isCancelled()) {
+            return Response.Status.REQUEST_TIMEOUT.getStatusCode();
+        }
+        return toErrorStatus(throwable);
+    }
+
+    private static long elapsedSince(long receivedAt) {
+        return System.nanoTime() - receivedAt;
+    }
+
+    // response is written while the parse runs, so the parse stage is timed up to now
+    private static Timings streamedTimings(RequestTimings timings, long parseStartedAt, long receivedAt) {
+        Timings streamed = timings.toTimings(elapsedSince(receivedAt));
+        streamed.setParseMillis(TimeUnit.NANOSECONDS.toMillis(elapsedSince(parseStartedAt)));
+        return streamed;
+    }
+
+    // result may be shared with the cache and concurrent requests, timings only belong to this one
+    private static MediaProcessingResponse withTimings(MediaProcessingResponse response, Timings timings) {
+        MediaProcessingResponse timed = new MediaProcessingResponse();
+        timed.setOcrIncluded(response.isOcrIncluded());
+        timed.setContentText(response.getContentText());
+        timed.setTruncated(response.isTruncated());
+        timed.setOcrPages(response.getOcrPages());
+        timed.setMetaData(response.getMetaData());
+        timed.setTimings(timings);
+        return timed;
+    }
+
     /**
      * <p>Method used by Jersey container to process media file and return response containing extracted text</p>
      *
      * @param mediaProcessingRequest Request Object with details on media to be processed and flags to be used
      * @param asyncResponse          ( Internal use only) Used by Jersey container for async http
-     * @throws IOException
-     * @throws URISyntaxException
      */
-    @SneakyThrows
     @POST
     @Path("/process")
     @Timed(name = "time-processMedia")
     @Metered
-    public void processMedia(MediaProcessingRequest mediaProcessingRequest, @Suspended AsyncResponse asyncResponse)
-            throws IOException, URISyntaxException {
+    public void processMedia(MediaProcessingRequest mediaProcessingRequest, @Suspended AsyncResponse asyncResponse) {
+        final long receivedAt = System.nanoTime();
         setTimeoutHandler(asyncResponse,
                 getRequestProcessingTimeout(getRequestProcessingTimeout(mediaProcessingRequest.getProcessingTimeout()
-                        ,mediaProcessingRequest.isUseOCR()),
-                mediaProcessingRequest.isUseOCR()));
-        executorService.submit(new Runnable() {
-            @SneakyThrows
-            @Override
-            public void run() {
-                MediaFetcher.MediaFetcherProcessor mediaFetcherProcessor =
-                        mediaFetcher.withUrl(mediaProcessingRequest.getResourcePath())
-                                .withTimeout(getDownloadTimeout(mediaProcessingRequest.getFileDownloadTimeout()))
-                                .withMaxDownloadSizeInBytes(tikaMediaServerConfiguration.getMaxFileSizeInBytes())
-                                .ignoreIfNoContentTypeHeader(
-                                        tikaMediaServerConfiguration.isIgnoreIfNoContentLengthHeader());
-                mediaFetcherProcessor.fetchStreamAndProcess(tikaMediaProcessor, mediaProcessingRequest, asyncResponse,
-                        executorService);
+                        ,mediaProcessingRequest.isOcrRequested()),
+                mediaProcessingRequest.isOcrRequested()));
+        String resourcePath = mediaProcessingRequest.getResourcePath();
+        RequestTimings timings = new RequestTimings();
+        CompletableFuture<MediaProcessingResponse> work = process(mediaProcessingRequest, timings);
+        cancelWhenAbandoned(asyncResponse, work);
+        work.whenComplete((response, throwable) -> resumeAndLog(asyncResponse, "process", resourcePath,
+                response != null && mediaProcessingRequest.isIncludeTimings() ?
+                        withTimings(response, timings.toTimings(elapsedSince(receivedAt))) : response,
+                throwable, work, timings, receivedAt));
+    }
+
+    /**
+     * <p>Fetches and processes resource, sharing the work with concurrent requests for the same resource</p>
+     *
+     * @param mediaProcessingRequest details on media to be processed
+     * @return future of extracted content, see {@link #toErrorStatus(Throwable)} for failures; cancelling it
+     * stops the work unless other requests still wait for it
+     */
+    public CompletableFuture<MediaProcessingResponse> process(MediaProcessingRequest mediaProcessingRequest) {
+        return process(mediaProcessingRequest, new RequestTimings());
+    }
+
+    /**
+     * <p>Fetches and processes resource, sharing the work with concurrent requests for the same resource, options
+     * and timeouts</p>
+     *
+     * @param mediaProcessingRequest details on media to be processed
+     * @param timings                receives stages of the fetch; if work is shared with an earlier request they
+     *                               are copied from that request's once the fetch is done, and flagged shared
+     * @return future of extracted content, see {@link #toErrorStatus(Throwable)} for failures; cancelling it
+     * stops the work unless other requests still wait for it
+     */
+    public CompletableFuture<MediaProcessingResponse> process(MediaProcessingRequest mediaProcessingRequest,
+                                                              RequestTimings timings) {
+        final long downloadTimeout = getDownloadTimeout(mediaProcessingRequest.getFileDownloadTimeout());
+        final long processingTimeout = getRequestProcessingTimeout(mediaProcessingRequest.getProcessingTimeout(),
+                mediaProcessingRequest.isOcrRequested());
+        // only shared with requests which would have fetched and parsed under the same deadlines
+        ExtractionKey.Flight flight = new ExtractionKey.Flight(mediaProcessingRequest, downloadTimeout,
+                processingTimeout);
+        final WorkerPool workerPool = workerPools.forProcessing(mediaProcessingRequest.isOcrRequested());
+        // only the request doing the fetch is admitted, joining one adds no work
+        return thenApplyCancellable(processingFlights.execute(flight,
+                () -> workerPool.admit(() -> thenApplyCancellable(newFetcher(mediaProcessingRequest.getResourcePath(),
+                        downloadTimeout, processingTimeout, timings)
+                        .fetchAndProcess(tikaMediaProcessor, mediaProcessingRequest, workerPool),
+                        response -> new RequestTimings.Timed<>(response, timings)))),
+                timed -> {
+                    if (timed.getTimings() != timings) {
+                        timings.copySharedFetch(timed.getTimings());
+                    }
+                    return timed.getResult();
+                });
+    }
+
+    // cancelling the returned future cancels the one it is applied to, as cancellation stops downloads and parses
+    private static <T, R> CompletableFuture<R> thenApplyCancellable(CompletableFuture<T> future,
+                                                                    Function<T, R> function) {
+        CompletableFuture<R> applied = future.thenApply(function);
+        applied.whenComplete((result, throwable) -> {
+            if (applied.isCancelled()) {
+                future.cancel(true);
             }
         });
+        return applied;
+    }
+
+    /**
+     * <p>Method used by Jersey container to process media file and stream extracted text back as the parser
+     * produces it; json (text streamed in contentText, metadata last) or plain text per Accept header</p>
+     * <p>With includeTimings json output ends with a timings field; plain text has nowhere to carry them, so
+     * the flag is ignored there</p>
+     * <p>Results are neither cached nor shared with concurrent requests</p>
+     *
+     * @param mediaProcessingRequest Request Object with details on media to be processed and flags to be used
+     * @param headers                ( Internal use only) request headers, used to pick output format
+     * @param asyncResponse          ( Internal use only) Used by Jersey container for async http
+     */
+    @POST
+    @Path("/process/stream")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN})
+    @Timed(name = "time-processMediaStream")
+    @Metered
+    public void processMediaStreaming(MediaProcessingRequest mediaProcessingRequest, @Context HttpHeaders headers,
+                                      @Suspended AsyncResponse asyncResponse) {
+        final long receivedAt = System.nanoTime();
+        long processingTimeout = getRequestProcessingTimeout(mediaProcessingRequest.getProcessingTimeout(),
+                mediaProcessingRequest.isOcrRequested());
+        setTimeoutHandler(asyncResponse, processingTimeout);
+        String resourcePath = mediaProcessingRequest.getResourcePath();
+        MediaType preferred = headers.getAcceptableMediaTypes().isEmpty() ? MediaType.WILDCARD_TYPE :
+                headers.getAcceptableMediaTypes().get(0);
+        boolean json = !(preferred.getType().equals("text") && preferred.getSubtype().equals("plain"));
+        RequestTimings timings = new RequestTimings();
+        try {
+            // response is resumed from the parse executor and written there while body is parsed, so writing it
+            // is part of the parse stage
+            final WorkerPool workerPool = workerPools.forProcessing(mediaProcessingRequest.isOcrRequested());
+            CompletableFuture<Boolean> work = workerPool.admit(() -> newFetcher(resourcePath,
+                    mediaProcessingRequest.getFileDownloadTimeout(), processingTimeout, timings)
+                    .fetchAndParse((body, originHeaders, type) -> {
+                        final long parseStartedAt = System.nanoTime();
+                        return asyncResponse.resume(Response.ok(
+                                new StreamingProcessingOutput(resourcePath, objectMapper, json,
+                                        mediaProcessingRequest.isOcrRequested(),
+                                        contentText -> tikaMediaProcessor.processMedia(body,
+                                                ProcessingOptions.forRequest(mediaProcessingRequest)
+                                                        .withKnownType(type).withContentText(contentText).build()),
+                                        mediaProcessingRequest.isIncludeTimings() ?
+                                                () -> streamedTimings(timings, parseStartedAt, receivedAt) : null),
+                                json ? MediaType.APPLICATION_JSON_TYPE : MediaType.TEXT_PLAIN_TYPE).build());
+                    }, workerPool));
+            cancelWhenAbandoned(asyncResponse, work);
+            work.whenComplete((resumed, throwable) -> {
+                if (throwable != null) {
+                    resume(asyncResponse, resourcePath, null, throwable);
+                }
+                slowRequestLog.logIfSlow("process/stream", resourcePath, toLoggedStatus(throwable, work), timings,
+                        receivedAt);
+            });
+        } catch (MediaFetchException e) {
+            asyncResponse.resume(toErrorResponse(resourcePath, e));
+        }
     }
 
     /**
@@ -120,32 +383,55 @@ public class TikaMediaProcessingResource {
      *
      * @param mediaDetectionRequest Request Object with details on media to be processed
      * @param asyncResponse         ( Internal use only) Used by Jersey container for async http
-     * @throws IOException
-     * @throws URISyntaxException
      */
-    @SneakyThrows
     @POST
     @Path("/detect")
     @Timed(name = "time-detectMedia")
     @Metered
-    public void detectMedia(MediaDetectionRequest mediaDetectionRequest, @Suspended AsyncResponse asyncResponse)
-            throws IOException, URISyntaxException {
+    public void detectMedia(MediaDetectionRequest mediaDetectionRequest, @Suspended AsyncResponse asyncResponse) {
+        final long receivedAt = System.nanoTime();
         setTimeoutHandler(asyncResponse,
                 getRequestProcessingTimeout(mediaDetectionRequest.getProcessingTimeout(), false));
-        executorService.submit(new Runnable() {
-            @SneakyThrows
-            @Override
-            public void run() {
-                MediaFetcher.MediaFetcherProcessor mediaFetcherProcessor =
-                        mediaFetcher.withUrl(mediaDetectionRequest.getResourcePath())
-                                .withTimeout(getDownloadTimeout(mediaDetectionRequest.getFileDownloadTimeout()))
-                                .withMaxDownloadSizeInBytes(tikaMediaServerConfiguration.getMaxFileSizeInBytes())
-                                .ignoreIfNoContentTypeHeader(
-                                        tikaMediaServerConfiguration.isIgnoreIfNoContentLengthHeader());
-                mediaFetcherProcessor.fetchStreamAndDetect(tikaMediaProcessor, mediaDetectionRequest, asyncResponse,
-                        executorService);
+        String resourcePath = mediaDetectionRequest.getResourcePath();
+        RequestTimings timings = new RequestTimings();
+        CompletableFuture<MediaDetectionResponse> work = detect(mediaDetectionRequest, timings);
+        cancelWhenAbandoned(asyncResponse, work);
+        work.whenComplete((response, throwable) -> {
+            if (response != null && mediaDetectionRequest.isIncludeTimings()) {
+                response.setTimings(timings.toTimings(elapsedSince(receivedAt)));
             }
+            resumeAndLog(asyncResponse, "detect", resourcePath, response, throwable, work, timings, receivedAt);
         });
+    }
 
+    /**
+     * <p>Fetches resource (or its first bytes) and detects its MIME type</p>
+     *
+     * @param mediaDetectionRequest details on media to be processed
+     * @return future of detected type, see {@link #toErrorStatus(Throwable)} for failures
+     */
+    public CompletableFuture<MediaDetectionResponse> detect(MediaDetectionRequest mediaDetectionRequest) {
+        return detect(mediaDetectionRequest, new RequestTimings());
+    }
+
+    /**
+     * <p>Fetches resource (or its first bytes) and detects its MIME type</p>
+     *
+     * @param mediaDetectionRequest details on media to be processed
+     * @param timings               receives stages of the fetch
+     * @return future of detected type, see {@link #toErrorStatus(Throwable)} for failures
+     */
+    public CompletableFuture<MediaDetectionResponse> detect(MediaDetectionRequest mediaDetectionRequest,
+                                                            RequestTimings timings) {
+        try {
+            return workerPools.getDetect().admit(() -> newFetcher(mediaDetectionRequest.getResourcePath(),
+                    mediaDetectionRequest.getFileDownloadTimeout(),
+                    getRequestProcessingTimeout(mediaDetectionRequest.getProcessingTimeout(), false), timings)
+                    .fetchAndDetect(tikaMediaProcessor, mediaDetectionRequest, workerPools.getDetect()));
+        } catch (MediaFetchException e) {
+            CompletableFuture<MediaDetectionResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
     }
 }
@@ -1,9 +1,10 @@
 package com.a8c.media.tika.resources;
 
 import com.a8c.media.tika.api.MimeTypesInfoResponse;
+import com.a8c.media.tika.core.ParserRegistry;
 import com.google.common.collect.Lists;
-import org.apache.tika.mime.MimeTypes;
 
+import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
@@ -17,10 +18,16 @@ import java.util.List;
 @Path("/info")
 @Produces(MediaType.APPLICATION_JSON)
 public class TikaMetaInformationResource {
+    final ParserRegistry parserRegistry;
+
+    @Inject
+    public TikaMetaInformationResource(ParserRegistry parserRegistry) {
+        this.parserRegistry = parserRegistry;
+    }
 
     /**
-     * <p>Helper method to return all MIME types supported by this REST service; Mostly used to debug Tika/Tesseract
-     * installation in server
+     * <p>Helper method to return all MIME types supported by this REST service, as configured parsers take them;
+     * Mostly used to debug Tika/Tesseract installation in server
      * </p>
      *
      * @return
@@ -30,8 +37,7 @@ public class TikaMetaInformationResource {
     public Response getSupportedMimeTypes() {
         MimeTypesInfoResponse mimeTypesInfoResponse = new MimeTypesInfoResponse();
         List<String> mediaTypes = Lists.newArrayList();
-        for (org.apache.tika.mime.MediaType mediaType : MimeTypes.getDefaultMimeTypes().getMediaTypeRegistry()
-                .getTypes()) {
+        for (org.apache.tika.mime.MediaType mediaType : parserRegistry.getSupportedTypes()) {
             mediaTypes.add(mediaType.toString());
         }
         mimeTypesInfoResponse.setMimeTypes(mediaTypes);
@@ -0,0 +1,71 @@
+package com.a8c.media.tika.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimitTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static void window(AdaptiveConcurrencyLimit limit, long latencyNanos, int inFlight) {
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(latencyNanos, inFlight);
+        }
+    }
+
+    @Test
+    void rejectsOverLimitAtOnce() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10, 1.5, 0.2, 10);
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+        assertEquals(1, limit.getRejected().getCount());
+        limit.release(System.nanoTime());
+        assertEquals(1, limit.getInFlight());
+        assertTrue(limit.tryAcquire());
+        limit.abandon();
+        assertEquals(1, limit.getInFlight());
+    }
+
+    @Test
+    void growsWhileLatencyHoldsUpUnderLoad() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 20, 1.5, 0.2, 10);
+        for (int i = 0; i < 50; i++) {
+            window(limit, FAST, limit.getLimit());
+        }
+        assertEquals(20, limit.getLimit());
+    }
+
+    @Test
+    void doesNotGrowWithoutLoad() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 20, 1.5, 0.2, 10);
+        for (int i = 0; i < 20; i++) {
+            window(limit, FAST, 1);
+        }
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    void shrinksWhenLatencyRises() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(16, 2, 20, 1.5, 0.2, 10);
+        window(limit, FAST, 16);
+        for (int i = 0; i < 5; i++) {
+            window(limit, SLOW, 16);
+        }
+        assertTrue(limit.getLimit() <= 12, "limit " + limit.getLimit());
+    }
+
+    @Test
+    void lastingLatencyBecomesBaseline() {
+        // e.g. more OCR heavy documents, not overload: limit comes back once the average has caught up
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(16, 2, 20, 1.5, 0.2, 10);
+        window(limit, FAST, 16);
+        for (int i = 0; i < 40; i++) {
+            window(limit, SLOW, limit.getLimit());
+        }
+        assertEquals(20, limit.getLimit());
+    }
+}
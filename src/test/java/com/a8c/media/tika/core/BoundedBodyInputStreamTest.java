@@ -0,0 +1,58 @@
+package com.a8c.media.tika.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedBodyInputStreamTest {
+
+    @Test
+    void pausesWhenFullAndResumesWhenDrained() throws IOException {
+        AtomicInteger pauses = new AtomicInteger();
+        AtomicInteger resumes = new AtomicInteger();
+        BoundedBodyInputStream stream = new BoundedBodyInputStream(8);
+        stream.setFlowControl(new BodySink.FlowControl() {
+            @Override
+            public void pause() {
+                pauses.incrementAndGet();
+            }
+
+            @Override
+            public void resume() {
+                resumes.incrementAndGet();
+            }
+        });
+        assertTrue(stream.offer(new byte[]{1, 2, 3, 4}, false));
+        assertEquals(0, pauses.get());
+        assertTrue(stream.offer(new byte[]{5, 6, 7, 8}, false));
+        assertEquals(1, pauses.get());
+
+        byte[] read = new byte[6];
+        assertEquals(4, stream.read(read, 0, 6));
+        assertEquals(1, resumes.get());
+        assertEquals(4, stream.read(read, 0, 6));
+        stream.complete();
+        assertEquals(-1, stream.read());
+    }
+
+    @Test
+    void failurePropagatesToReader() {
+        BoundedBodyInputStream stream = new BoundedBodyInputStream(8);
+        stream.offer(new byte[]{1}, false);
+        stream.fail(new IOException("too large"));
+        assertThrows(IOException.class, () -> {
+            while (stream.read() != -1) {
+            }
+        });
+    }
+
+    @Test
+    void offerAfterCloseAsksProducerToAbort() {
+        BoundedBodyInputStream stream = new BoundedBodyInputStream(8);
+        stream.close();
+        assertFalse(stream.offer(new byte[]{1}, false));
+    }
+}
@@ -0,0 +1,115 @@
+package com.a8c.media.tika.core;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CancellationTest {
+
+    @Test
+    void cancelInterruptsParseAndRunsActions() throws Exception {
+        Cancellation cancellation = new Cancellation(-1);
+        AtomicBoolean aborted = new AtomicBoolean();
+        cancellation.onCancel(() -> aborted.set(true));
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread parse = new Thread(() -> {
+            try {
+                cancellation.runParse(() -> {
+                    started.countDown();
+                    Thread.sleep(10_000);
+                    return null;
+                });
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            } catch (Exception e) {
+                fail(e);
+            }
+        });
+        parse.start();
+        started.await();
+        cancellation.cancel();
+        parse.join(5_000);
+        assertTrue(interrupted.get());
+        assertTrue(aborted.get());
+        assertTrue(cancellation.isCancelled());
+    }
+
+    @Test
+    void parseIsNotStartedPastDeadline() throws Exception {
+        Cancellation cancellation = new Cancellation(1);
+        Thread.sleep(5);
+        assertTrue(cancellation.isPastDeadline());
+        assertEquals(0, cancellation.getRemainingMillis());
+        assertThrows(CancellationException.class, () -> cancellation.runParse(() -> "never"));
+    }
+
+    @Test
+    void noDeadlineByDefault() {
+        Cancellation cancellation = new Cancellation(-1);
+        assertFalse(cancellation.isCancelled());
+        assertEquals(-1, cancellation.getRemainingMillis());
+    }
+
+    @Test
+    void countsCancellationsAndCpuTheyWasted() throws Exception {
+        CancellationMetrics cancellationMetrics = new CancellationMetrics();
+        MetricRegistry metricRegistry = new MetricRegistry();
+        cancellationMetrics.registerMetrics(metricRegistry);
+        Cancellation cancellation = new Cancellation(-1, cancellationMetrics);
+        CountDownLatch started = new CountDownLatch(1);
+        Thread parse = new Thread(() -> {
+            try {
+                cancellation.runParse(() -> {
+                    started.countDown();
+                    // busy parse, only stops once cancelled
+                    long spins = 0;
+                    while (!cancellation.isCancelled()) {
+                        spins++;
+                    }
+                    return spins;
+                });
+            } catch (Exception e) {
+                fail(e);
+            }
+        });
+        parse.start();
+        started.await();
+        Thread.sleep(100);
+        cancellation.cancel();
+        cancellation.cancel();
+        parse.join(5_000);
+        assertEquals(1,
+                metricRegistry.getMeters().get(MetricRegistry.name(Cancellation.class, "cancelled")).getCount());
+        assertTrue(metricRegistry.getCounters().get(MetricRegistry.name(Cancellation.class, "wasted-cpu-millis"))
+                .getCount() > 0);
+    }
+
+    @Test
+    void cpuOfVirtualThreadParsesIsNotCounted() throws Exception {
+        CancellationMetrics cancellationMetrics = new CancellationMetrics(false);
+        MetricRegistry metricRegistry = new MetricRegistry();
+        cancellationMetrics.registerMetrics(metricRegistry);
+        assertFalse(metricRegistry.getCounters().containsKey(
+                MetricRegistry.name(Cancellation.class, "wasted-cpu-millis")));
+        Cancellation cancellation = new Cancellation(-1, cancellationMetrics);
+        Thread parse = Thread.ofVirtual().start(() -> {
+            try {
+                cancellation.runParse(() -> {
+                    cancellation.cancel();
+                    return null;
+                });
+            } catch (Exception e) {
+                fail(e);
+            }
+        });
+        parse.join(5_000);
+        assertEquals(1,
+                metricRegistry.getMeters().get(MetricRegistry.name(Cancellation.class, "cancelled")).getCount());
+    }
+}
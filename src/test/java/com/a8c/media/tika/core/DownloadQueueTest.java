@@ -0,0 +1,59 @@
+package com.a8c.media.tika.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadQueueTest {
+
+    @Test
+    void queuesOverLimitAndRejectsWhenQueueIsFull() throws Exception {
+        DownloadQueue downloadQueue = new DownloadQueue(1, 1);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+
+        CompletableFuture<String> firstResult = downloadQueue.submit(() -> first);
+        CompletableFuture<String> secondResult = downloadQueue.submit(() -> second);
+        CompletableFuture<String> rejected = downloadQueue.submit(() -> CompletableFuture.completedFuture("x"));
+
+        assertEquals(1, downloadQueue.getInFlight());
+        assertEquals(1, downloadQueue.getQueued());
+        ExecutionException executionException = assertThrows(ExecutionException.class, rejected::get);
+        assertTrue(executionException.getCause() instanceof RejectedExecutionException);
+
+        first.complete("first");
+        assertEquals("first", firstResult.get());
+        assertEquals(0, downloadQueue.getQueued());
+        assertEquals(1, downloadQueue.getInFlight());
+
+        second.complete("second");
+        assertEquals("second", secondResult.get());
+        assertEquals(0, downloadQueue.getInFlight());
+    }
+
+    @Test
+    void queuedDownloadStartsOnStartExecutor() throws Exception {
+        ExecutorService startExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "start"));
+        try {
+            DownloadQueue downloadQueue = new DownloadQueue(1, 1, startExecutor);
+            CompletableFuture<String> first = new CompletableFuture<>();
+            downloadQueue.submit(() -> first);
+            CompletableFuture<String> second = downloadQueue.submit(() ->
+                    CompletableFuture.completedFuture(Thread.currentThread().getName()));
+            assertFalse(second.isDone());
+            // completing thread stands for the event loop, it must not start the next download itself
+            first.complete("first");
+            assertEquals("start", second.get(5, TimeUnit.SECONDS));
+            assertEquals(0, downloadQueue.getInFlight());
+        } finally {
+            startExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.CacheConfiguration;
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import com.google.common.collect.Lists;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExtractionCacheTest {
+
+    private MediaProcessingResponse response(String text) {
+        MediaProcessingResponse response = new MediaProcessingResponse();
+        response.setContentText(text);
+        return response;
+    }
+
+    @Test
+    void keepsOnlyResultsWithValidators() {
+        ExtractionCache cache = new ExtractionCache(new CacheConfiguration());
+        ExtractionKey withEtag = new ExtractionKey("http://a/1.pdf", false, null);
+        ExtractionKey withoutValidators = new ExtractionKey("http://a/2.pdf", false, null);
+        cache.put(withEtag, null, response("one"), new DefaultHttpHeaders().add(HttpHeaderNames.ETAG, "\"v1\""));
+        cache.put(withoutValidators, null, response("two"), new DefaultHttpHeaders());
+
+        CachedExtraction cached = cache.get(withEtag);
+        assertNotNull(cached);
+        assertEquals("\"v1\"", cached.getEtag());
+        assertEquals("one", cache.revalidated(withEtag, cached).getContentText());
+        assertNull(cache.get(withoutValidators));
+    }
+
+    @Test
+    void ocrOptionsArePartOfKey() {
+        ExtractionCache cache = new ExtractionCache(new CacheConfiguration());
+        cache.put(new ExtractionKey("http://a/1.png", true, Lists.newArrayList("eng")), null, response("eng"),
+                new DefaultHttpHeaders().add(HttpHeaderNames.LAST_MODIFIED, "Wed, 21 Oct 2015 07:28:00 GMT"));
+        assertNotNull(cache.get(new ExtractionKey("http://a/1.png", true, Lists.newArrayList("eng"))));
+        assertNull(cache.get(new ExtractionKey("http://a/1.png", true, Lists.newArrayList("fra"))));
+        assertNull(cache.get(new ExtractionKey("http://a/1.png", false, null)));
+    }
+
+    @Test
+    void evictsBeyondMaxWeight() {
+        CacheConfiguration configuration = new CacheConfiguration();
+        configuration.setMaxWeightInBytes(1000);
+        ExtractionCache cache = new ExtractionCache(configuration);
+        ExtractionKey key = new ExtractionKey("http://a/big.pdf", false, null);
+        cache.put(key, null, response(new String(new char[2000])),
+                new DefaultHttpHeaders().add(HttpHeaderNames.ETAG, "\"v1\""));
+        assertNull(cache.get(key));
+    }
+}
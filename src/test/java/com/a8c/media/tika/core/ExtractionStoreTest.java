@@ -0,0 +1,70 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.StoreConfiguration;
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExtractionStoreTest {
+
+    private StoreConfiguration configuration(Path directory, long maxSize, int segmentSize) {
+        StoreConfiguration configuration = new StoreConfiguration();
+        configuration.setEnabled(true);
+        configuration.setDirectory(directory.toString());
+        configuration.setMaxSizeInBytes(maxSize);
+        configuration.setSegmentSizeInBytes(segmentSize);
+        return configuration;
+    }
+
+    private CachedExtraction extraction(String text) {
+        MediaProcessingResponse response = new MediaProcessingResponse();
+        response.setContentText(text);
+        return new CachedExtraction(response, "\"" + text + "\"", null);
+    }
+
+    @Test
+    void entriesSurviveRestart(@TempDir Path directory) throws Exception {
+        ExtractionKey kept = new ExtractionKey("http://a/1.pdf", false, null);
+        ExtractionKey removed = new ExtractionKey("http://a/2.pdf", false, null);
+        ExtractionStore store = new ExtractionStore(configuration(directory, 1000 * 1000, 1024));
+        store.start();
+        store.put(kept, extraction("one"));
+        store.put(kept, extraction("uno"));
+        store.put(removed, extraction("two"));
+        store.remove(removed);
+        store.stop();
+
+        ExtractionStore reopened = new ExtractionStore(configuration(directory, 1000 * 1000, 1024));
+        reopened.start();
+        try {
+            CachedExtraction cached = reopened.get(kept);
+            assertNotNull(cached);
+            assertEquals("uno", cached.getResponse().getContentText());
+            assertEquals("\"uno\"", cached.getEtag());
+            assertNull(reopened.get(removed));
+        } finally {
+            reopened.stop();
+        }
+    }
+
+    @Test
+    void staysUnderMaxSize(@TempDir Path directory) throws Exception {
+        ExtractionStore store = new ExtractionStore(configuration(directory, 8 * 1024, 1024));
+        store.start();
+        try {
+            for (int i = 0; i < 200; i++) {
+                store.put(new ExtractionKey("http://a/" + (i % 20) + ".pdf", false, null), extraction("text " + i));
+            }
+            assertTrue(store.getSizeInBytes() <= 8 * 1024 + 1024);
+            CachedExtraction latest = store.get(new ExtractionKey("http://a/19.pdf", false, null));
+            assertNotNull(latest);
+            assertEquals("text 199", latest.getResponse().getContentText());
+        } finally {
+            store.stop();
+        }
+    }
+}
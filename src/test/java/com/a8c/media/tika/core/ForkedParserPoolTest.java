@@ -0,0 +1,85 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.ForkConfiguration;
+import com.google.common.collect.Lists;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ForkedParserPoolTest {
+    private ForkedParserPool forkedParserPool;
+
+    @AfterEach
+    void tearDown() {
+        if (forkedParserPool != null) {
+            forkedParserPool.stop();
+        }
+    }
+
+    private static ForkConfiguration configuration(long parseTimeoutInMillis) {
+        ForkConfiguration configuration = new ForkConfiguration();
+        configuration.setPoolSize(1);
+        configuration.setWarmChildren(1);
+        configuration.setParseTimeoutInMillis(parseTimeoutInMillis);
+        // children run on the JVM running the tests
+        configuration.setJavaCommand(Lists.newArrayList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-Xmx256m"));
+        return configuration;
+    }
+
+    private String parse(InputStream inputStream) throws Exception {
+        BodyContentHandler handler = new BodyContentHandler();
+        Metadata metadata = new Metadata();
+        metadata.set(Metadata.CONTENT_TYPE, "text/plain");
+        forkedParserPool.getParser().parse(inputStream, handler, metadata, new ParseContext());
+        return handler.toString();
+    }
+
+    @Test
+    void parsesInWarmChild() throws Exception {
+        forkedParserPool = new ForkedParserPool(configuration(30_000));
+        forkedParserPool.start();
+        String text = parse(new ByteArrayInputStream(
+                "the quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(text.contains("quick brown fox"));
+    }
+
+    @Test
+    void parseRunningPastTimeoutKillsChild() throws Exception {
+        forkedParserPool = new ForkedParserPool(configuration(1_000));
+        forkedParserPool.start();
+        // body trickles in much slower than the child may take for the whole parse
+        InputStream slowBody = new InputStream() {
+            private int remaining = 30;
+
+            @Override
+            public int read() {
+                if (remaining-- <= 0) {
+                    return -1;
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 'x';
+            }
+        };
+        // parent notices the killed child once it is done sending the body
+        TikaException killed = assertThrows(TikaException.class, () -> parse(slowBody));
+        assertTrue(killed.getMessage().contains("forked parser process"), killed.getMessage());
+        // pool replaces the killed child
+        String text = parse(new ByteArrayInputStream("still parsing".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(text.contains("still parsing"));
+    }
+}
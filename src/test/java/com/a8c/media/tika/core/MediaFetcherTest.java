@@ -1,24 +1,97 @@
 package com.a8c.media.tika.core;
 
+import com.a8c.media.tika.HttpClientConfiguration;
+import com.a8c.media.tika.ParserConfiguration;
+import com.a8c.media.tika.SpoolConfiguration;
+import com.a8c.media.tika.TypeGateConfiguration;
 import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class MediaFetcherTest {
 
     @Test
-    void testMediaFetcher() {
+    void testMediaFetcher() throws Exception {
+        ManagedAsyncHttpClient httpClient = new ManagedAsyncHttpClient(new HttpClientConfiguration());
+        SpoolDirectory spoolDirectory = new SpoolDirectory(new SpoolConfiguration());
+        DownloadQueue downloadQueue = new DownloadQueue(1, 1);
+        MediaFetcher.Builder builder = new MediaFetcher.Builder()
+                .withHttpClient(httpClient)
+                .withSpoolDirectory(spoolDirectory)
+                .withDownloadQueue(downloadQueue);
         MediaFetcher.MediaFetcherProcessor mediaFetcherProcessor =
-                new MediaFetcher(Lists.newArrayList("all")).withUrl("http://www.google" + ".com").withTimeout(100);
+                builder.withSources(Lists.newArrayList("all")).build()
+                        .withUrl("http://www.google" + ".com").withTimeout(100);
         try {
             mediaFetcherProcessor =
-                    new MediaFetcher(Lists.newArrayList("http://www.yahoo.com")).withUrl("http://www.google" + ".com")
-                            .withTimeout(100);
+                    builder.withSources(Lists.newArrayList("http://www.yahoo.com")).build()
+                            .withUrl("http://www.google" + ".com").withTimeout(100);
             fail("Expected exception");
         } catch (RuntimeException rte) {
             Assertions.assertTrue(rte.getMessage().contains("NOT_WHITELISTED"));
+        } finally {
+            httpClient.stop();
+        }
+    }
+
+    private static int fetchStatus(MediaFetcher mediaFetcher, String url, int streamingBufferSize,
+                                   ExecutorService parseExecutor) throws Exception {
+        try {
+            mediaFetcher.withUrl(url).withTimeout(5000).withStreaming(streamingBufferSize)
+                    .ignoreIfNoContentTypeHeader(true)
+                    .fetchAndParse((body, headers, type) -> "parsed", parseExecutor).get(10, TimeUnit.SECONDS);
+            return 200;
+        } catch (ExecutionException e) {
+            return ((MediaFetchException) e.getCause()).getStatusCode();
+        }
+    }
+
+    @Test
+    void typeGateOnlyRejectsBodiesOfSuccessfulResponses() throws Exception {
+        byte[] xml = "<?xml version=\"1.0\"?><error>not here</error>".getBytes(StandardCharsets.UTF_8);
+        HttpServer origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.createContext("/", exchange -> {
+            int status = exchange.getRequestURI().getPath().equals("/doc.xml") ? 200 : 206;
+            exchange.sendResponseHeaders(status, xml.length);
+            exchange.getResponseBody().write(xml);
+            exchange.close();
+        });
+        origin.start();
+        ManagedAsyncHttpClient httpClient = new ManagedAsyncHttpClient(new HttpClientConfiguration());
+        ExecutorService parseExecutor = Executors.newSingleThreadExecutor();
+        try {
+            ParserConfiguration parsers = new ParserConfiguration();
+            parsers.setParserClasses(Collections.singletonList("org.apache.tika.parser.pdf.PDFParser"));
+            TypeGate typeGate = new TypeGate(new TypeGateConfiguration(), ParserRegistry.of(parsers));
+            MediaFetcher mediaFetcher = new MediaFetcher.Builder()
+                    .withSources(Lists.newArrayList("all"))
+                    .withHttpClient(httpClient)
+                    .withSpoolDirectory(new SpoolDirectory(new SpoolConfiguration()))
+                    .withDownloadQueue(new DownloadQueue(2, 2))
+                    .withTypeGate(typeGate)
+                    .build();
+            String base = "http://127.0.0.1:" + origin.getAddress().getPort();
+            for (int streamingBufferSize : new int[]{0, 65536}) {
+                assertEquals(415, fetchStatus(mediaFetcher, base + "/doc.xml", streamingBufferSize, parseExecutor));
+                // origin's status is kept, whatever the type of its body
+                assertEquals(206, fetchStatus(mediaFetcher, base + "/partial.xml", streamingBufferSize,
+                        parseExecutor));
+            }
+        } finally {
+            httpClient.stop();
+            parseExecutor.shutdown();
+            origin.stop(0);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,93 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.MemoryBudgetConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryBudgetTest {
+    private ScheduledExecutorService scheduler;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private MemoryBudget newBudget(long maxInBytes, long maxWaitInMillis) {
+        MemoryBudgetConfiguration configuration = new MemoryBudgetConfiguration();
+        configuration.setMaxInBytes(maxInBytes);
+        configuration.setMaxWaitInMillis(maxWaitInMillis);
+        configuration.setBaseCostInBytes(100);
+        return new MemoryBudget(configuration, scheduler);
+    }
+
+    @Test
+    void estimateUsesFactorOfTypeOrTopLevelType() {
+        MemoryBudget memoryBudget = newBudget(1000, 0);
+        assertEquals(100 + 8 * 10, memoryBudget.estimate(10, "application/pdf"));
+        assertEquals(100 + 10 * 10, memoryBudget.estimate(10, "image/png"));
+        assertEquals(100 + 3 * 10, memoryBudget.estimate(10, "text/html; charset=UTF-8"));
+        assertEquals(100 + 4 * 10, memoryBudget.estimate(10, null));
+    }
+
+    @Test
+    void waiterIsGrantedOnRelease() throws Exception {
+        MemoryBudget memoryBudget = newBudget(1000, 10_000);
+        MemoryBudget.Reservation first = memoryBudget.reserve(600).get();
+        CompletableFuture<MemoryBudget.Reservation> second = memoryBudget.reserve(600);
+        assertFalse(second.isDone());
+        assertEquals(1, memoryBudget.getWaiting());
+        assertEquals(400, memoryBudget.getAvailable());
+        first.release();
+        first.release();
+        assertEquals(600, second.get(1, TimeUnit.SECONDS).getCost());
+        assertEquals(600, memoryBudget.getReserved());
+        second.get().release();
+        assertEquals(0, memoryBudget.getReserved());
+    }
+
+    @Test
+    void rejectedWhenItDoesNotFitInTime() throws Exception {
+        MemoryBudget memoryBudget = newBudget(1000, 50);
+        memoryBudget.reserve(1000).get();
+        CompletableFuture<MemoryBudget.Reservation> waiting = memoryBudget.reserve(10);
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertTrue(failure.getCause() instanceof WorkerPoolRejectedException);
+        assertEquals(0, memoryBudget.getWaiting());
+    }
+
+    @Test
+    void cancelledWaiterHoldsNothing() throws Exception {
+        MemoryBudget memoryBudget = newBudget(1000, 10_000);
+        MemoryBudget.Reservation first = memoryBudget.reserve(900).get();
+        CompletableFuture<MemoryBudget.Reservation> cancelled = memoryBudget.reserve(500);
+        CompletableFuture<MemoryBudget.Reservation> next = memoryBudget.reserve(100);
+        // arrival order, small one waits behind the large one
+        assertFalse(next.isDone());
+        cancelled.cancel(false);
+        assertEquals(100, next.get(1, TimeUnit.SECONDS).getCost());
+        first.release();
+        assertEquals(100, memoryBudget.getReserved());
+    }
+
+    @Test
+    void documentLargerThanBudgetRunsAlone() throws Exception {
+        MemoryBudget memoryBudget = newBudget(1000, 0);
+        MemoryBudget.Reservation reservation = memoryBudget.reserve(5000).get();
+        assertEquals(1000, reservation.getCost());
+        assertTrue(memoryBudget.reserve(1).isCompletedExceptionally());
+    }
+}
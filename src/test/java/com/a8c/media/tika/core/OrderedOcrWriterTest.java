@@ -0,0 +1,53 @@
+package com.a8c.media.tika.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderedOcrWriterTest {
+
+    @Test
+    void textAfterPageWaitsForPage() throws Exception {
+        StringWriter out = new StringWriter();
+        OrderedOcrWriter writer = new OrderedOcrWriter(out, -1);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        writer.write("intro ");
+        writer.addPage(first);
+        writer.write("between ");
+        writer.addPage(second);
+        writer.write("end");
+        second.complete("page two");
+        assertEquals("intro ", out.toString());
+        first.complete("page one");
+        writer.finish();
+        assertEquals("intro page one\nbetween page two\nend", out.toString());
+    }
+
+    @Test
+    void failedPageIsSkipped() throws Exception {
+        StringWriter out = new StringWriter();
+        OrderedOcrWriter writer = new OrderedOcrWriter(out, -1);
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("tesseract failed"));
+        writer.addPage(failed);
+        writer.write("rest");
+        writer.finish();
+        assertEquals("rest", out.toString());
+    }
+
+    @Test
+    void pagesCountTowardsLimit() throws Exception {
+        StringWriter out = new StringWriter();
+        OrderedOcrWriter writer = new OrderedOcrWriter(out, 8);
+        writer.write("abc");
+        writer.addPage(CompletableFuture.completedFuture("defghij"));
+        writer.write("klm");
+        writer.finish();
+        assertEquals("abcdefgh", out.toString());
+        assertTrue(writer.isTruncated());
+    }
+}
@@ -0,0 +1,85 @@
+package com.a8c.media.tika.core;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.AbstractParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.apache.tika.sax.XHTMLContentHandler;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelOcrExtractorTest {
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 0};
+
+    // stands in for tesseract
+    private static class RecognizingParser extends AbstractParser {
+        @Override
+        public Set<MediaType> getSupportedTypes(ParseContext context) {
+            return Collections.singleton(MediaType.image("png"));
+        }
+
+        @Override
+        public void parse(InputStream stream, ContentHandler handler, Metadata metadata, ParseContext context)
+                throws org.xml.sax.SAXException {
+            XHTMLContentHandler xhtml = new XHTMLContentHandler(handler, metadata);
+            xhtml.startDocument();
+            xhtml.element("p", "recognized");
+            xhtml.endDocument();
+        }
+    }
+
+    private void page(ContentHandler handler, ParallelOcrExtractor extractor, String text) throws Exception {
+        AttributesImpl attributes = new AttributesImpl();
+        attributes.addAttribute("", "class", "class", "CDATA", "page");
+        handler.startElement("", "div", "div", attributes);
+        handler.characters(text.toCharArray(), 0, text.length());
+        extractor.parseEmbedded(new ByteArrayInputStream(PNG), handler, new Metadata(), true);
+        handler.endElement("", "div", "div");
+    }
+
+    private ParallelOcrExtractor extractor(OrderedOcrWriter writer, int minCharactersPerPage) {
+        return new ParallelOcrExtractor(new ParseContext(), new RecognizingParser(),
+                TikaConfig.getDefaultConfig().getDetector(), null, 1, writer, minCharactersPerPage, null);
+    }
+
+    @Test
+    void onlyPagesWithoutTextAreOcredInAutoMode() throws Exception {
+        StringWriter out = new StringWriter();
+        OrderedOcrWriter writer = new OrderedOcrWriter(out, -1);
+        ParallelOcrExtractor extractor = extractor(writer, 10);
+        ContentHandler handler = extractor.trackPages(new WriteOutContentHandler(writer));
+        handler.startDocument();
+        page(handler, extractor, "scan ");
+        page(handler, extractor, "born digital page with text ");
+        handler.endDocument();
+        writer.finish();
+        assertEquals(Collections.singletonList(1), extractor.getOcrPages());
+        assertEquals("scan recognized\nborn digital page with text ", out.toString());
+    }
+
+    @Test
+    void allPagesAreOcredInAlwaysMode() throws Exception {
+        StringWriter out = new StringWriter();
+        OrderedOcrWriter writer = new OrderedOcrWriter(out, -1);
+        ParallelOcrExtractor extractor = extractor(writer, -1);
+        ContentHandler handler = extractor.trackPages(new WriteOutContentHandler(writer));
+        handler.startDocument();
+        page(handler, extractor, "scan ");
+        page(handler, extractor, "born digital page with text ");
+        handler.endDocument();
+        writer.finish();
+        assertEquals(Arrays.asList(1, 2), extractor.getOcrPages());
+    }
+}
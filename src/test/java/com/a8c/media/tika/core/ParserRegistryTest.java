@@ -0,0 +1,104 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.ParserConfiguration;
+import org.apache.tika.exception.UnsupportedFormatException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParserRegistryTest {
+
+    private static String parse(ParserRegistry registry, String sample) throws Exception {
+        try (InputStream inputStream = ParserRegistryTest.class.getResourceAsStream("/warmup/sample." + sample)) {
+            BodyContentHandler handler = new BodyContentHandler(-1);
+            registry.getParser().parse(inputStream, handler, new Metadata(), new ParseContext());
+            return handler.toString();
+        }
+    }
+
+    private static ParserConfiguration parsers(String... parserClasses) {
+        ParserConfiguration configuration = new ParserConfiguration();
+        configuration.setParserClasses(Arrays.asList(parserClasses));
+        return configuration;
+    }
+
+    @Test
+    void fullRegistryIsSharedWhenNothingIsTrimmed() {
+        ParserRegistry registry = ParserRegistry.of(new ParserConfiguration());
+        assertSame(ParserRegistry.full(), registry);
+        assertFalse(registry.isTrimmed());
+        assertTrue(registry.getSupportedTypes().size() > 100);
+    }
+
+    @Test
+    void trimmedRegistryOnlyParsesConfiguredParsers() throws Exception {
+        ParserRegistry registry = ParserRegistry.of(parsers("org.apache.tika.parser.pdf.PDFParser",
+                "org.apache.tika.parser.csv.TextAndCSVParser"));
+        assertTrue(registry.isTrimmed());
+        assertTrue(registry.getSupportedTypes().contains(MediaType.application("pdf")));
+        assertFalse(registry.getSupportedTypes().contains(
+                MediaType.parse("application/vnd.openxmlformats-officedocument.wordprocessingml.document")));
+        assertTrue(registry.getSupportedTypes().size() < ParserRegistry.full().getSupportedTypes().size());
+        assertTrue(parse(registry, "pdf").contains("quick brown fox"));
+        assertTrue(parse(registry, "txt").contains("quick brown fox"));
+        assertThrows(UnsupportedFormatException.class, () -> parse(registry, "docx"));
+    }
+
+    @Test
+    void enabledTypesRestrictParsers() throws Exception {
+        ParserConfiguration configuration = parsers("org.apache.tika.parser.pdf.PDFParser",
+                "org.apache.tika.parser.csv.TextAndCSVParser");
+        configuration.setEnabledTypes(Collections.singletonList("application/pdf"));
+        ParserRegistry registry = ParserRegistry.of(configuration);
+        assertEquals(Collections.singleton(MediaType.application("pdf")), registry.getSupportedTypes());
+        assertTrue(parse(registry, "pdf").contains("quick brown fox"));
+        assertThrows(UnsupportedFormatException.class, () -> parse(registry, "txt"));
+    }
+
+    @Test
+    void knownTypeIsNotDetectedAgain() throws Exception {
+        Metadata metadata = new Metadata();
+        ParserRegistry.setKnownType(metadata, MediaType.text("html"));
+        try (InputStream inputStream = ParserRegistryTest.class.getResourceAsStream("/warmup/sample.txt")) {
+            ParserRegistry.full().getParser().parse(inputStream, new BodyContentHandler(-1), metadata,
+                    new ParseContext());
+        }
+        assertTrue(metadata.get(Metadata.CONTENT_TYPE).startsWith("text/html"));
+        ParserRegistry.clearKnownType(metadata);
+        for (String name : metadata.names()) {
+            assertFalse(name.contains("Known-Type"), name);
+        }
+    }
+
+    @Test
+    void invalidParserClassFailsFast() {
+        assertThrows(IllegalArgumentException.class, () -> ParserRegistry.of(parsers("org.example.NoSuchParser")));
+        assertThrows(IllegalArgumentException.class, () -> ParserRegistry.of(parsers("java.lang.String")));
+    }
+
+    @Test
+    void warmupSamplesParseWithServedParsers() throws Exception {
+        // parsers listed (commented out) in config.yml
+        ParserRegistry registry = ParserRegistry.of(parsers("org.apache.tika.parser.html.HtmlParser",
+                "org.apache.tika.parser.csv.TextAndCSVParser", "org.apache.tika.parser.xml.DcXMLParser",
+                "org.apache.tika.parser.rtf.RTFParser", "org.apache.tika.parser.mail.RFC822Parser",
+                "org.apache.tika.parser.pdf.PDFParser", "org.apache.tika.parser.microsoft.ooxml.OOXMLParser",
+                "org.apache.tika.parser.microsoft.OfficeParser", "org.apache.tika.parser.pkg.PackageParser",
+                "org.apache.tika.parser.pkg.CompressorParser", "org.apache.tika.parser.image.ImageParser",
+                "org.apache.tika.parser.jpeg.JpegParser"));
+        for (String sample : ParserWarmup.SAMPLES) {
+            String text = parse(registry, sample);
+            if (!sample.equals("png") && !sample.equals("jpg")) {
+                assertTrue(text.contains("quick brown fox"), sample);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.TikaMediaServerConfiguration;
+import com.a8c.media.tika.WarmupConfiguration;
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParserWarmupTest {
+
+    private final TikaMediaProcessor processor =
+            new MediaProcessorModule(null, new TikaMediaServerConfiguration()).provideTikaMediaProcessor();
+
+    @Test
+    void everySampleIsWarmedUp() {
+        WarmupConfiguration configuration = new WarmupConfiguration();
+        configuration.setIterations(2);
+        ParserWarmup parserWarmup = new ParserWarmup(processor, configuration);
+        assertEquals(ParserWarmup.State.PENDING, parserWarmup.getState());
+        parserWarmup.run();
+        assertTrue(parserWarmup.isDone());
+        assertTrue(parserWarmup.getDurationInMillis() >= 0);
+        assertEquals(ParserWarmup.SAMPLES, new ArrayList<>(parserWarmup.getLatencies().keySet()));
+    }
+
+    @Test
+    void documentSamplesHaveText() throws Exception {
+        // a sample no parser understands would only warm up the fallback
+        for (String sample : ParserWarmup.SAMPLES) {
+            if (sample.equals("png") || sample.equals("jpg")) {
+                continue;
+            }
+            try (InputStream inputStream = ParserWarmup.class.getResourceAsStream("/warmup/sample." + sample)) {
+                MediaProcessingResponse response = processor.processMedia(inputStream,
+                        new ProcessingOptions.Builder().build());
+                assertTrue(response.getContentText().contains("quick brown fox"), sample);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.api.Timings;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineMetricsTest {
+
+    @Test
+    void stagesAreRecordedPerTypeAndOcr() throws Exception {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        PipelineMetrics pipelineMetrics = new PipelineMetrics(metricRegistry);
+        RequestTimings timings = new RequestTimings();
+        timings.add(RequestTimings.Stage.DOWNLOAD, TimeUnit.MILLISECONDS.toNanos(30));
+        timings.setDownloadedBytes(1000);
+        timings.runParse(() -> {
+            assertSame(timings, RequestTimings.current());
+            RequestTimings.current().setMimeType("text/html; charset=UTF-8");
+            RequestTimings.current().setOcr(true);
+            RequestTimings.current().setExtractedCharacters(200);
+            return null;
+        });
+        assertNull(RequestTimings.current());
+        pipelineMetrics.record(timings);
+
+        assertEquals(1, metricRegistry.timer(PipelineMetrics.name("download", "text/html", true)).getCount());
+        assertEquals(1, metricRegistry.timer(PipelineMetrics.name("parse", "text/html", true)).getCount());
+        assertEquals(1000, metricRegistry.meter(PipelineMetrics.name("downloaded-bytes", "text/html", true))
+                .getCount());
+        assertEquals(200, metricRegistry.meter(PipelineMetrics.name("extracted-characters", "text/html", true))
+                .getCount());
+        // stages request did not go through are not recorded
+        assertFalse(metricRegistry.getNames().contains(PipelineMetrics.name("ocr", "text/html", true)));
+        assertFalse(metricRegistry.getNames().contains(PipelineMetrics.name("parse", "text/html", false)));
+    }
+
+    @Test
+    void unknownTypeIsRecordedAsUnknown() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        RequestTimings timings = new RequestTimings();
+        timings.add(RequestTimings.Stage.DOWNLOAD_QUEUE, 5);
+        timings.add(RequestTimings.Stage.DOWNLOAD_QUEUE, 5);
+        assertEquals(10, timings.getNanos(RequestTimings.Stage.DOWNLOAD_QUEUE));
+        new PipelineMetrics(metricRegistry).record(timings);
+        assertEquals(1, metricRegistry.timer(PipelineMetrics.name("download-queue", PipelineMetrics.UNKNOWN_TYPE,
+                false)).getCount());
+    }
+
+    @Test
+    void typeDoesNotAddLevelsToMetricName() {
+        assertEquals("com.a8c.media.tika.core.PipelineMetrics.parse.application_pdf.ocr",
+                PipelineMetrics.name("parse", "application/pdf", true));
+        assertEquals("com.a8c.media.tika.core.PipelineMetrics.download.application_vnd_ms-excel.no-ocr",
+                PipelineMetrics.name("download", "application/vnd.ms-excel", false));
+    }
+
+    @Test
+    void timingsOmitStagesNotReached() {
+        RequestTimings timings = new RequestTimings();
+        timings.add(RequestTimings.Stage.CONNECT, TimeUnit.MILLISECONDS.toNanos(12));
+        timings.add(RequestTimings.Stage.PARSE, TimeUnit.MILLISECONDS.toNanos(40));
+        timings.setParser("org.apache.tika.parser.html.HtmlParser");
+        Timings reported = timings.toTimings(TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(Long.valueOf(12), reported.getConnectMillis());
+        assertEquals(Long.valueOf(40), reported.getParseMillis());
+        assertEquals(Long.valueOf(100), reported.getTotalMillis());
+        assertEquals("org.apache.tika.parser.html.HtmlParser", reported.getParser());
+        assertNull(reported.getOcrMillis());
+        assertNull(reported.getSerializeMillis());
+        assertNull(reported.getShared());
+    }
+}
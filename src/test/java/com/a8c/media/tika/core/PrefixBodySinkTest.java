@@ -0,0 +1,26 @@
+package com.a8c.media.tika.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrefixBodySinkTest {
+
+    @Test
+    void abortsOncePrefixIsReceived() {
+        PrefixBodySink sink = new PrefixBodySink(4);
+        assertTrue(sink.offer(new byte[]{1, 2}, false));
+        assertFalse(sink.offer(new byte[]{3, 4, 5}, false));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, sink.getPrefix());
+        assertTrue(sink.isTruncated());
+    }
+
+    @Test
+    void bodyFittingPrefixIsNotTruncated() {
+        PrefixBodySink sink = new PrefixBodySink(4);
+        assertTrue(sink.offer(new byte[]{1, 2}, false));
+        assertTrue(sink.offer(new byte[]{3, 4}, true));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, sink.getPrefix());
+        assertFalse(sink.isTruncated());
+    }
+}
@@ -0,0 +1,63 @@
+package com.a8c.media.tika.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    void concurrentCallsShareOneExecution() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("test");
+        AtomicInteger executions = new AtomicInteger();
+        CompletableFuture<String> origin = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.execute("a", () -> {
+            executions.incrementAndGet();
+            return origin;
+        });
+        CompletableFuture<String> second = singleFlight.execute("a", () -> {
+            executions.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+        first.cancel(true);
+        origin.complete("result");
+        assertEquals(1, executions.get());
+        assertEquals("result", second.get());
+        assertEquals(0, singleFlight.getInFlight());
+    }
+
+    @Test
+    void callIsCancelledOnceAllCallersCancel() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("test");
+        CompletableFuture<String> origin = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.execute("a", () -> origin);
+        CompletableFuture<String> second = singleFlight.execute("a", () -> origin);
+        first.cancel(true);
+        assertFalse(origin.isCancelled());
+        second.cancel(true);
+        assertTrue(origin.isCancelled());
+        assertEquals(0, singleFlight.getInFlight());
+    }
+
+    @Test
+    void callAfterCompletionStartsAgain() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("test");
+        AtomicInteger executions = new AtomicInteger();
+        singleFlight.execute("a", () -> CompletableFuture.completedFuture("" + executions.incrementAndGet())).get();
+        assertEquals("2", singleFlight.execute("a",
+                () -> CompletableFuture.completedFuture("" + executions.incrementAndGet())).get());
+    }
+
+    @Test
+    void failureIsSharedAndNotKept() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>("test");
+        CompletableFuture<String> failed = singleFlight.execute("a", () -> {
+            throw new MediaFetchException(403, "NOT_WHITELISTED");
+        });
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(0, singleFlight.getInFlight());
+    }
+}
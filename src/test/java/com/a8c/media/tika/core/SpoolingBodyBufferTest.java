@@ -0,0 +1,135 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.SpoolConfiguration;
+import org.apache.tika.io.TikaInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpoolingBodyBufferTest {
+
+    private SpoolDirectory spoolDirectory(Path directory, int threshold, long quota) {
+        return spoolDirectory(directory, threshold, quota, null);
+    }
+
+    private SpoolDirectory spoolDirectory(Path directory, int threshold, long quota, Executor writeExecutor) {
+        SpoolConfiguration configuration = new SpoolConfiguration();
+        configuration.setDirectory(directory.toString());
+        configuration.setMemoryThresholdInBytes(threshold);
+        configuration.setQuotaInBytes(quota);
+        return new SpoolDirectory(configuration, writeExecutor);
+    }
+
+    private static void runAll(Queue<Runnable> tasks) {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Test
+    void spillsToFileOverThresholdAndCleansUp(@TempDir Path directory) throws IOException {
+        SpoolDirectory spoolDirectory = spoolDirectory(directory, 4, 100);
+        SpoolingBodyBuffer buffer = spoolDirectory.newBuffer();
+        buffer.offer(new byte[]{1, 2, 3}, false);
+        assertFalse(buffer.isSpilled());
+        buffer.offer(new byte[]{4, 5, 6}, true);
+        buffer.complete();
+        assertTrue(buffer.isSpilled());
+        assertEquals(6, spoolDirectory.getUsedBytes());
+        try (InputStream stream = buffer.openStream()) {
+            assertTrue(((TikaInputStream) stream).hasFile());
+            assertEquals(6, ((TikaInputStream) stream).getLength());
+        }
+        buffer.close();
+        assertEquals(0, spoolDirectory.getUsedBytes());
+        assertEquals(0, Files.list(directory).count());
+    }
+
+    @Test
+    void failsWhenQuotaIsExhausted(@TempDir Path directory) throws IOException {
+        SpoolDirectory spoolDirectory = spoolDirectory(directory, 0, 4);
+        SpoolingBodyBuffer buffer = spoolDirectory.newBuffer();
+        buffer.offer(new byte[]{1, 2, 3}, false);
+        assertThrows(SpoolingBodyBuffer.SpoolQuotaExceededException.class,
+                () -> buffer.offer(new byte[]{4, 5, 6}, true));
+        buffer.close();
+        assertEquals(0, spoolDirectory.getUsedBytes());
+    }
+
+    @Test
+    void writesSpilledPartsOnWriteExecutorAndPausesWhileTheyLag(@TempDir Path directory) throws IOException {
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        SpoolDirectory spoolDirectory = spoolDirectory(directory, 4, 10L * 1024 * 1024, tasks::add);
+        SpoolingBodyBuffer buffer = spoolDirectory.newBuffer();
+        AtomicInteger pauses = new AtomicInteger();
+        AtomicInteger resumes = new AtomicInteger();
+        buffer.setFlowControl(new BodySink.FlowControl() {
+            @Override
+            public void pause() {
+                pauses.incrementAndGet();
+            }
+
+            @Override
+            public void resume() {
+                resumes.incrementAndGet();
+            }
+        });
+        byte[] part = new byte[(int) SpoolingBodyBuffer.MAX_PENDING_WRITE_BYTES / 2];
+        Arrays.fill(part, (byte) 7);
+        buffer.offer(new byte[]{1, 2, 3}, false);
+        buffer.offer(part, false);
+        // nothing touched the disk on the offering thread
+        assertTrue(buffer.isSpilled());
+        assertEquals(0, Files.list(directory).count());
+        assertEquals(0, pauses.get());
+        buffer.offer(part, false);
+        assertEquals(1, pauses.get());
+        assertEquals(3 + 2L * part.length, spoolDirectory.getUsedBytes());
+        runAll(tasks);
+        assertEquals(1, resumes.get());
+        buffer.offer(part, true);
+        buffer.complete();
+        runAll(tasks);
+        assertEquals(1, pauses.get());
+        try (InputStream stream = buffer.openStream()) {
+            assertTrue(((TikaInputStream) stream).hasFile());
+            assertEquals(3 + 3L * part.length, ((TikaInputStream) stream).getLength());
+            assertEquals(1, stream.read());
+        }
+        buffer.close();
+        assertEquals(3 + 3L * part.length, spoolDirectory.getUsedBytes());
+        runAll(tasks);
+        assertEquals(0, spoolDirectory.getUsedBytes());
+        assertEquals(0, Files.list(directory).count());
+    }
+
+    @Test
+    void failedWriteFailsDownload(@TempDir Path directory) throws IOException {
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        // spool directory can not be created, a file is in the way
+        Path blocked = Files.createFile(directory.resolve("blocked"));
+        SpoolDirectory spoolDirectory = spoolDirectory(blocked, 0, 100, tasks::add);
+        SpoolingBodyBuffer buffer = spoolDirectory.newBuffer();
+        buffer.offer(new byte[]{1, 2, 3}, false);
+        runAll(tasks);
+        assertThrows(IOException.class, () -> buffer.offer(new byte[]{4, 5, 6}, true));
+        buffer.complete();
+        runAll(tasks);
+        assertThrows(IOException.class, buffer::openStream);
+        buffer.close();
+        runAll(tasks);
+        assertEquals(0, spoolDirectory.getUsedBytes());
+    }
+}
@@ -0,0 +1,48 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.TikaMediaServerConfiguration;
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TikaMediaProcessorTest {
+
+    private final TikaMediaProcessor processor =
+            new MediaProcessorModule(null, new TikaMediaServerConfiguration()).provideTikaMediaProcessor();
+
+    private ByteArrayInputStream text(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void textIsNotLimitedByDefault() throws Exception {
+        String content = new String(new char[200 * 1000]).replace('\0', 'a');
+        MediaProcessingResponse response = processor.processMedia(text(content),
+                new ProcessingOptions.Builder().build());
+        assertEquals(content, response.getContentText().trim());
+        assertFalse(response.isTruncated());
+    }
+
+    @Test
+    void textIsCutAtMaxContentCharacters() throws Exception {
+        MediaProcessingResponse response = processor.processMedia(text("hello world"),
+                new ProcessingOptions.Builder().withMaxContentCharacters(5).build());
+        assertEquals("hello", response.getContentText());
+        assertTrue(response.isTruncated());
+        assertNotNull(response.getMetaData().get("Content-Type"));
+    }
+
+    @Test
+    void textIsWrittenToWriter() throws Exception {
+        StringWriter contentText = new StringWriter();
+        MediaProcessingResponse response = processor.processMedia(text("streamed text"),
+                new ProcessingOptions.Builder().withContentText(contentText).build());
+        assertNull(response.getContentText());
+        assertEquals("streamed text", contentText.toString().trim());
+    }
+}
@@ -0,0 +1,103 @@
+package com.a8c.media.tika.core;
+
+import com.a8c.media.tika.ParserConfiguration;
+import com.a8c.media.tika.TypeGateConfiguration;
+import org.apache.tika.io.IOUtils;
+import org.apache.tika.mime.MediaType;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TypeGateTest {
+
+    private static byte[] sample(String sample) throws Exception {
+        try (InputStream inputStream = TypeGateTest.class.getResourceAsStream("/warmup/sample." + sample)) {
+            return IOUtils.toByteArray(inputStream);
+        }
+    }
+
+    private static byte[] mp4() {
+        byte[] bytes = new byte[64];
+        byte[] box = "\0\0\0\u0018ftypisom".getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(box, 0, bytes, 0, box.length);
+        return bytes;
+    }
+
+    private static TypeGate gate(ParserRegistry parserRegistry, String... deniedTypes) {
+        TypeGateConfiguration configuration = new TypeGateConfiguration();
+        configuration.setDeniedTypes(Arrays.asList(deniedTypes));
+        return new TypeGate(configuration, parserRegistry);
+    }
+
+    @Test
+    void deniedTypesAreRejected() {
+        TypeGate typeGate = gate(ParserRegistry.full(), "video/*", "audio/*");
+        TypeGate.Sniffed sniffed = typeGate.sniff(mp4(), null, null);
+        assertEquals("video", sniffed.getType().getType());
+        assertFalse(sniffed.isAllowed());
+        // bytes tell nothing, url does
+        sniffed = typeGate.sniff(new byte[]{1, 2, 3, 4}, null, "clip.mp3");
+        assertEquals(MediaType.audio("mpeg"), sniffed.getType());
+        assertFalse(sniffed.isAllowed());
+        assertNull(sniffed.getParseType());
+    }
+
+    @Test
+    void documentsAreLetThroughWithTheirParseType() throws Exception {
+        TypeGate typeGate = gate(ParserRegistry.full(), "video/*");
+        TypeGate.Sniffed sniffed = typeGate.sniff(sample("pdf"), "application/octet-stream", "file.pdf");
+        assertTrue(sniffed.isAllowed());
+        assertEquals(MediaType.application("pdf"), sniffed.getParseType());
+        // text may be refined by the parser, it is not handed over
+        sniffed = typeGate.sniff(sample("csv"), "text/csv", "file.csv");
+        assertTrue(sniffed.isAllowed());
+        assertEquals(MediaType.text("csv"), sniffed.getType());
+        assertNull(sniffed.getParseType());
+    }
+
+    @Test
+    void unknownContentTypesAreIgnored() throws Exception {
+        ParserConfiguration parsers = new ParserConfiguration();
+        parsers.setParserClasses(Collections.singletonList("org.apache.tika.parser.pdf.PDFParser"));
+        ParserRegistry parserRegistry = ParserRegistry.of(parsers);
+        TypeGate typeGate = gate(parserRegistry);
+        int registered = parserRegistry.getMimeTypes().getMediaTypeRegistry().getTypes().size();
+        for (int i = 0; i < 10; i++) {
+            TypeGate.Sniffed sniffed = typeGate.sniff(new byte[]{1, 2, 3, 4}, "application/x-made-up-" + i, null);
+            assertEquals(MediaType.OCTET_STREAM, sniffed.getType());
+            assertTrue(sniffed.isAllowed());
+        }
+        assertEquals(registered, parserRegistry.getMimeTypes().getMediaTypeRegistry().getTypes().size());
+        // known ones still refine what bytes tell
+        assertEquals(MediaType.text("csv"), typeGate.sniff(sample("csv"), "text/csv; charset=UTF-8", null).getType());
+    }
+
+    @Test
+    void typesWithoutParserAreRejectedByTrimmedRegistry() throws Exception {
+        ParserConfiguration parsers = new ParserConfiguration();
+        parsers.setParserClasses(Collections.singletonList("org.apache.tika.parser.pdf.PDFParser"));
+        TypeGate typeGate = gate(ParserRegistry.of(parsers));
+        assertTrue(typeGate.sniff(sample("pdf"), null, null).isAllowed());
+        assertFalse(typeGate.sniff(sample("png"), null, null).isAllowed());
+        assertFalse(typeGate.sniff(sample("rtf"), null, null).isAllowed());
+        // a prefix of a zip tells nothing of what it contains, parser decides
+        TypeGate.Sniffed sniffed = typeGate.sniff(Arrays.copyOf(sample("docx"), 1024), null, null);
+        assertTrue(sniffed.isAllowed());
+        assertNull(sniffed.getParseType());
+    }
+
+    @Test
+    void allowedTypesOverrideParsers() throws Exception {
+        TypeGateConfiguration configuration = new TypeGateConfiguration();
+        configuration.setAllowedTypes(Arrays.asList("application/pdf", "image/*"));
+        TypeGate typeGate = new TypeGate(configuration, ParserRegistry.full());
+        assertTrue(typeGate.sniff(sample("pdf"), null, null).isAllowed());
+        assertTrue(typeGate.sniff(sample("png"), null, null).isAllowed());
+        assertFalse(typeGate.sniff(sample("rtf"), null, null).isAllowed());
+    }
+}
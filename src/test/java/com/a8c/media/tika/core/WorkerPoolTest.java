@@ -0,0 +1,246 @@
+package com.a8c.media.tika.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkerPoolTest {
+
+    @Test
+    void rejectsWithRetryAfterWhenQueueIsFull() throws Exception {
+        WorkerPool workerPool = new WorkerPool("ocr", 30);
+        workerPool.withExecutor(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingDeque<>(1), workerPool.rejectionHandler()));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            workerPool.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            started.await();
+            workerPool.execute(() -> {
+            });
+            assertEquals(2.0, workerPool.getSaturation(), 0.001);
+            WorkerPoolRejectedException rejected =
+                    assertThrows(WorkerPoolRejectedException.class, () -> workerPool.execute(() -> {
+                    }));
+            assertEquals(30, rejected.getRetryAfterSeconds());
+            assertEquals("ocr", rejected.getPool());
+        } finally {
+            release.countDown();
+            workerPool.getExecutor().shutdown();
+        }
+    }
+
+    @Test
+    void concurrencyLimitRejectsRequestsBeforeTheyStart() throws Exception {
+        WorkerPool workerPool = new WorkerPool("text", 5)
+                .withConcurrencyLimit(new AdaptiveConcurrencyLimit(1, 1, 10, 1.5, 0.2, 10));
+        CompletableFuture<String> running = new CompletableFuture<>();
+        assertSame(running, workerPool.admit(() -> running));
+        AtomicBoolean started = new AtomicBoolean();
+        CompletableFuture<String> shed = workerPool.admit(() -> {
+            started.set(true);
+            return CompletableFuture.completedFuture("never");
+        });
+        ExecutionException rejected = assertThrows(ExecutionException.class, shed::get);
+        assertEquals(5, ((WorkerPoolRejectedException) rejected.getCause()).getRetryAfterSeconds());
+        assertFalse(started.get());
+        // slot is held until the admitted work completes
+        running.complete("done");
+        assertEquals(0, workerPool.getConcurrencyLimit().getInFlight());
+        assertEquals("next", workerPool.admit(() -> CompletableFuture.completedFuture("next")).get());
+        assertEquals(0, workerPool.getConcurrencyLimit().getInFlight());
+    }
+
+    @Test
+    void cancelledRequestReleasesItsSlot() {
+        WorkerPool workerPool = new WorkerPool("text", 5)
+                .withConcurrencyLimit(new AdaptiveConcurrencyLimit(1, 1, 10, 1.5, 0.2, 10));
+        CompletableFuture<String> admitted = workerPool.admit(CompletableFuture::new);
+        assertEquals(1, workerPool.getConcurrencyLimit().getInFlight());
+        admitted.cancel(true);
+        assertEquals(0, workerPool.getConcurrencyLimit().getInFlight());
+    }
+
+    private static WorkerPool permitPool(Semaphore parsePermits) {
+        WorkerPool workerPool = new WorkerPool("text", 1).withParsePermits(parsePermits);
+        workerPool.withExecutor(new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingDeque<>(10), workerPool.rejectionHandler()));
+        return workerPool;
+    }
+
+    // runs work on the pool holding a parse permit, as a parse does
+    private static <T> CompletableFuture<T> parse(WorkerPool workerPool, Callable<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        workerPool.execute(() -> {
+            try {
+                result.complete(WorkerPool.runWithParsePermit(work));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    @Test
+    void permitsBoundParsesNotTasks() throws Exception {
+        Semaphore parsePermits = new Semaphore(1);
+        WorkerPool workerPool = permitPool(parsePermits);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CountDownLatch holding = new CountDownLatch(1);
+            CompletableFuture<String> first = parse(workerPool, () -> {
+                holding.countDown();
+                release.await();
+                return "first";
+            });
+            assertTrue(holding.await(5, TimeUnit.SECONDS));
+            CountDownLatch secondStarted = new CountDownLatch(1);
+            CompletableFuture<String> second = new CompletableFuture<>();
+            workerPool.execute(() -> {
+                secondStarted.countDown();
+                try {
+                    second.complete(WorkerPool.runWithParsePermit(() -> "second"));
+                } catch (Exception e) {
+                    second.completeExceptionally(e);
+                }
+            });
+            // task runs right away, only its parse waits for the permit
+            assertTrue(secondStarted.await(5, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            assertFalse(second.isDone());
+            release.countDown();
+            assertEquals("first", first.get(5, TimeUnit.SECONDS));
+            assertEquals("second", second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, parsePermits.availablePermits());
+        } finally {
+            release.countDown();
+            workerPool.getExecutor().shutdown();
+        }
+    }
+
+    @Test
+    void interruptedPermitWaitFailsTheParse() throws Exception {
+        Semaphore parsePermits = new Semaphore(1);
+        WorkerPool workerPool = permitPool(parsePermits);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CountDownLatch holding = new CountDownLatch(1);
+            CompletableFuture<String> first = parse(workerPool, () -> {
+                holding.countDown();
+                release.await();
+                return "first";
+            });
+            assertTrue(holding.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Thread> waiting = new CompletableFuture<>();
+            CompletableFuture<String> second = new CompletableFuture<>();
+            workerPool.execute(() -> {
+                waiting.complete(Thread.currentThread());
+                try {
+                    second.complete(WorkerPool.runWithParsePermit(() -> "second"));
+                } catch (Exception e) {
+                    second.completeExceptionally(e);
+                }
+            });
+            waiting.get(5, TimeUnit.SECONDS).interrupt();
+            ExecutionException failed =
+                    assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+            assertTrue(failed.getCause() instanceof InterruptedException);
+            release.countDown();
+            assertEquals("first", first.get(5, TimeUnit.SECONDS));
+            assertEquals(1, parsePermits.availablePermits());
+        } finally {
+            release.countDown();
+            workerPool.getExecutor().shutdown();
+        }
+    }
+
+    @Test
+    void streamingParseGivesPermitBackWhileWaitingForBody() throws Exception {
+        Semaphore parsePermits = new Semaphore(1);
+        WorkerPool workerPool = permitPool(parsePermits);
+        BoundedBodyInputStream body = new BoundedBodyInputStream(1024);
+        try {
+            CompletableFuture<Integer> streaming = parse(workerPool, body::read);
+            // other parse gets the permit while the streaming one waits for its body
+            assertEquals("other", parse(workerPool, () -> "other").get(5, TimeUnit.SECONDS));
+            assertFalse(streaming.isDone());
+            body.offer("x".getBytes(StandardCharsets.UTF_8), true);
+            body.complete();
+            assertEquals('x', streaming.get(5, TimeUnit.SECONDS).intValue());
+            assertEquals(1, parsePermits.availablePermits());
+        } finally {
+            body.close();
+            workerPool.getExecutor().shutdown();
+        }
+    }
+
+    @Test
+    void virtualThreadsRunEveryTaskAtOnceUpToTaskBound() throws Exception {
+        Semaphore parsePermits = new Semaphore(1);
+        WorkerPool workerPool = new WorkerPool("text", 7).withParsePermits(parsePermits)
+                .withVirtualThreads(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().factory()), 3);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(3);
+        try {
+            for (int i = 0; i < 3; i++) {
+                workerPool.execute(() -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            // no pool size holds tasks back, only the task bound
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(3, workerPool.getActiveCount());
+            assertEquals(2.0, workerPool.getSaturation(), 0.001);
+            WorkerPoolRejectedException rejected =
+                    assertThrows(WorkerPoolRejectedException.class, () -> workerPool.execute(() -> {
+                    }));
+            assertEquals(7, rejected.getRetryAfterSeconds());
+            release.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (workerPool.getActiveCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            // parses still take a permit
+            assertEquals("parsed", parse(workerPool, () -> "parsed").get(5, TimeUnit.SECONDS));
+            workerPool.getExecutor().shutdown();
+            assertTrue(workerPool.getExecutor().awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(0, workerPool.getActiveCount());
+            assertEquals(4, workerPool.getCompletedTaskCount());
+            assertEquals(1, parsePermits.availablePermits());
+        } finally {
+            release.countDown();
+            workerPool.getExecutor().shutdown();
+        }
+    }
+
+    @Test
+    void workRunsAsIsWithoutParsePermits() throws Exception {
+        assertEquals("parsed", WorkerPool.runWithParsePermit(() -> "parsed"));
+        assertFalse(WorkerPool.yieldParsePermit());
+        WorkerPool.retakeParsePermit();
+    }
+}
@@ -0,0 +1,60 @@
+package com.a8c.media.tika.resources;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.a8c.media.tika.core.RequestTimings;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlowRequestLogTest {
+    private final Logger logger = (Logger) LoggerFactory.getLogger("slow-requests");
+    private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+
+    @BeforeEach
+    void setUp() {
+        appender.start();
+        logger.addAppender(appender);
+    }
+
+    @AfterEach
+    void tearDown() {
+        logger.detachAppender(appender);
+    }
+
+    @Test
+    void logsSlowRequestsWithTheirBreakdown() throws Exception {
+        RequestTimings timings = new RequestTimings();
+        timings.add(RequestTimings.Stage.DOWNLOAD, TimeUnit.MILLISECONDS.toNanos(1500));
+        timings.setDownloadedBytes(42);
+        timings.setShared(true);
+        long receivedAt = System.nanoTime() - TimeUnit.SECONDS.toNanos(2);
+        new SlowRequestLog(1000).logIfSlow("process", "http://origin/doc.pdf", 200, timings, receivedAt);
+        assertEquals(1, appender.list.size());
+        JsonNode line = new ObjectMapper().readTree(appender.list.get(0).getFormattedMessage());
+        assertEquals("process", line.get("endpoint").asText());
+        assertEquals("http://origin/doc.pdf", line.get("resourcePath").asText());
+        assertEquals(200, line.get("status").asInt());
+        assertEquals(1500, line.get("timings").get("downloadMillis").asLong());
+        assertEquals(42, line.get("timings").get("downloadedBytes").asLong());
+        assertTrue(line.get("timings").get("totalMillis").asLong() >= 2000);
+        assertTrue(line.get("timings").get("shared").asBoolean());
+    }
+
+    @Test
+    void skipsFastRequestsAndDisabledLog() {
+        new SlowRequestLog(1000).logIfSlow("detect", "http://origin/doc.pdf", 200, new RequestTimings(),
+                System.nanoTime());
+        new SlowRequestLog(0).logIfSlow("detect", "http://origin/doc.pdf", 200, new RequestTimings(),
+                System.nanoTime() - TimeUnit.SECONDS.toNanos(60));
+        assertTrue(appender.list.isEmpty());
+    }
+}
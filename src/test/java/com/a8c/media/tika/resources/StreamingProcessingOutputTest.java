@@ -0,0 +1,84 @@
+package com.a8c.media.tika.resources;
+
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import com.a8c.media.tika.api.Timings;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import io.dropwizard.jackson.Jackson;
+import org.apache.tika.exception.TikaException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingProcessingOutputTest {
+    private final ObjectMapper objectMapper = Jackson.newObjectMapper();
+
+    private String write(boolean json, StreamingProcessingOutput.Extraction extraction) throws Exception {
+        return write(json, extraction, null);
+    }
+
+    private String write(boolean json, StreamingProcessingOutput.Extraction extraction, Supplier<Timings> timings)
+            throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StreamingProcessingOutput("/doc", objectMapper, json, true, extraction, timings).write(output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void jsonCarriesEscapedTextAndMetadataLast() throws Exception {
+        JsonNode written = objectMapper.readTree(write(true, contentText -> {
+            contentText.write("say \"hi\"\n");
+            contentText.write("tab\tand \u0001 done");
+            MediaProcessingResponse response = new MediaProcessingResponse();
+            response.setTruncated(true);
+            response.setOcrPages(Lists.newArrayList(1, 3));
+            response.setMetaData(ImmutableMap.of("Content-Type", "text/plain; charset=\"UTF-8\""));
+            return response;
+        }));
+        assertTrue(written.get("ocrIncluded").asBoolean());
+        assertEquals("say \"hi\"\ntab\tand \u0001 done", written.get("contentText").asText());
+        assertTrue(written.get("truncated").asBoolean());
+        assertEquals("[1,3]", written.get("ocrPages").toString());
+        assertEquals("text/plain; charset=\"UTF-8\"", written.get("metaData").get("Content-Type").asText());
+        assertNull(written.get("error"));
+        assertNull(written.get("timings"));
+    }
+
+    @Test
+    void requestedTimingsAreWrittenLast() throws Exception {
+        Timings timings = new Timings();
+        timings.setParseMillis(12L);
+        String written = write(true, contentText -> {
+            contentText.write("text");
+            MediaProcessingResponse response = new MediaProcessingResponse();
+            response.setMetaData(ImmutableMap.of());
+            return response;
+        }, () -> timings);
+        assertTrue(written.endsWith(",\"timings\":{\"parseMillis\":12}}"), written);
+    }
+
+    @Test
+    void failureAfterTextIsReportedInErrorField() throws Exception {
+        JsonNode written = objectMapper.readTree(write(true, contentText -> {
+            contentText.write("partial");
+            throw new TikaException("parse \"failed\"");
+        }));
+        assertEquals("partial", written.get("contentText").asText());
+        assertEquals("parse \"failed\"", written.get("error").asText());
+        assertNull(written.get("metaData"));
+    }
+
+    @Test
+    void plainTextIsWrittenAsIs() throws Exception {
+        assertEquals("say \"hi\"\n", write(false, contentText -> {
+            contentText.write("say \"hi\"\n");
+            return new MediaProcessingResponse();
+        }));
+    }
+}
@@ -0,0 +1,221 @@
+package com.a8c.media.tika.resources;
+
+import com.a8c.media.tika.TikaMediaServerConfiguration;
+import com.a8c.media.tika.api.BatchRequest;
+import com.a8c.media.tika.api.MediaProcessingRequest;
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import com.a8c.media.tika.core.MediaFetchException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.WebApplicationException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TikaBatchProcessingResourceTest {
+    private final ObjectMapper objectMapper = Jackson.newObjectMapper();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // results of the items, by resource path, completed by the tests
+    private final Map<String, CompletableFuture<MediaProcessingResponse>> results = new ConcurrentHashMap<>();
+    private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+    private final CapturingOutput output = new CapturingOutput();
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private TikaBatchProcessingResource resource(String configuration) throws IOException {
+        TikaMediaServerConfiguration mediaServerConfiguration =
+                objectMapper.readValue(configuration, TikaMediaServerConfiguration.class);
+        TikaMediaProcessingResource processingResource =
+                new TikaMediaProcessingResource(null, null, mediaServerConfiguration, null, null, objectMapper) {
+                    @Override
+                    public CompletableFuture<MediaProcessingResponse> process(MediaProcessingRequest request) {
+                        started.add(request.getResourcePath());
+                        return result(request.getResourcePath());
+                    }
+                };
+        return new TikaBatchProcessingResource(processingResource, mediaServerConfiguration, scheduler,
+                objectMapper) {
+            @Override
+            ChunkedOutput<String> newOutput() {
+                return output;
+            }
+        };
+    }
+
+    private static BatchRequest<MediaProcessingRequest> batch(long batchTimeout, String... resourcePaths) {
+        BatchRequest<MediaProcessingRequest> batchRequest = new BatchRequest<>();
+        for (String resourcePath : resourcePaths) {
+            MediaProcessingRequest request = new MediaProcessingRequest();
+            request.setResourcePath(resourcePath);
+            batchRequest.getItems().add(request);
+        }
+        batchRequest.setBatchTimeout(batchTimeout);
+        return batchRequest;
+    }
+
+    private static MediaProcessingResponse response(String text) {
+        MediaProcessingResponse response = new MediaProcessingResponse();
+        response.setContentText(text);
+        return response;
+    }
+
+    private CompletableFuture<MediaProcessingResponse> result(String resourcePath) {
+        return results.computeIfAbsent(resourcePath, path -> new CompletableFuture<>());
+    }
+
+    private JsonNode line(int i) throws IOException {
+        return objectMapper.readTree(output.lines.get(i));
+    }
+
+    @Test
+    void writesItemsInCompletionOrderAndCloses() throws Exception {
+        resource("{}").processMedia(batch(-1, "a", "b"));
+        result("b").complete(response("text of b"));
+        assertFalse(output.isClosed());
+        result("a").completeExceptionally(new MediaFetchException(415, "unsupported type"));
+        assertTrue(output.closedLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, output.lines.size());
+        assertEquals(1, line(0).get("index").asInt());
+        assertEquals(200, line(0).get("status").asInt());
+        assertEquals("text of b", line(0).get("result").get("contentText").asText());
+        assertEquals(0, line(1).get("index").asInt());
+        assertEquals("a", line(1).get("resourcePath").asText());
+        assertEquals(415, line(1).get("status").asInt());
+        assertEquals("unsupported type", line(1).get("error").asText());
+        assertTrue(output.lines.get(0).endsWith("\n"));
+    }
+
+    @Test
+    void deadlineReportsPendingItemsAsTimedOutAndCancelsThem() throws Exception {
+        resource("{}").processMedia(batch(50, "a", "b"));
+        result("a").complete(response("text of a"));
+        assertTrue(output.closedLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, output.lines.size());
+        assertEquals(200, line(0).get("status").asInt());
+        assertEquals(1, line(1).get("index").asInt());
+        assertEquals(408, line(1).get("status").asInt());
+        assertEquals("batch deadline passed", line(1).get("error").asText());
+        assertThrows(CancellationException.class, () -> result("b").get(5, TimeUnit.SECONDS));
+        // completing after the deadline writes nothing more
+        result("b").obtrudeValue(response("late"));
+        assertEquals(2, output.lines.size());
+    }
+
+    @Test
+    void startsAtMostMaxBatchConcurrencyItemsAtOnce() throws Exception {
+        resource("{\"maxBatchConcurrency\": 2}").processMedia(batch(-1, "a", "b", "c"));
+        assertEquals(2, started.size());
+        result("a").complete(response("text of a"));
+        assertEquals(3, started.size());
+        result("b").complete(response("text of b"));
+        result("c").complete(response("text of c"));
+        assertTrue(output.closedLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, output.lines.size());
+    }
+
+    @Test
+    void clientGoingAwayCancelsRunningItems() throws Exception {
+        output.failWrites = true;
+        resource("{}").processMedia(batch(-1, "a", "b"));
+        result("a").complete(response("text of a"));
+        assertTrue(output.closedLatch.await(5, TimeUnit.SECONDS));
+        assertThrows(CancellationException.class, () -> result("b").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void slowWriteDoesNotHoldBackCompletingItems() throws Exception {
+        output.writeGate = new CountDownLatch(1);
+        resource("{}").processMedia(batch(-1, "a", "b"));
+        Thread writer = new Thread(() -> result("a").complete(response("text of a")));
+        writer.start();
+        assertTrue(output.writeEntered.await(5, TimeUnit.SECONDS));
+        // queued behind the line being written, thread completing it returns right away
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> result("b").complete(response("text of b")));
+        assertTrue(output.lines.isEmpty());
+        output.writeGate.countDown();
+        assertTrue(output.closedLatch.await(5, TimeUnit.SECONDS));
+        writer.join();
+        assertEquals(2, output.lines.size());
+        assertEquals(0, line(0).get("index").asInt());
+        assertEquals(1, line(1).get("index").asInt());
+    }
+
+    @Test
+    void emptyBatchClosesRightAway() throws Exception {
+        resource("{}").processMedia(batch(-1));
+        assertTrue(output.isClosed());
+        assertTrue(output.lines.isEmpty());
+    }
+
+    @Test
+    void rejectsBatchesOverMaxBatchSize() throws Exception {
+        TikaBatchProcessingResource resource = resource("{\"maxBatchSize\": 2}");
+        WebApplicationException rejected = assertThrows(WebApplicationException.class,
+                () -> resource.processMedia(batch(-1, "a", "b", "c")));
+        assertEquals(413, rejected.getResponse().getStatus());
+        assertTrue(started.isEmpty());
+    }
+
+    /**
+     * Keeps written lines instead of sending them to a client
+     */
+    private static class CapturingOutput extends ChunkedOutput<String> {
+        private final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch closedLatch = new CountDownLatch(1);
+        private volatile boolean failWrites;
+        // when set, writes wait for it, as writes to a slow client do
+        private volatile CountDownLatch writeGate;
+        private final CountDownLatch writeEntered = new CountDownLatch(1);
+
+        CapturingOutput() {
+            super(String.class);
+        }
+
+        @Override
+        public void write(String chunk) throws IOException {
+            if (failWrites) {
+                throw new IOException("client went away");
+            }
+            writeEntered.countDown();
+            if (writeGate != null) {
+                try {
+                    writeGate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            lines.add(chunk);
+        }
+
+        @Override
+        public void close() {
+            closedLatch.countDown();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closedLatch.getCount() == 0;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.a8c.media.tika.resources;
+
+import com.a8c.media.tika.HttpClientConfiguration;
+import com.a8c.media.tika.SpoolConfiguration;
+import com.a8c.media.tika.TikaMediaServerConfiguration;
+import com.a8c.media.tika.api.MediaProcessingRequest;
+import com.a8c.media.tika.api.MediaProcessingResponse;
+import com.a8c.media.tika.api.Timings;
+import com.a8c.media.tika.core.AdaptiveConcurrencyLimit;
+import com.a8c.media.tika.core.DownloadQueue;
+import com.a8c.media.tika.core.ManagedAsyncHttpClient;
+import com.a8c.media.tika.core.MediaFetcher;
+import com.a8c.media.tika.core.ParserRegistry;
+import com.a8c.media.tika.core.SingleFlight;
+import com.a8c.media.tika.core.SpoolDirectory;
+import com.a8c.media.tika.core.TikaMediaProcessor;
+import com.a8c.media.tika.core.WorkerPool;
+import com.a8c.media.tika.core.WorkerPools;
+import com.google.common.collect.Lists;
+import io.dropwizard.jackson.Jackson;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TikaMediaProcessingResourceTest {
+    private static final byte[] TEXT = "the quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+    private final AtomicInteger originRequests = new AtomicInteger();
+    private final CountDownLatch originReceived = new CountDownLatch(1);
+    private final CountDownLatch originRelease = new CountDownLatch(1);
+    private final ExecutorService originExecutor = Executors.newCachedThreadPool();
+    private HttpServer origin;
+    private ManagedAsyncHttpClient httpClient;
+    private WorkerPool workerPool;
+    private TikaMediaProcessingResource resource;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.createContext("/", exchange -> {
+            originRequests.incrementAndGet();
+            originReceived.countDown();
+            try {
+                // /slow.txt is held until the test lets it go, so other requests can join its fetch
+                if (exchange.getRequestURI().getPath().equals("/slow.txt")) {
+                    originRelease.await(10, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getResponseHeaders().add("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, TEXT.length);
+            exchange.getResponseBody().write(TEXT);
+            exchange.close();
+        });
+        origin.setExecutor(originExecutor);
+        origin.start();
+        httpClient = new ManagedAsyncHttpClient(new HttpClientConfiguration());
+        workerPool = new WorkerPool("text", 1);
+        workerPool.withExecutor(new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingDeque<>(10), workerPool.rejectionHandler()));
+        TikaMediaProcessor tikaMediaProcessor = new TikaMediaProcessor.Builder()
+                .withTikaParser(ParserRegistry.full().getParser())
+                .withDetector(ParserRegistry.full().getParser().getDetector())
+                .withAllowedSources(Lists.newArrayList("all"))
+                .build();
+        resource = new TikaMediaProcessingResource(tikaMediaProcessor,
+                new MediaFetcher.Builder()
+                        .withSources(Lists.newArrayList("all"))
+                        .withHttpClient(httpClient)
+                        .withSpoolDirectory(new SpoolDirectory(new SpoolConfiguration()))
+                        .withDownloadQueue(new DownloadQueue(4, 4))
+                        .build(),
+                new TikaMediaServerConfiguration(), new WorkerPools(workerPool, workerPool, workerPool),
+                new SingleFlight<>("test"), Jackson.newObjectMapper());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        originRelease.countDown();
+        httpClient.stop();
+        workerPool.getExecutor().shutdown();
+        origin.stop(0);
+        originExecutor.shutdownNow();
+    }
+
+    private MediaProcessingRequest request(String path, boolean includeTimings) {
+        MediaProcessingRequest request = new MediaProcessingRequest();
+        request.setResourcePath("http://127.0.0.1:" + origin.getAddress().getPort() + path);
+        request.setIncludeTimings(includeTimings);
+        return request;
+    }
+
+    private static MediaProcessingResponse entity(CapturingAsyncResponse asyncResponse) throws Exception {
+        Response response = asyncResponse.response.get(10, TimeUnit.SECONDS);
+        assertEquals(200, response.getStatus());
+        return (MediaProcessingResponse) response.getEntity();
+    }
+
+    @Test
+    void includeTimingsReturnsStagesOfTheRequest() throws Exception {
+        CapturingAsyncResponse asyncResponse = new CapturingAsyncResponse();
+        resource.processMedia(request("/doc.txt", true), asyncResponse);
+        MediaProcessingResponse response = entity(asyncResponse);
+        assertTrue(response.getContentText().contains("quick brown fox"));
+        Timings timings = response.getTimings();
+        assertNotNull(timings);
+        assertNotNull(timings.getFirstByteMillis());
+        assertNotNull(timings.getDownloadMillis());
+        assertNotNull(timings.getParseQueueMillis());
+        assertNotNull(timings.getParseMillis());
+        assertNotNull(timings.getTotalMillis());
+        assertEquals(TEXT.length, timings.getDownloadedBytes());
+        assertTrue(timings.getExtractedCharacters() > 0);
+        assertEquals("text/plain", timings.getMimeType());
+        assertNull(timings.getShared());
+        // serialization is only known once the response is written
+        assertNull(timings.getSerializeMillis());
+    }
+
+    @Test
+    void timingsAreLeftOutUnlessRequested() throws Exception {
+        CapturingAsyncResponse asyncResponse = new CapturingAsyncResponse();
+        resource.processMedia(request("/doc.txt", false), asyncResponse);
+        assertNull(entity(asyncResponse).getTimings());
+    }
+
+    @Test
+    void coalescedRequestGetsStagesOfSharedFetch() throws Exception {
+        CapturingAsyncResponse first = new CapturingAsyncResponse();
+        resource.processMedia(request("/slow.txt", true), first);
+        assertTrue(originReceived.await(10, TimeUnit.SECONDS));
+        CapturingAsyncResponse second = new CapturingAsyncResponse();
+        resource.processMedia(request("/slow.txt", true), second);
+        originRelease.countDown();
+        Timings leader = entity(first).getTimings();
+        Timings joiner = entity(second).getTimings();
+        assertEquals(1, originRequests.get());
+        assertNull(leader.getShared());
+        assertEquals(Boolean.TRUE, joiner.getShared());
+        assertNotNull(joiner.getDownloadMillis());
+        assertEquals(leader.getFirstByteMillis(), joiner.getFirstByteMillis());
+        assertEquals(leader.getDownloadMillis(), joiner.getDownloadMillis());
+        assertEquals(leader.getParseMillis(), joiner.getParseMillis());
+        assertEquals(leader.getDownloadedBytes(), joiner.getDownloadedBytes());
+        assertEquals(leader.getExtractedCharacters(), joiner.getExtractedCharacters());
+        assertEquals(leader.getMimeType(), joiner.getMimeType());
+        assertEquals(leader.getParser(), joiner.getParser());
+    }
+
+    @Test
+    void requestsWithDifferentTimeoutsDoNotShareFetch() throws Exception {
+        MediaProcessingRequest shorter = request("/slow.txt", true);
+        shorter.setProcessingTimeout(20_000);
+        MediaProcessingRequest longer = request("/slow.txt", true);
+        longer.setProcessingTimeout(25_000);
+        CapturingAsyncResponse first = new CapturingAsyncResponse();
+        resource.processMedia(shorter, first);
+        CapturingAsyncResponse second = new CapturingAsyncResponse();
+        resource.processMedia(longer, second);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (originRequests.get() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        originRelease.countDown();
+        assertNull(entity(first).getTimings().getShared());
+        assertNull(entity(second).getTimings().getShared());
+        assertEquals(2, originRequests.get());
+    }
+
+    @Test
+    void defaultTimeoutsAreSharedWithExplicitOnes() throws Exception {
+        MediaProcessingRequest defaults = request("/slow.txt", true);
+        defaults.setProcessingTimeout(-1);
+        defaults.setFileDownloadTimeout(-1);
+        MediaProcessingRequest explicit = request("/slow.txt", true);
+        explicit.setProcessingTimeout(new TikaMediaServerConfiguration().getDefaultProcessingTimeout());
+        explicit.setFileDownloadTimeout(new TikaMediaServerConfiguration().getDefaultDownloadTimeout());
+        CapturingAsyncResponse first = new CapturingAsyncResponse();
+        resource.processMedia(defaults, first);
+        assertTrue(originReceived.await(10, TimeUnit.SECONDS));
+        CapturingAsyncResponse second = new CapturingAsyncResponse();
+        resource.processMedia(explicit, second);
+        originRelease.countDown();
+        assertNull(entity(first).getTimings().getShared());
+        assertEquals(Boolean.TRUE, entity(second).getTimings().getShared());
+        assertEquals(1, originRequests.get());
+    }
+
+    @Test
+    void requestOverConcurrencyLimitIsShedBeforeDownloading() throws Exception {
+        workerPool.withConcurrencyLimit(new AdaptiveConcurrencyLimit(1, 1, 1, 1.5, 0.2, 10));
+        CapturingAsyncResponse first = new CapturingAsyncResponse();
+        resource.processMedia(request("/slow.txt", false), first);
+        assertTrue(originReceived.await(10, TimeUnit.SECONDS));
+        CapturingAsyncResponse second = new CapturingAsyncResponse();
+        resource.processMedia(request("/doc.txt", false), second);
+        Response shed = second.response.get(10, TimeUnit.SECONDS);
+        assertEquals(429, shed.getStatus());
+        assertEquals(1, originRequests.get());
+        originRelease.countDown();
+        assertTrue(entity(first).getContentText().contains("quick brown fox"));
+        // slot is released as the work completes, maybe just after the response was resumed
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (workerPool.getConcurrencyLimit().getInFlight() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, workerPool.getConcurrencyLimit().getInFlight());
+    }
+
+    /**
+     * Captures what the resource resumes with, as the Jersey container would write it
+     */
+    private static class CapturingAsyncResponse implements AsyncResponse {
+        private final CompletableFuture<Response> response = new CompletableFuture<>();
+
+        @Override
+        public boolean resume(Object entity) {
+            return response.complete((Response) entity);
+        }
+
+        @Override
+        public boolean resume(Throwable throwable) {
+            return response.completeExceptionally(throwable);
+        }
+
+        @Override
+        public boolean cancel() {
+            return response.cancel(true);
+        }
+
+        @Override
+        public boolean cancel(int retryAfter) {
+            return cancel();
+        }
+
+        @Override
+        public boolean cancel(Date retryAfter) {
+            return cancel();
+        }
+
+        @Override
+        public boolean isSuspended() {
+            return !response.isDone();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return response.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return response.isDone();
+        }
+
+        @Override
+        public boolean setTimeout(long time, TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public void setTimeoutHandler(TimeoutHandler handler) {
+        }
+
+        @Override
+        public Collection<Class<?>> register(Class<?> callback) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Collection<Class<?>> register(Object callback) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+            return Collections.emptyMap();
+        }
+    }
+}